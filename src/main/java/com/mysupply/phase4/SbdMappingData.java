@@ -21,11 +21,6 @@ public class SbdMappingData {
      */
     private static final Logger logger = LoggerFactory.getLogger(SbdMappingData.class);
 
-    /**
-     * The lock object for synchronization.
-     */
-    private final Object lock = new Object();
-
     /**
      * Constructor for SbdMappingData.
      */
@@ -34,13 +29,11 @@ public class SbdMappingData {
     }
 
     /**
-     * Load the data if not already loaded.
+     * Load the data. Only called from the constructor, so the final map is safely published without a lock.
      */
     private void load() {
-        synchronized (lock) {
-            if (cacheCollection.isEmpty()) {
-                initializeEmbeddedMappings();
-            }
+        if (cacheCollection.isEmpty()) {
+            initializeEmbeddedMappings();
         }
     }
 
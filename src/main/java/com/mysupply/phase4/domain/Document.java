@@ -1,5 +1,6 @@
 package com.mysupply.phase4.domain;
 
+import com.mysupply.phase4.persistence.DocumentCodec;
 import com.mysupply.phase4.persistence.DocumentConstants;
 import jakarta.persistence.*;
 
@@ -15,6 +16,10 @@ public class Document {
     private UUID id;
     private byte[] data;
     private OffsetDateTime created;
+
+    // Repeated metadata values are stored as keys into the metadata dictionary
+    @Convert(converter = MetadataDictionaryConverter.class)
+    @Column(name = "domain_id")
     private String domain;
 
     @Column(name = "sender_identifier")
@@ -23,18 +28,24 @@ public class Document {
     @Column(name = "receiver_identifier")
     private String receiverIdentifier;
 
-    @Column(name = "doc_type")
+    @Convert(converter = MetadataDictionaryConverter.class)
+    @Column(name = "doc_type_id")
     private String docType;
 
+    @Convert(converter = MetadataDictionaryConverter.class)
+    @Column(name = "process_id")
     private String process;
 
-    @Column(name = "sender_certificate")
+    @Convert(converter = MetadataDictionaryConverter.class)
+    @Column(name = "sender_certificate_id")
     private String senderCertificate;
 
-    @Column(name = "receiver_certificate")
+    @Convert(converter = MetadataDictionaryConverter.class)
+    @Column(name = "receiver_certificate_id")
     private String receiverCertificate;
 
-    @Column(name = "protocol")
+    @Convert(converter = MetadataDictionaryConverter.class)
+    @Column(name = "protocol_id")
     private String protocol;
 
     @Column(name = "conversation_id")
@@ -61,12 +72,29 @@ public class Document {
     @Column(name = "data_size")
     private long dataSize;
 
+    // The codec the data is encoded with (see DocumentCodec), dataSize is the decoded size
+    @Column(name = "data_codec")
+    private String dataCodec;
+
+    // The SHA-256 hash of the decoded payload. When set, the payload is stored once in the payload table
+    @Column(name = "payload_hash")
+    private String payloadHash;
+
+    // The SHA-256 hash of the decoded inline payload of documents without a shared payload, set when they are stored
+    @Column(name = "data_hash", updatable = false)
+    private String dataHash;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "payload_hash", referencedColumnName = "hash", insertable = false, updatable = false)
+    private DocumentPayload payload;
+
     protected Document() {
     }
 
     private Document(Builder builder) {
         this.data = builder.data;
         this.dataSize = builder.dataSize;
+        this.dataCodec = DocumentCodec.NONE.getId();
         this.domain = builder.domain;
         this.senderIdentifier = builder.senderIdentifier;
         this.receiverIdentifier = builder.receiverIdentifier;
@@ -177,6 +205,31 @@ public class Document {
         return this.dataSize;
     }
 
+    public String getDataCodec() {
+        return this.dataCodec;
+    }
+
+    public String getPayloadHash() {
+        return this.payloadHash;
+    }
+
+    public String getDataHash() {
+        return this.dataHash;
+    }
+
+    public DocumentPayload getPayload() {
+        return this.payload;
+    }
+
+    // The payload as stored: shared through the payload table, or inline for documents stored before deduplication
+    public byte[] getStoredData() {
+        return this.payload != null ? this.payload.getData() : this.data;
+    }
+
+    public String getStoredDataCodec() {
+        return this.payload != null ? this.payload.getDataCodec() : this.dataCodec;
+    }
+
     public OffsetDateTime getCreated() {
         return this.created;
     }
@@ -238,6 +291,10 @@ public class Document {
    // public DocumentStatus getDocumentStatus() { return this.documentStatus; }
 
     // Setters
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
     public void setData(byte[] data) {
 
         this.data = data;
@@ -248,6 +305,18 @@ public class Document {
         this.dataSize = dataSize;
     }
 
+    public void setDataCodec(String dataCodec) {
+        this.dataCodec = dataCodec;
+    }
+
+    public void setPayloadHash(String payloadHash) {
+        this.payloadHash = payloadHash;
+    }
+
+    public void setDataHash(String dataHash) {
+        this.dataHash = dataHash;
+    }
+
     public void setCreated(OffsetDateTime created) {
         this.created = created;
     }
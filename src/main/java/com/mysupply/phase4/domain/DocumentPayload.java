@@ -0,0 +1,80 @@
+package com.mysupply.phase4.domain;
+
+import com.mysupply.phase4.persistence.DocumentConstants;
+import com.mysupply.phase4.persistence.DocumentPayloadPointer;
+import jakarta.persistence.*;
+import org.hibernate.annotations.Immutable;
+
+import java.time.OffsetDateTime;
+
+/**
+ * A payload shared by all documents with byte-identical content. Rows are written and reference counted with JDBC
+ * by the document writer, so the entity is read-only. The bytes are either in {@code data} or, when an external
+ * payload store is used, at the location returned by {@link #getPointer()}.
+ */
+@Entity
+@Immutable
+@Table(name = DocumentConstants.DOCUMENT_PAYLOAD_TABLE_NAME, schema = DocumentConstants.DOCUMENT_SCHEMA_NAME)
+public class DocumentPayload {
+    @Id
+    private String hash;
+
+    private byte[] data;
+
+    @Column(name = "data_codec")
+    private String dataCodec;
+
+    @Column(name = "data_size")
+    private long dataSize;
+
+    @Column(name = "ref_count")
+    private long refCount;
+
+    private OffsetDateTime created;
+
+    @Column(name = "segment_id")
+    private Long segmentId;
+
+    @Column(name = "segment_offset")
+    private Long segmentOffset;
+
+    @Column(name = "segment_length")
+    private Integer segmentLength;
+
+    protected DocumentPayload() {
+    }
+
+    public String getHash() {
+        return this.hash;
+    }
+
+    public byte[] getData() {
+        return this.data;
+    }
+
+    public String getDataCodec() {
+        return this.dataCodec;
+    }
+
+    public long getDataSize() {
+        return this.dataSize;
+    }
+
+    public long getRefCount() {
+        return this.refCount;
+    }
+
+    public OffsetDateTime getCreated() {
+        return this.created;
+    }
+
+    /**
+     * Returns where the payload is kept when it is not in {@link #getData()}, otherwise null.
+     */
+    public DocumentPayloadPointer getPointer() {
+        if (this.segmentId == null) {
+            return null;
+        }
+        return new DocumentPayloadPointer(this.segmentId, this.segmentOffset, this.segmentLength);
+    }
+}
@@ -0,0 +1,30 @@
+package com.mysupply.phase4.domain;
+
+import com.mysupply.phase4.peppolstandalone.context.SpringContextHolder;
+import com.mysupply.phase4.persistence.MetadataDictionary;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Stores a metadata value as its key in the metadata dictionary.
+ * <p>
+ * Converting to the database never adds a value: the converter is also applied to query parameters, and a filter on
+ * an unknown value must match nothing. Values are added to the dictionary when a document is received.
+ */
+@Converter
+public class MetadataDictionaryConverter implements AttributeConverter<String, Integer> {
+    @Override
+    public Integer convertToDatabaseColumn(String attribute) {
+        return getDictionary().findIdOrUnknown(attribute);
+    }
+
+    @Override
+    public String convertToEntityAttribute(Integer dbData) {
+        return getDictionary().getValue(dbData);
+    }
+
+    // The entity manager is not created by Spring, so the converter cannot be injected
+    private static MetadataDictionary getDictionary() {
+        return SpringContextHolder.getBean(MetadataDictionary.class);
+    }
+}
@@ -0,0 +1,11 @@
+package com.mysupply.phase4.peppolstandalone.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class HttpBadRequestException extends RuntimeException {
+    public HttpBadRequestException(String message) {
+        super(message);
+    }
+}
@@ -22,24 +22,63 @@ import com.helger.base.string.StringHelper;
 import com.mysupply.phase4.domain.*;
 import com.mysupply.phase4.peppolstandalone.APConfig;
 import com.mysupply.phase4.peppolstandalone.dto.*;
+import com.mysupply.phase4.persistence.DocumentClaimer;
+import com.mysupply.phase4.persistence.DocumentCodec;
+import com.mysupply.phase4.persistence.DocumentConfirmationWriter;
+import com.mysupply.phase4.persistence.DocumentConstants;
+import com.mysupply.phase4.persistence.DocumentGroupCommitter;
+import com.mysupply.phase4.persistence.DocumentNotifications;
+import com.mysupply.phase4.persistence.DocumentOrderKey;
+import com.mysupply.phase4.persistence.DocumentVersion;
+import com.mysupply.phase4.persistence.IDocumentPayloadStore;
 import com.mysupply.phase4.persistence.ISBDRepository;
+import com.mysupply.phase4.persistence.MetadataDictionary;
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentLeaseConfiguration;
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentNotificationConfiguration;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.Query;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
-
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/retriever/v1.0")
@@ -48,6 +87,9 @@ public class PeppolRetrieverController {
     private static final Logger LOGGER = LoggerFactory.getLogger(PeppolRetrieverController.class);
     private static final LocalDateTime ONLINE_TIMESTAMP = LocalDateTime.now();
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    /** The upper bound of the page size of getNotRetrievedDocumentIds. */
+    private static final int MAX_PAGE_SIZE = 10000;
+    private static final byte[] CRLF = { '\r', '\n' };
 
     @Autowired
     private ISBDRepository sbdRepository;
@@ -58,12 +100,40 @@ public class PeppolRetrieverController {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private IDocumentPayloadStore documentPayloadStore;
+
+    @Autowired
+    private MetadataDictionary metadataDictionary;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private DocumentConfirmationWriter documentConfirmationWriter;
+
+    @Autowired
+    private DocumentNotifications documentNotifications;
+
+    @Autowired
+    private PeppolDocumentNotificationConfiguration documentNotificationConfiguration;
+
+    @Autowired
+    private DocumentClaimer documentClaimer;
+
+    @Autowired
+    private PeppolDocumentLeaseConfiguration documentLeaseConfiguration;
+
+    @Autowired
+    private RetrieverBodyCodecs retrieverBodyCodecs;
+
     @Autowired
     private void setSbdRepository(ISBDRepository sbdRepository) {
         this.sbdRepository = sbdRepository;
     }
 
-    /// Gets a list of documents that have not yet been retrieved.
+    /// Gets one page of documents that have not yet been retrieved, oldest first. The result carries a cursor for the
+    /// next page as long as more documents match.
     @PostMapping(path = "/getNotRetrievedDocumentIds", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<String> getNotRetrievedDocumentIds(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
                                                           @RequestBody final String retrieveSearchSettingJSon) {
@@ -83,30 +153,8 @@ public class PeppolRetrieverController {
                     .body("Invalid JSON format for RetrieveSearchSetting");
         }
 
-        RetrieveSearchResult retrieveSearchResult = new RetrieveSearchResult();
-
-        // Use the boolean flags to determine if we should retrieve all
-        boolean senderWildcard = searchSetting.isRetrieveFromAllSenders();
-        boolean receiverWildcard = searchSetting.isRetrieveFromAllReceivers();
-        boolean domainWildcard = searchSetting.isRetrieveFromAllDomains();
-
-        // Provide empty lists if null to avoid null pointer exceptions in query
-        List<String> senderIds = searchSetting.getSenderIdentifiers() != null
-                ? searchSetting.getSenderIdentifiers() : List.of();
-        List<String> receiverIds = searchSetting.getReceiverIdentifiers() != null
-                ? searchSetting.getReceiverIdentifiers() : List.of();
-        List<String> domains = searchSetting.getDomains() != null
-                ? searchSetting.getDomains() : List.of();
-
-        // Find all document IDs that match the search criteria and have not yet been retrieved
-        List<UUID> documentIds = this.sbdRepository.findNotRetrievedIdsBySearchCriteria(
-                senderWildcard, senderIds,
-                receiverWildcard, receiverIds,
-                domainWildcard, domains
-        );
-
-        // Set document IDs directly to the result
-        retrieveSearchResult.setDocumentIds(documentIds);
+        DocumentCursor after = decodeCursor(searchSetting);
+        RetrieveSearchResult retrieveSearchResult = this.findNotRetrievedPage(searchSetting, after);
         try {
             String resultJson = objectMapper.writeValueAsString(retrieveSearchResult);
             return ResponseEntity.ok(resultJson);
@@ -121,9 +169,190 @@ public class PeppolRetrieverController {
         }
     }
 
+    /// The same search with a CBOR ("application/cbor") or Smile ("application/x-jackson-smile") request body. The
+    /// result is encoded like the request unless Accept names JSON, CBOR or Smile with a higher quality.
+    @PostMapping(path = "/getNotRetrievedDocumentIds", consumes = { RetrieverBodyCodecs.APPLICATION_CBOR_VALUE, RetrieverBodyCodecs.APPLICATION_SMILE_VALUE })
+    public void getNotRetrievedDocumentIdsEncoded(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
+                                                  final HttpServletRequest request,
+                                                  final HttpServletResponse response) throws IOException {
+        this.handleEncoded(xtoken, RetrieveSearchSetting.class, request, response, searchSetting -> {
+            DocumentCursor after = decodeCursor(searchSetting);
+            return ResponseEntity.ok(this.findNotRetrievedPage(searchSetting, after));
+        });
+    }
 
-    @PostMapping(path = "/getDocument", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<String> getDocument(@RequestHeader(HEADER_X_TOKEN) final String xtoken
+
+    /// Leases up to maxDocuments pending documents to the calling connector. Concurrent claims never lease the same
+    /// document, so connector instances with the same criteria can share the work. A leased document is not claimed
+    /// again until its lease expires; confirming it ends the lease for good.
+    @PostMapping(path = "/claimDocuments", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> claimDocuments(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
+                                                 @RequestBody final String claimSettingJSon) {
+        ResponseEntity<String> errorResponse = this.validateToken(xtoken);
+        if (errorResponse != null)
+        {
+            return errorResponse;
+        }
+
+        ClaimSetting claimSetting;
+        try {
+            claimSetting = objectMapper.readValue(claimSettingJSon, ClaimSetting.class);
+        } catch (Exception ex) {
+            LOGGER.error("Failed to parse ClaimSetting JSON: ", ex);
+            return ResponseEntity
+                    .badRequest()
+                    .body("Invalid JSON format for ClaimSetting");
+        }
+        if (claimSetting.getConnectorId() == null || claimSetting.getSearch() == null) {
+            return ResponseEntity
+                    .badRequest()
+                    .body("ClaimSetting requires a connectorId and search criteria");
+        }
+
+        int maxDocuments = Math.clamp(claimSetting.getMaxDocuments(), 1, this.documentLeaseConfiguration.getMaxDocumentsPerClaim());
+        long leaseMillis = claimSetting.getLeaseMillis() != null
+                ? Math.clamp(claimSetting.getLeaseMillis(), 1, this.documentLeaseConfiguration.getMaxLeaseMillis())
+                : this.documentLeaseConfiguration.getDefaultLeaseMillis();
+        OffsetDateTime leasedUntil = OffsetDateTime.now(ZoneOffset.UTC).plus(Duration.ofMillis(leaseMillis));
+
+        try {
+            ClaimResult claimResult = new ClaimResult();
+            claimResult.setDocumentIds(this.documentClaimer.claim(claimSetting.getSearch(),
+                    claimSetting.getConnectorId(),
+                    maxDocuments,
+                    leasedUntil));
+            claimResult.setLeasedUntil(leasedUntil);
+            return ResponseEntity.ok(objectMapper.writeValueAsString(claimResult));
+        } catch (Exception ex) {
+            LOGGER.error("Failed to claim documents: ", ex);
+            return ResponseEntity
+                    .internalServerError()
+                    .body("Failed to claim documents");
+        }
+    }
+
+    /// Long-poll variant of getNotRetrievedDocumentIds. When no document matches yet, the request waits until a
+    /// matching document is stored or the wait time ends, then returns the page as getNotRetrievedDocumentIds would.
+    /// The wait is capped by the configured maximum. When the notifications are disabled the page is returned right away.
+    @PostMapping(path = "/waitForNotRetrievedDocumentIds", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> waitForNotRetrievedDocumentIds(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
+                                                                 @RequestParam(name = "waitMillis", required = false) final Long waitMillis,
+                                                                 @RequestBody final String retrieveSearchSettingJSon) {
+        ResponseEntity<String> errorResponse = this.validateToken(xtoken);
+        if (errorResponse != null)
+        {
+            return errorResponse;
+        }
+
+        RetrieveSearchSetting searchSetting;
+        try {
+            searchSetting = objectMapper.readValue(retrieveSearchSettingJSon, RetrieveSearchSetting.class);
+        } catch (Exception ex) {
+            LOGGER.error("Failed to parse RetrieveSearchSetting JSON: ", ex);
+            return ResponseEntity
+                    .badRequest()
+                    .body("Invalid JSON format for RetrieveSearchSetting");
+        }
+
+        DocumentCursor after = decodeCursor(searchSetting);
+        long maxWaitMillis = this.documentNotificationConfiguration.getLongPollMaxWaitMillis();
+        long wait = waitMillis != null ? Math.clamp(waitMillis, 0, maxWaitMillis) : maxWaitMillis;
+        if (!this.documentNotifications.isEnabled()) {
+            // Nothing would ever wake the request, so it must not wait for the full time
+            wait = 0;
+        }
+
+        // Subscribe before the first query, so a document stored in between still wakes the request.
+        // With spring.threads.virtual.enabled the wait does not hold a platform thread, otherwise it holds a Tomcat
+        // worker for at most the long poll maximum
+        CompletableFuture<Void> woken = new CompletableFuture<>();
+        try (DocumentNotifications.Subscription subscription = this.documentNotifications.subscribe(
+                notification -> searchSetting.matches(notification.getSenderIdentifier(),
+                        notification.getReceiverIdentifier(),
+                        notification.getDomain()),
+                notification -> woken.complete(null))) {
+            RetrieveSearchResult retrieveSearchResult = this.findNotRetrievedPage(searchSetting, after);
+            if (retrieveSearchResult.getDocumentIds().isEmpty() && wait > 0) {
+                try {
+                    woken.get(wait, TimeUnit.MILLISECONDS);
+                    retrieveSearchResult = this.findNotRetrievedPage(searchSetting, after);
+                } catch (TimeoutException ex) {
+                    // Nothing arrived, the empty page is returned
+                }
+            }
+            return ResponseEntity.ok(objectMapper.writeValueAsString(retrieveSearchResult));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity
+                    .internalServerError()
+                    .body("Interrupted while waiting for documents");
+        } catch (Exception ex) {
+            LOGGER.error("Failed to wait for not retrieved documents: ", ex);
+            return ResponseEntity
+                    .internalServerError()
+                    .body("Message " + ex.getMessage());
+        }
+    }
+
+    /// Server-Sent Events stream with one "document" event per newly stored document that matches the criteria. Each
+    /// event carries the document ID, domain, sender and receiver as JSON. A missing criterion matches everything.
+    /// The stream ends after the configured timeout and the client is expected to reconnect; documents stored while
+    /// it is not connected are found with getNotRetrievedDocumentIds.
+    @GetMapping(path = "/documentEvents", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> documentEvents(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
+                                            @RequestParam(name = "senderIdentifier", required = false) final List<String> senderIdentifiers,
+                                            @RequestParam(name = "receiverIdentifier", required = false) final List<String> receiverIdentifiers,
+                                            @RequestParam(name = "domain", required = false) final List<String> domains) {
+        ResponseEntity<String> errorResponse = this.validateToken(xtoken);
+        if (errorResponse != null)
+        {
+            return errorResponse;
+        }
+        if (!this.documentNotifications.isEnabled()) {
+            return ResponseEntity
+                    .status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Document notifications are disabled");
+        }
+
+        RetrieveSearchSetting searchSetting = new RetrieveSearchSetting();
+        searchSetting.setSenderIdentifiers(senderIdentifiers);
+        searchSetting.setRetrieveFromAllSenders(senderIdentifiers == null || senderIdentifiers.isEmpty());
+        searchSetting.setReceiverIdentifiers(receiverIdentifiers);
+        searchSetting.setRetrieveFromAllReceivers(receiverIdentifiers == null || receiverIdentifiers.isEmpty());
+        searchSetting.setDomains(domains);
+        searchSetting.setRetrieveFromAllDomains(domains == null || domains.isEmpty());
+
+        SseEmitter emitter = new SseEmitter(this.documentNotificationConfiguration.getSseTimeoutMillis());
+        DocumentNotifications.Subscription subscription = this.documentNotifications.subscribe(
+                notification -> searchSetting.matches(notification.getSenderIdentifier(),
+                        notification.getReceiverIdentifier(),
+                        notification.getDomain()),
+                notification -> {
+                    try {
+                        emitter.send(SseEmitter.event()
+                                .id(notification.getDocumentId().toString())
+                                .name("document")
+                                .data(objectMapper.writeValueAsString(notification)));
+                    } catch (IOException ex) {
+                        // The client went away
+                        emitter.completeWithError(ex);
+                    }
+                });
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(ex -> subscription.close());
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(emitter);
+    }
+
+    /// Returns one document as JSON, or with "Accept: application/octet-stream" as the bare payload with the metadata
+    /// in X-Document-* headers. The binary payload is sent as stored with a Content-Encoding header when the connector
+    /// accepts its codec, either in the request body or in Accept-Encoding.
+    @PostMapping(path = "/getDocument", produces = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE })
+    public ResponseEntity<?> getDocument(@RequestHeader(HEADER_X_TOKEN) final String xtoken
+                                                            , @RequestHeader(value = HttpHeaders.ACCEPT, required = false) final String accept
+                                                            , @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) final String acceptEncoding
                                                             , @RequestBody final String retrieveSettingJSon
     ) {
         ResponseEntity<String> errorResponse = this.validateToken(xtoken);
@@ -142,8 +371,40 @@ public class PeppolRetrieverController {
                     .body("Invalid JSON format for RetrieveSetting");
         }
 
-        Document document = this.sbdRepository.getReferenceById(retrieveSetting.getDocumentId());
-        RetrieveData retrieveData = new RetrieveData(document);
+        Optional<Document> documentOpt = this.sbdRepository.findWithPayloadById(retrieveSetting.getDocumentId());
+        if (documentOpt.isEmpty()) {
+            return ResponseEntity
+                    .badRequest()
+                    .body("Document with ID " + retrieveSetting.getDocumentId() + " not found.");
+        }
+
+        Document document = documentOpt.get();
+        boolean binary = negotiateMediaType(accept, MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM) == MediaType.APPLICATION_OCTET_STREAM;
+        RetrieveData retrieveData;
+        try {
+            retrieveData = binary
+                    ? this.toRetrieveData(document, coding -> retrieveSetting.acceptsEncoding(coding) || acceptsContentCoding(acceptEncoding, coding))
+                    : this.toRetrieveData(document, retrieveSetting::acceptsEncoding);
+        } catch (Exception ex) {
+            LOGGER.error("Failed to read the payload of document " + document.getId() + ": ", ex);
+            return ResponseEntity
+                    .internalServerError()
+                    .body("Failed to read the document payload");
+        }
+
+        if (binary) {
+            // No base64 and no JSON copy of the payload, the bytes are written as they are
+            HttpHeaders headers = new HttpHeaders();
+            addMetadataHeaders(headers, retrieveData);
+            if (retrieveData.getDataEncoding() != null) {
+                headers.set(HttpHeaders.CONTENT_ENCODING, retrieveData.getDataEncoding());
+            }
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .body(retrieveData.getData());
+        }
         try {
             String retrieveDataJson = objectMapper.writeValueAsString(retrieveData);
             return ResponseEntity.ok(retrieveDataJson);
@@ -155,6 +416,110 @@ public class PeppolRetrieverController {
         }
     }
 
+    /// Returns one document with a CBOR or Smile request body, encoded like the request unless Accept asks for another
+    /// encoding. CBOR and Smile carry the payload as raw bytes, without the base64 overhead of JSON.
+    @PostMapping(path = "/getDocument", consumes = { RetrieverBodyCodecs.APPLICATION_CBOR_VALUE, RetrieverBodyCodecs.APPLICATION_SMILE_VALUE })
+    public void getDocumentEncoded(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
+                                   final HttpServletRequest request,
+                                   final HttpServletResponse response) throws IOException {
+        this.handleEncoded(xtoken, RetrieveSetting.class, request, response, retrieveSetting -> {
+            Optional<Document> documentOpt = this.sbdRepository.findWithPayloadById(retrieveSetting.getDocumentId());
+            if (documentOpt.isEmpty()) {
+                return ResponseEntity
+                        .badRequest()
+                        .body("Document with ID " + retrieveSetting.getDocumentId() + " not found.");
+            }
+            return ResponseEntity.ok(this.toRetrieveData(documentOpt.get(), retrieveSetting::acceptsEncoding));
+        });
+    }
+
+    /// Streams many documents as newline-delimited JSON, one {@link RetrieveData} per line, in the order they were
+    /// received. Either the given document IDs are returned, or up to the limit of the oldest documents that have not
+    /// been retrieved. Unknown IDs are skipped.
+    /// With "Accept: multipart/mixed" every document is sent as two parts instead: its metadata as JSON without the
+    /// data, followed by the bare payload. The parts carry the Content-IDs {@code <id@metadata>} and {@code <id@data>}.
+    /// The rows are read through a database cursor and written as they arrive, so memory use does not grow with the
+    /// number of documents. A failure after the first line aborts the response, the connector sees a truncated stream.
+    @PostMapping(path = "/getDocuments", produces = { MediaType.APPLICATION_NDJSON_VALUE, MediaType.MULTIPART_MIXED_VALUE })
+    public ResponseEntity<?> getDocuments(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
+                                          @RequestHeader(value = HttpHeaders.ACCEPT, required = false) final String accept,
+                                          @RequestBody final String retrieveBatchSettingJSon) {
+        ResponseEntity<String> errorResponse = this.validateToken(xtoken);
+        if (errorResponse != null)
+        {
+            return errorResponse;
+        }
+
+        RetrieveBatchSetting batchSetting;
+        try {
+            batchSetting = objectMapper.readValue(retrieveBatchSettingJSon, RetrieveBatchSetting.class);
+        } catch (Exception ex) {
+            LOGGER.error("Failed to parse RetrieveBatchSetting JSON: ", ex);
+            return ResponseEntity
+                    .badRequest()
+                    .body("Invalid JSON format for RetrieveBatchSetting");
+        }
+
+        List<UUID> documentIds = batchSetting.getDocumentIds() != null ? batchSetting.getDocumentIds() : List.of();
+        if (documentIds.isEmpty() && batchSetting.getLimit() <= 0) {
+            return ResponseEntity
+                    .badRequest()
+                    .body("Either document IDs or a positive limit must be specified");
+        }
+
+        MediaType contentType;
+        DocumentWriter documentWriter;
+        byte[] trailer;
+        if (negotiateMediaType(accept, MediaType.APPLICATION_NDJSON, MediaType.MULTIPART_MIXED) == MediaType.MULTIPART_MIXED) {
+            String boundary = "phase4-" + UUID.randomUUID();
+            contentType = new MediaType(MediaType.MULTIPART_MIXED, Map.of("boundary", boundary));
+            documentWriter = (retrieveData, outputStream) -> this.writeMultipartDocument(retrieveData, boundary, outputStream);
+            trailer = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        } else {
+            contentType = MediaType.APPLICATION_NDJSON;
+            documentWriter = (retrieveData, outputStream) -> {
+                outputStream.write(objectMapper.writeValueAsBytes(retrieveData));
+                outputStream.write('\n');
+            };
+            trailer = null;
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(this.transactionManager);
+            transactionTemplate.setReadOnly(true);
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    if (documentIds.isEmpty()) {
+                        try (Stream<Document> documents = this.sbdRepository.streamNotRetrievedWithPayload(Limit.of(batchSetting.getLimit()))) {
+                            this.writeDocuments(documents, batchSetting::acceptsEncoding, documentWriter, outputStream);
+                        }
+                    } else {
+                        // Large ID lists are queried in chunks, each one streamed before the next is started. The IDs are
+                        // sorted by reception time first, so the chunks follow each other in that order as well
+                        List<UUID> orderedIds = documentIds.size() > DocumentConstants.MAX_IDS_PER_QUERY
+                                ? this.sortByReception(documentIds)
+                                : documentIds;
+                        for (int from = 0; from < orderedIds.size(); from += DocumentConstants.MAX_IDS_PER_QUERY) {
+                            List<UUID> chunk = orderedIds.subList(from, Math.min(orderedIds.size(), from + DocumentConstants.MAX_IDS_PER_QUERY));
+                            try (Stream<Document> documents = this.sbdRepository.streamWithPayloadByIds(chunk)) {
+                                this.writeDocuments(documents, batchSetting::acceptsEncoding, documentWriter, outputStream);
+                            }
+                        }
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            if (trailer != null) {
+                outputStream.write(trailer);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .body(body);
+    }
+
     @PostMapping(path = "/confirmDocument", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<String> getConfirmDocument(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
                                                           @RequestBody final String confirmSettingJSon) {
@@ -202,6 +567,77 @@ public class PeppolRetrieverController {
         }
     }
 
+    /// Confirms many documents as retrieved with one set-based update. The payloads are not loaded. The result lists
+    /// each distinct document ID either as confirmed or as not found.
+    @PostMapping(path = "/confirmDocuments", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> confirmDocuments(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
+                                                   @RequestBody final String confirmSettingsJSon) {
+        ResponseEntity<String> errorResponse = this.validateToken(xtoken);
+        if (errorResponse != null)
+        {
+            return errorResponse;
+        }
+
+        List<ConfirmSetting> confirmSettings;
+        try {
+            confirmSettings = Arrays.asList(objectMapper.readValue(confirmSettingsJSon, ConfirmSetting[].class));
+        } catch (Exception ex) {
+            LOGGER.error("Failed to parse ConfirmSetting array JSON: ", ex);
+            return ResponseEntity
+                    .badRequest()
+                    .body("Invalid JSON format for the ConfirmSetting array");
+        }
+
+        try {
+            return ResponseEntity.ok(objectMapper.writeValueAsString(this.confirm(confirmSettings)));
+        } catch (Exception ex) {
+            LOGGER.error("Failed to confirm documents: ", ex);
+            return ResponseEntity
+                    .internalServerError()
+                    .body("Failed to confirm documents");
+        }
+    }
+
+    /// Confirms one document with a CBOR or Smile ConfirmSetting. Unlike the JSON variant, which answers with a text
+    /// message, the result is a {@link ConfirmBatchResult} for the single document.
+    @PostMapping(path = "/confirmDocument", consumes = { RetrieverBodyCodecs.APPLICATION_CBOR_VALUE, RetrieverBodyCodecs.APPLICATION_SMILE_VALUE })
+    public void confirmDocumentEncoded(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
+                                       final HttpServletRequest request,
+                                       final HttpServletResponse response) throws IOException {
+        this.handleEncoded(xtoken, ConfirmSetting.class, request, response,
+                confirmSetting -> ResponseEntity.ok(this.confirm(List.of(confirmSetting))));
+    }
+
+    /// Confirms many documents with a CBOR or Smile ConfirmSetting array, see the JSON variant.
+    @PostMapping(path = "/confirmDocuments", consumes = { RetrieverBodyCodecs.APPLICATION_CBOR_VALUE, RetrieverBodyCodecs.APPLICATION_SMILE_VALUE })
+    public void confirmDocumentsEncoded(@RequestHeader(HEADER_X_TOKEN) final String xtoken,
+                                        final HttpServletRequest request,
+                                        final HttpServletResponse response) throws IOException {
+        this.handleEncoded(xtoken, ConfirmSetting[].class, request, response,
+                confirmSettings -> ResponseEntity.ok(this.confirm(Arrays.asList(confirmSettings))));
+    }
+
+    /// Marks the documents as retrieved and reports each distinct document ID as confirmed or not found.
+    private ConfirmBatchResult confirm(List<ConfirmSetting> confirmSettings) throws SQLException {
+        Set<UUID> confirmedIds = this.documentConfirmationWriter.confirm(confirmSettings);
+
+        ConfirmBatchResult confirmBatchResult = new ConfirmBatchResult();
+        Set<UUID> requestedIds = new LinkedHashSet<>();
+        for (ConfirmSetting confirmSetting : confirmSettings) {
+            if (confirmSetting != null && confirmSetting.getDocumentId() != null) {
+                requestedIds.add(confirmSetting.getDocumentId());
+            }
+        }
+        for (UUID documentId : requestedIds) {
+            if (confirmedIds.contains(documentId)) {
+                confirmBatchResult.addConfirmedDocumentId(documentId);
+            } else {
+                confirmBatchResult.addNotFoundDocumentId(documentId);
+            }
+        }
+        return confirmBatchResult;
+    }
+
     @GetMapping(path = "/online", produces = MediaType.TEXT_PLAIN_VALUE)
     public ResponseEntity<String> online() {
         // It is a post method, so it can be used from a browser or monitoring tool to check if the service is online.
@@ -221,27 +657,71 @@ public class PeppolRetrieverController {
     }
 
     /// Downloads the document data as XML file.
+    /// The response carries a strong ETag derived from the payload hash, so a repeated download with If-None-Match is
+    /// answered with 304 before the document is loaded. Range requests are answered with 206 and the requested bytes.
+    /// When the payload is sent with a Content-Encoding, the ETag names the codec and the ranges refer to the encoded
+    /// bytes.
     @GetMapping(path = "/downloadDocument", produces = MediaType.APPLICATION_XML_VALUE)
-    public ResponseEntity<byte[]> downloadDocument(@RequestParam("token") final String token,
-                                                   @RequestParam("id") final UUID documentId) {
+    public ResponseEntity<Resource> downloadDocument(@RequestParam("token") final String token,
+                                                     @RequestParam("id") final UUID documentId,
+                                                     @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) final String acceptEncoding,
+                                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
         ResponseEntity<String> errorResponse = this.validateToken(token);
         if (errorResponse != null) {
-            return ResponseEntity.badRequest().body(errorResponse.getBody().getBytes());
+            return ResponseEntity.badRequest().body(new ByteArrayResource(errorResponse.getBody().getBytes()));
         }
 
         try {
-            Optional<Document> documentOpt = this.sbdRepository.findById(documentId);
-            if (documentOpt.isEmpty()) {
+            Optional<DocumentVersion> versionOpt = this.sbdRepository.findVersionById(documentId);
+            if (versionOpt.isEmpty()) {
                 return ResponseEntity.notFound().build();
             }
 
-            Document document = documentOpt.get();
+            DocumentCodec codec = DocumentCodec.fromId(versionOpt.get().getDataCodec());
+            boolean sendEncoded = codec != DocumentCodec.NONE && acceptsContentCoding(acceptEncoding, codec.getId());
             String filename = "document_" + documentId.toString().substring(0, 8) + ".xml";
 
-            return ResponseEntity.ok()
+            String eTag = null;
+            if (versionOpt.get().getPayloadHash() != null) {
+                eTag = toETag(versionOpt.get().getPayloadHash(), sendEncoded ? codec : DocumentCodec.NONE);
+                if (matchesIfNoneMatch(ifNoneMatch, eTag)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                            .eTag(eTag)
+                            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                            .build();
+                }
+            }
+
+            Optional<Document> documentOpt = this.sbdRepository.findWithPayloadById(documentId);
+            if (documentOpt.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            byte[] storedData = this.readStoredData(documentOpt.get());
+            byte[] data = sendEncoded ? storedData : codec.decode(storedData);
+            if (eTag == null) {
+                // Compressed inline payloads stored before payloads were hashed at ingest. The download only reads,
+                // so the hash is computed each time instead of being stored
+                String dataHash = DocumentGroupCommitter.sha256Hex(sendEncoded ? codec.decode(storedData) : data);
+                eTag = toETag(dataHash, sendEncoded ? codec : DocumentCodec.NONE);
+                if (matchesIfNoneMatch(ifNoneMatch, eTag)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                            .eTag(eTag)
+                            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                            .build();
+                }
+            }
+
+            // A Resource body lets Spring answer Range requests with 206 and the requested regions
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
                     .header("Content-Disposition", "attachment; filename=\"" + filename + "\"")
                     .header("Content-Type", "application/xml")
-                    .body(document.getData());
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .eTag(eTag);
+            if (sendEncoded) {
+                // The client decodes the payload itself, so it is sent as stored
+                response.header(HttpHeaders.CONTENT_ENCODING, codec.getId());
+            }
+            return response.body(new ByteArrayResource(data));
         } catch (Exception ex) {
             LOGGER.error("Failed to download document: ", ex);
             return ResponseEntity.internalServerError().build();
@@ -617,11 +1097,316 @@ public class PeppolRetrieverController {
         }
     }
 
+    /// Decodes the cursor of the search, or returns null when the search has none.
+    ///
+    /// @throws HttpBadRequestException If the cursor was not created by this service.
+    static DocumentCursor decodeCursor(RetrieveSearchSetting searchSetting) {
+        if (StringHelper.isEmpty(searchSetting.getCursor())) {
+            return null;
+        }
+        try {
+            return DocumentCursor.decode(searchSetting.getCursor());
+        } catch (IllegalArgumentException ex) {
+            throw new HttpBadRequestException("Invalid cursor in RetrieveSearchSetting");
+        }
+    }
+
+    /// Returns the message of a rejected request as the body, like the handlers do for the errors they find themselves.
+    @ExceptionHandler(HttpBadRequestException.class)
+    public ResponseEntity<String> handleBadRequest(final HttpBadRequestException ex) {
+        return ResponseEntity
+                .badRequest()
+                .body(ex.getMessage());
+    }
+
+    /// Finds the page of not retrieved document IDs that follows the cursor position, or the first page without one.
+    private RetrieveSearchResult findNotRetrievedPage(RetrieveSearchSetting searchSetting, DocumentCursor after) {
+        int pageSize = Math.clamp(searchSetting.getPageSize(), 1, MAX_PAGE_SIZE);
+        RetrieveSearchResult retrieveSearchResult = new RetrieveSearchResult();
+
+        // Use the boolean flags to determine if we should retrieve all
+        boolean senderWildcard = searchSetting.isRetrieveFromAllSenders();
+        boolean receiverWildcard = searchSetting.isRetrieveFromAllReceivers();
+        boolean domainWildcard = searchSetting.isRetrieveFromAllDomains();
+
+        // Provide empty lists if null to avoid null pointer exceptions in query
+        List<String> senderIds = searchSetting.getSenderIdentifiers() != null
+                ? searchSetting.getSenderIdentifiers() : List.of();
+        List<String> receiverIds = searchSetting.getReceiverIdentifiers() != null
+                ? searchSetting.getReceiverIdentifiers() : List.of();
+        List<String> domains = searchSetting.getDomains() != null
+                ? searchSetting.getDomains() : List.of();
+
+        // Find the next page of document IDs that match the search criteria and have not yet been retrieved.
+        // One more row than the page size is read to find out whether another page follows
+        Limit limit = Limit.of(pageSize + 1);
+        List<DocumentCursor> page = after == null
+                ? this.sbdRepository.findNotRetrievedIdsBySearchCriteria(
+                        senderWildcard, senderIds,
+                        receiverWildcard, receiverIds,
+                        domainWildcard, domains,
+                        limit)
+                : this.sbdRepository.findNotRetrievedIdsBySearchCriteriaAfter(
+                        after.getCreated(), after.getId(),
+                        senderWildcard, senderIds,
+                        receiverWildcard, receiverIds,
+                        domainWildcard, domains,
+                        limit);
+
+        if (page.size() > pageSize) {
+            page = page.subList(0, pageSize);
+            retrieveSearchResult.setNextCursor(page.get(pageSize - 1).encode());
+        }
+        for (DocumentCursor documentCursor : page) {
+            retrieveSearchResult.addDocumentId(documentCursor.getId());
+        }
+        return retrieveSearchResult;
+    }
+
     private String escapeHtml(String text) {
         if (text == null) return "-";
         return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
     }
 
+    /// Converts a document to the returned record. The payload is returned as stored if the connector accepts its codec,
+    /// otherwise decoded.
+    private RetrieveData toRetrieveData(Document document, Predicate<String> acceptsEncoding) throws IOException {
+        DocumentCodec codec = DocumentCodec.fromId(document.getStoredDataCodec());
+        byte[] storedData = this.readStoredData(document);
+        if (codec != DocumentCodec.NONE && acceptsEncoding.test(codec.getId())) {
+            // The connector decodes the payload itself, so it is returned as stored
+            return new RetrieveData(document, storedData, codec.getId());
+        }
+        return new RetrieveData(document, codec.decode(storedData), null);
+    }
+
+    /// Handles a request with a decoded body. A 2xx response is encoded, any other carries a text message.
+    @FunctionalInterface
+    private interface EncodedHandler<T> {
+        ResponseEntity<?> handle(T setting) throws Exception;
+    }
+
+    /// Reads the request body from the servlet stream in the encoding of its Content-Type and writes the result of the
+    /// handler to the response stream in the encoding negotiated from Accept. Errors are answered as text, like the
+    /// JSON endpoints do.
+    private <T> void handleEncoded(String xtoken, Class<T> requestType, HttpServletRequest request, HttpServletResponse response,
+                                   EncodedHandler<T> handler) throws IOException {
+        ResponseEntity<?> result = this.validateToken(xtoken);
+        RetrieverBodyCodecs.Encoding requestEncoding = RetrieverBodyCodecs.Encoding.fromContentType(request.getContentType());
+        if (result == null) {
+            T setting = null;
+            try {
+                setting = this.retrieverBodyCodecs.read(requestEncoding, requestType, request.getInputStream());
+            } catch (Exception ex) {
+                LOGGER.error("Failed to parse " + requestType.getSimpleName() + " " + requestEncoding + ": ", ex);
+            }
+            if (setting == null) {
+                result = ResponseEntity
+                        .badRequest()
+                        .body("Invalid " + requestEncoding + " format for " + requestType.getSimpleName());
+            } else {
+                try {
+                    result = handler.handle(setting);
+                } catch (HttpBadRequestException ex) {
+                    result = ResponseEntity
+                            .badRequest()
+                            .body(ex.getMessage());
+                } catch (Exception ex) {
+                    LOGGER.error("Failed to handle " + requestType.getSimpleName() + ": ", ex);
+                    result = ResponseEntity
+                            .internalServerError()
+                            .body("Failed to handle " + requestType.getSimpleName());
+                }
+            }
+        }
+
+        response.setStatus(result.getStatusCode().value());
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (!result.getStatusCode().is2xxSuccessful() || result.getBody() == null) {
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write(String.valueOf(result.getBody()));
+            return;
+        }
+        RetrieverBodyCodecs.Encoding responseEncoding = RetrieverBodyCodecs.Encoding.negotiate(request.getHeader(HttpHeaders.ACCEPT), requestEncoding);
+        response.setContentType(responseEncoding.getMediaType().toString());
+        this.retrieverBodyCodecs.write(responseEncoding, result.getBody(), response.getOutputStream());
+    }
+
+    /// Writes one document of a streamed response.
+    @FunctionalInterface
+    private interface DocumentWriter {
+        void write(RetrieveData retrieveData, OutputStream outputStream) throws IOException;
+    }
+
+    /// Writes each document with the writer and detaches it, so the persistence context does not keep the
+    /// documents that were already written.
+    private void writeDocuments(Stream<Document> documents, Predicate<String> acceptsEncoding, DocumentWriter documentWriter,
+                                OutputStream outputStream) {
+        documents.forEach(document -> {
+            try {
+                documentWriter.write(this.toRetrieveData(document, acceptsEncoding), outputStream);
+            } catch (IOException ex) {
+                LOGGER.error("Failed to write document " + document.getId() + " to the document stream: ", ex);
+                throw new UncheckedIOException(ex);
+            }
+            if (document.getPayload() != null) {
+                this.entityManager.detach(document.getPayload());
+            }
+            this.entityManager.detach(document);
+        });
+    }
+
+    /// Writes the metadata part and the payload part of one document of a multipart/mixed response.
+    private void writeMultipartDocument(RetrieveData retrieveData, String boundary, OutputStream outputStream) throws IOException {
+        byte[] data = retrieveData.getData();
+        retrieveData.setData(null);
+
+        StringBuilder metadataHead = new StringBuilder();
+        metadataHead.append("--").append(boundary).append("\r\n");
+        metadataHead.append(HttpHeaders.CONTENT_TYPE).append(": ").append(MediaType.APPLICATION_JSON_VALUE).append("\r\n");
+        metadataHead.append("Content-ID: <").append(retrieveData.getId()).append("@metadata>\r\n\r\n");
+        outputStream.write(metadataHead.toString().getBytes(StandardCharsets.US_ASCII));
+        outputStream.write(objectMapper.writeValueAsBytes(retrieveData));
+        outputStream.write(CRLF);
+
+        StringBuilder dataHead = new StringBuilder();
+        dataHead.append("--").append(boundary).append("\r\n");
+        dataHead.append(HttpHeaders.CONTENT_TYPE).append(": ").append(MediaType.APPLICATION_OCTET_STREAM_VALUE).append("\r\n");
+        dataHead.append(HttpHeaders.CONTENT_LENGTH).append(": ").append(data != null ? data.length : 0).append("\r\n");
+        dataHead.append("Content-ID: <").append(retrieveData.getId()).append("@data>\r\n\r\n");
+        outputStream.write(dataHead.toString().getBytes(StandardCharsets.US_ASCII));
+        if (data != null) {
+            outputStream.write(data);
+        }
+        outputStream.write(CRLF);
+    }
+
+    /// Puts the metadata of a document into X-Document-* headers. Certificates are sent as their base64 DER
+    /// encoding, i.e. the PEM body without the armor lines and line breaks.
+    private static void addMetadataHeaders(HttpHeaders headers, RetrieveData retrieveData) {
+        setHeaderIfPresent(headers, "X-Document-Id", retrieveData.getId());
+        setHeaderIfPresent(headers, "X-Document-Created", retrieveData.getCreated());
+        setHeaderIfPresent(headers, "X-Document-Domain", retrieveData.getDomain());
+        setHeaderIfPresent(headers, "X-Document-Sender-Identifier", retrieveData.getSenderIdentifier());
+        setHeaderIfPresent(headers, "X-Document-Receiver-Identifier", retrieveData.getReceiverIdentifier());
+        setHeaderIfPresent(headers, "X-Document-Doc-Type", retrieveData.getDocType());
+        setHeaderIfPresent(headers, "X-Document-Process", retrieveData.getProcess());
+        setHeaderIfPresent(headers, "X-Document-Protocol", retrieveData.getProtocol());
+        setHeaderIfPresent(headers, "X-Document-Conversation-Id", retrieveData.getConversationId());
+        setHeaderIfPresent(headers, "X-Document-Message-Id", retrieveData.getMessageId());
+        if (retrieveData.getSenderCertificate() != null) {
+            headers.set("X-Document-Sender-Certificate", toSingleLineCertificate(retrieveData.getSenderCertificate()));
+        }
+        if (retrieveData.getReceiverCertificate() != null) {
+            headers.set("X-Document-Receiver-Certificate", toSingleLineCertificate(retrieveData.getReceiverCertificate()));
+        }
+    }
+
+    private static void setHeaderIfPresent(HttpHeaders headers, String name, Object value) {
+        if (value != null) {
+            headers.set(name, value.toString());
+        }
+    }
+
+    private static String toSingleLineCertificate(String certificate) {
+        return certificate.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+    }
+
+    /// Picks the alternative media type only if the Accept header names it with a higher quality than it gives the
+    /// default type, directly or through a wildcard. A missing or unparsable header selects the default type.
+    static MediaType negotiateMediaType(String accept, MediaType defaultType, MediaType alternative) {
+        if (accept == null || accept.isBlank()) {
+            return defaultType;
+        }
+        List<MediaType> acceptedTypes;
+        try {
+            acceptedTypes = MediaType.parseMediaTypes(accept);
+        } catch (IllegalArgumentException ex) {
+            return defaultType;
+        }
+        double defaultQuality = 0;
+        double alternativeQuality = 0;
+        for (MediaType acceptedType : acceptedTypes) {
+            if (acceptedType.includes(defaultType)) {
+                defaultQuality = Math.max(defaultQuality, acceptedType.getQualityValue());
+            }
+            if (acceptedType.equalsTypeAndSubtype(alternative)) {
+                alternativeQuality = Math.max(alternativeQuality, acceptedType.getQualityValue());
+            }
+        }
+        return alternativeQuality > defaultQuality ? alternative : defaultType;
+    }
+
+    /// Returns the IDs of the existing documents ordered by reception time, without loading the documents.
+    private List<UUID> sortByReception(List<UUID> documentIds) {
+        List<DocumentOrderKey> orderKeys = new ArrayList<>(documentIds.size());
+        for (int from = 0; from < documentIds.size(); from += DocumentConstants.MAX_IDS_PER_QUERY) {
+            List<UUID> chunk = documentIds.subList(from, Math.min(documentIds.size(), from + DocumentConstants.MAX_IDS_PER_QUERY));
+            orderKeys.addAll(this.sbdRepository.findOrderKeysByIds(chunk));
+        }
+        orderKeys.sort(DocumentOrderKey.RECEPTION_ORDER);
+        return orderKeys.stream().map(DocumentOrderKey::getId).distinct().toList();
+    }
+
+    /// Reads the payload of the document as stored, i.e. still encoded with its codec, wherever the payload store keeps it.
+    private byte[] readStoredData(Document document) throws IOException {
+        DocumentPayload payload = document.getPayload();
+        if (payload != null && payload.getPointer() != null) {
+            return this.documentPayloadStore.read(payload.getPointer());
+        }
+        return document.getStoredData();
+    }
+
+    /// Returns the strong ETag of a representation: the payload hash, followed by the content coding if one is applied.
+    static String toETag(String payloadHash, DocumentCodec contentCoding) {
+        return contentCoding == DocumentCodec.NONE
+                ? "\"" + payloadHash + "\""
+                : "\"" + payloadHash + "-" + contentCoding.getId() + "\"";
+    }
+
+    /// Returns true if the If-None-Match header lists the ETag or is "*". As required for If-None-Match, the weak
+    /// comparison is used, i.e. a W/ prefix is ignored.
+    static boolean matchesIfNoneMatch(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*")) {
+                return true;
+            }
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /// Returns true if the Accept-Encoding header lists the content coding without disabling it via "q=0".
+    static boolean acceptsContentCoding(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String entry : acceptEncoding.split(",")) {
+            String[] parts = entry.split(";");
+            if (!parts[0].trim().equalsIgnoreCase(coding)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.matches("q=0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Normalizes filter values by converting empty/blank strings to null.
      * This ensures that empty form fields are treated as "no filter" rather than filtering for empty values.
@@ -642,12 +1427,12 @@ public class PeppolRetrieverController {
             DocumentOverview overview = new DocumentOverview();
             overview.setId(row[0] != null ? (UUID) row[0] : null);
             overview.setCreated(convertToOffsetDateTime(row[1]));
-            overview.setDomain(row[2] != null ? (String) row[2] : null);
+            overview.setDomain(toDictionaryValue(row[2]));
             overview.setSenderIdentifier(row[3] != null ? (String) row[3] : null);
             overview.setReceiverIdentifier(row[4] != null ? (String) row[4] : null);
-            overview.setDocType(row[5] != null ? (String) row[5] : null);
-            overview.setProcess(row[6] != null ? (String) row[6] : null);
-            overview.setProtocol(row[7] != null ? (String) row[7] : null);
+            overview.setDocType(toDictionaryValue(row[5]));
+            overview.setProcess(toDictionaryValue(row[6]));
+            overview.setProtocol(toDictionaryValue(row[7]));
             overview.setConversationId(row[8] != null ? (String) row[8] : null);
             overview.setMessageId(row[9] != null ? (String) row[9] : null);
             overview.setRetrieved(convertToOffsetDateTime(row[10]));
@@ -661,6 +1446,13 @@ public class PeppolRetrieverController {
         return overviews;
     }
 
+    /**
+     * Resolves a metadata dictionary key from a native query result to its value.
+     */
+    private String toDictionaryValue(Object id) {
+        return id != null ? this.metadataDictionary.getValue(((Number) id).intValue()) : null;
+    }
+
     /**
      * Converts a timestamp object (either Timestamp or Instant) to OffsetDateTime.
      */
@@ -680,6 +1472,15 @@ public class PeppolRetrieverController {
         }
     }
 
+    /**
+     * Returns a subquery selecting the dictionary keys whose value contains the filter, so the filter is matched once
+     * per distinct value instead of once per document.
+     */
+    private static String dictionaryFilter(String parameter) {
+        return "SELECT m.id FROM " + DocumentConstants.DOCUMENT_SCHEMA_NAME + "." + DocumentConstants.METADATA_DICTIONARY_TABLE_NAME +
+                " m WHERE LOWER(m.value) LIKE LOWER(" + parameter + ")";
+    }
+
     /**
      * Executes a document query using EntityManager to avoid Spring Data JPA/Hibernate compatibility issues.
      */
@@ -689,8 +1490,8 @@ public class PeppolRetrieverController {
                                                  String conversationId, String messageId,
                                                  OffsetDateTime beforeTimestamp, int pageSize) {
         StringBuilder sql = new StringBuilder();
-        sql.append("SELECT d.id, d.created, d.domain, d.sender_identifier, d.receiver_identifier, ");
-        sql.append("d.doc_type, d.process, d.protocol, d.conversation_id, d.message_id, ");
+        sql.append("SELECT d.id, d.created, d.domain_id, d.sender_identifier, d.receiver_identifier, ");
+        sql.append("d.doc_type_id, d.process_id, d.protocol_id, d.conversation_id, d.message_id, ");
         sql.append("d.retrieved, d.vax_id, d.retrieved_by_instance_name, d.retrieved_by_connector_id, ");
         sql.append("d.retrieved_by_connector_name, d.data_size ");
         sql.append("FROM phase4_documents.document d WHERE 1=1 ");
@@ -704,7 +1505,7 @@ public class PeppolRetrieverController {
                 }
             }
             if (domain != null) {
-                sql.append("AND LOWER(d.domain) LIKE LOWER(:domain) ");
+                sql.append("AND d.domain_id IN (" + dictionaryFilter(":domain") + ") ");
             }
             if (sender != null) {
                 sql.append("AND LOWER(d.sender_identifier) LIKE LOWER(:sender) ");
@@ -713,13 +1514,13 @@ public class PeppolRetrieverController {
                 sql.append("AND LOWER(d.receiver_identifier) LIKE LOWER(:receiver) ");
             }
             if (docType != null) {
-                sql.append("AND LOWER(d.doc_type) LIKE LOWER(:docType) ");
+                sql.append("AND d.doc_type_id IN (" + dictionaryFilter(":docType") + ") ");
             }
             if (process != null) {
-                sql.append("AND LOWER(d.process) LIKE LOWER(:process) ");
+                sql.append("AND d.process_id IN (" + dictionaryFilter(":process") + ") ");
             }
             if (protocol != null) {
-                sql.append("AND LOWER(d.protocol) LIKE LOWER(:protocol) ");
+                sql.append("AND d.protocol_id IN (" + dictionaryFilter(":protocol") + ") ");
             }
             if (conversationId != null) {
                 sql.append("AND LOWER(d.conversation_id) LIKE LOWER(:conversationId) ");
@@ -769,7 +1570,7 @@ public class PeppolRetrieverController {
                 }
             }
             if (domain != null) {
-                sql.append("AND LOWER(d.domain) LIKE LOWER(:domain) ");
+                sql.append("AND d.domain_id IN (" + dictionaryFilter(":domain") + ") ");
             }
             if (sender != null) {
                 sql.append("AND LOWER(d.sender_identifier) LIKE LOWER(:sender) ");
@@ -778,13 +1579,13 @@ public class PeppolRetrieverController {
                 sql.append("AND LOWER(d.receiver_identifier) LIKE LOWER(:receiver) ");
             }
             if (docType != null) {
-                sql.append("AND LOWER(d.doc_type) LIKE LOWER(:docType) ");
+                sql.append("AND d.doc_type_id IN (" + dictionaryFilter(":docType") + ") ");
             }
             if (process != null) {
-                sql.append("AND LOWER(d.process) LIKE LOWER(:process) ");
+                sql.append("AND d.process_id IN (" + dictionaryFilter(":process") + ") ");
             }
             if (protocol != null) {
-                sql.append("AND LOWER(d.protocol) LIKE LOWER(:protocol) ");
+                sql.append("AND d.protocol_id IN (" + dictionaryFilter(":protocol") + ") ");
             }
             if (conversationId != null) {
                 sql.append("AND LOWER(d.conversation_id) LIKE LOWER(:conversationId) ");
@@ -45,6 +45,8 @@ import com.helger.phase4.peppol.Phase4PeppolSender.PeppolUserMessageBuilder;
 import com.helger.phase4.peppol.Phase4PeppolSender.PeppolUserMessageSBDHBuilder;
 import com.helger.phase4.peppol.Phase4PeppolSendingReport;
 import com.mysupply.phase4.peppolstandalone.APConfig;
+import com.mysupply.phase4.peppolstandalone.context.SpringContextHolder;
+import com.mysupply.phase4.persistence.ReportingItemOutbox;
 import com.helger.phase4.profile.peppol.Phase4PeppolHttpClientSettings;
 import com.helger.phase4.sender.EAS4UserMessageSendResult;
 import com.helger.phase4.util.Phase4Exception;
@@ -515,26 +517,27 @@ public final class PeppolSender
 
       if (eResult.isSuccess ())
       {
-        new Thread(() -> {
         // TODO determine the enduser ID of the outbound message
         // In many simple cases, this might be the sender's participant ID
         String sEndUserID = aData.getSenderAsIdentifier ().getURIEncoded ();
-        if(sEndUserID == null) {
+        if (sEndUserID == null)
           sEndUserID = APConfig.getMyPeppolSeatID ();
-        }
-
-        final boolean createPeppolReportingItem = AS4Configuration
-                .getConfig()
-                .getAsBoolean("peppol.createReportingItem");
 
-          try {
-            if (createPeppolReportingItem) {
-                  aBuilder.createAndStorePeppolReportingItemAfterSending(sEndUserID);
-            }
-          } catch (final Exception ex) {
-
-            LOGGER.error("Failed to store Peppol Reporting Item", ex);}
-        }).start();
+        final boolean createPeppolReportingItem = AS4Configuration.getConfig ()
+                                                                  .getAsBoolean ("peppol.createReportingItem");
+        if (createPeppolReportingItem)
+        {
+          try
+          {
+            // Only the outbox insert happens here, the drainer stores the item in the reporting backend
+            SpringContextHolder.getBean (ReportingItemOutbox.class)
+                               .enqueue (aBuilder.createPeppolReportingItemAfterSending (sEndUserID));
+          }
+          catch (final Exception ex)
+          {
+            LOGGER.error ("Failed to add Peppol Reporting Item to the outbox", ex);
+          }
+        }
       }
 
       aSendingReport.setAS4SendingResult (eResult);
@@ -0,0 +1,176 @@
+package com.mysupply.phase4.peppolstandalone.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mysupply.phase4.peppolstandalone.dto.ConfirmBatchResult;
+import com.mysupply.phase4.peppolstandalone.dto.ConfirmSetting;
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveData;
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveSearchResult;
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveSearchSetting;
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveSetting;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the bodies of the retriever API as JSON, CBOR or Smile.
+ * <p>
+ * The readers and writers are created once per type and encoding, so a request only pays for parsing and generating,
+ * not for looking up serializers. They work on streams, so a body is never copied into a String or byte array first.
+ * Binary payloads are written as native byte strings in CBOR and Smile instead of base64 text.
+ */
+@Component
+public class RetrieverBodyCodecs {
+    public static final String APPLICATION_CBOR_VALUE = "application/cbor";
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    private static final List<Class<?>> REQUEST_TYPES = List.of(RetrieveSearchSetting.class, RetrieveSetting.class,
+            ConfirmSetting.class, ConfirmSetting[].class);
+    private static final List<Class<?>> RESPONSE_TYPES = List.of(RetrieveSearchResult.class, RetrieveData.class,
+            ConfirmBatchResult.class);
+
+    /**
+     * The supported body encodings.
+     */
+    public enum Encoding {
+        JSON(MediaType.APPLICATION_JSON),
+        CBOR(MediaType.parseMediaType(APPLICATION_CBOR_VALUE)),
+        SMILE(MediaType.parseMediaType(APPLICATION_SMILE_VALUE));
+
+        private final MediaType mediaType;
+
+        Encoding(MediaType mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public MediaType getMediaType() {
+            return this.mediaType;
+        }
+
+        /**
+         * Finds the encoding of a Content-Type header, or null if it names none of them.
+         */
+        public static Encoding fromContentType(String contentType) {
+            if (contentType == null || contentType.isBlank()) {
+                return null;
+            }
+            MediaType mediaType;
+            try {
+                mediaType = MediaType.parseMediaType(contentType);
+            } catch (IllegalArgumentException ex) {
+                return null;
+            }
+            for (Encoding encoding : values()) {
+                if (encoding.mediaType.equalsTypeAndSubtype(mediaType)) {
+                    return encoding;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Picks the encoding the Accept header names with the highest quality. The default encoding wins ties and is
+         * also used for a missing or unparsable header, or one that only names other types.
+         */
+        public static Encoding negotiate(String accept, Encoding defaultEncoding) {
+            if (accept == null || accept.isBlank()) {
+                return defaultEncoding;
+            }
+            List<MediaType> acceptedTypes;
+            try {
+                acceptedTypes = MediaType.parseMediaTypes(accept);
+            } catch (IllegalArgumentException ex) {
+                return defaultEncoding;
+            }
+            Encoding best = defaultEncoding;
+            double bestQuality = 0;
+            for (MediaType acceptedType : acceptedTypes) {
+                // Wildcards only count for the default encoding, a client has to name a binary encoding explicitly
+                if (acceptedType.includes(defaultEncoding.mediaType) && acceptedType.getQualityValue() >= bestQuality) {
+                    best = defaultEncoding;
+                    bestQuality = acceptedType.getQualityValue();
+                }
+            }
+            for (MediaType acceptedType : acceptedTypes) {
+                for (Encoding encoding : values()) {
+                    if (encoding != defaultEncoding && acceptedType.equalsTypeAndSubtype(encoding.mediaType)
+                            && acceptedType.getQualityValue() > bestQuality) {
+                        best = encoding;
+                        bestQuality = acceptedType.getQualityValue();
+                    }
+                }
+            }
+            return best;
+        }
+    }
+
+    private final Map<Encoding, Map<Class<?>, ObjectReader>> readers = new EnumMap<>(Encoding.class);
+    private final Map<Encoding, Map<Class<?>, ObjectWriter>> writers = new EnumMap<>(Encoding.class);
+
+    @Autowired
+    public RetrieverBodyCodecs(ObjectMapper objectMapper) {
+        // The binary mappers are configured like the JSON mapper, so all encodings carry the same values
+        CBORMapper cborMapper = CBORMapper.builder()
+                .addModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        SmileMapper smileMapper = SmileMapper.builder()
+                .addModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+
+        this.register(Encoding.JSON, objectMapper);
+        this.register(Encoding.CBOR, cborMapper);
+        this.register(Encoding.SMILE, smileMapper);
+    }
+
+    private void register(Encoding encoding, ObjectMapper mapper) {
+        Map<Class<?>, ObjectReader> typeReaders = new HashMap<>();
+        for (Class<?> type : REQUEST_TYPES) {
+            typeReaders.put(type, mapper.readerFor(type));
+        }
+        Map<Class<?>, ObjectWriter> typeWriters = new HashMap<>();
+        for (Class<?> type : RESPONSE_TYPES) {
+            // The servlet container owns the response stream, the writer must not close it
+            typeWriters.put(type, mapper.writerFor(type).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+        }
+        this.readers.put(encoding, typeReaders);
+        this.writers.put(encoding, typeWriters);
+    }
+
+    /**
+     * Reads a request body of one of the supported request types.
+     */
+    public <T> T read(Encoding encoding, Class<T> type, InputStream inputStream) throws IOException {
+        ObjectReader reader = this.readers.get(encoding).get(type);
+        if (reader == null) {
+            throw new IllegalArgumentException("No reader for " + type.getName());
+        }
+        return reader.readValue(inputStream);
+    }
+
+    /**
+     * Writes a response body of one of the supported response types. The stream is flushed but not closed.
+     */
+    public void write(Encoding encoding, Object value, OutputStream outputStream) throws IOException {
+        ObjectWriter writer = this.writers.get(encoding).get(value.getClass());
+        if (writer == null) {
+            throw new IllegalArgumentException("No writer for " + value.getClass().getName());
+        }
+        writer.writeValue(outputStream, value);
+    }
+}
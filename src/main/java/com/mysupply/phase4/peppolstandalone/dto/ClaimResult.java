@@ -0,0 +1,31 @@
+package com.mysupply.phase4.peppolstandalone.dto;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class ClaimResult {
+    private List<UUID> documentIds;
+    private OffsetDateTime leasedUntil;
+
+    public ClaimResult() {
+        documentIds = new ArrayList<UUID>();
+    }
+
+    public List<UUID> getDocumentIds() {
+        return this.documentIds;
+    }
+
+    public void setDocumentIds(List<UUID> documentIds) {
+        this.documentIds = documentIds;
+    }
+
+    public OffsetDateTime getLeasedUntil() {
+        return this.leasedUntil;
+    }
+
+    public void setLeasedUntil(OffsetDateTime leasedUntil) {
+        this.leasedUntil = leasedUntil;
+    }
+}
@@ -0,0 +1,63 @@
+package com.mysupply.phase4.peppolstandalone.dto;
+
+import java.util.UUID;
+
+/**
+ * Settings for leasing pending documents to a connector.
+ */
+public class ClaimSetting {
+    /**
+     * The connector that holds the lease.
+     */
+    private UUID connectorId;
+
+    /**
+     * The maximum number of documents to lease. The server caps it.
+     */
+    private int maxDocuments = 100;
+
+    /**
+     * How long the documents stay leased without a confirmation. When not set, the server default is used.
+     */
+    private Long leaseMillis;
+
+    /**
+     * The sender, receiver and domain criteria of the documents to lease. Paging settings are ignored.
+     */
+    private RetrieveSearchSetting search;
+
+    public ClaimSetting() {
+    }
+
+    public UUID getConnectorId() {
+        return this.connectorId;
+    }
+
+    public void setConnectorId(UUID connectorId) {
+        this.connectorId = connectorId;
+    }
+
+    public int getMaxDocuments() {
+        return this.maxDocuments;
+    }
+
+    public void setMaxDocuments(int maxDocuments) {
+        this.maxDocuments = maxDocuments;
+    }
+
+    public Long getLeaseMillis() {
+        return this.leaseMillis;
+    }
+
+    public void setLeaseMillis(Long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    public RetrieveSearchSetting getSearch() {
+        return this.search;
+    }
+
+    public void setSearch(RetrieveSearchSetting search) {
+        this.search = search;
+    }
+}
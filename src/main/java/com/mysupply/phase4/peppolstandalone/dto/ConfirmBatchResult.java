@@ -0,0 +1,39 @@
+package com.mysupply.phase4.peppolstandalone.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class ConfirmBatchResult {
+    private List<UUID> confirmedDocumentIds;
+    private List<UUID> notFoundDocumentIds;
+
+    public ConfirmBatchResult() {
+        confirmedDocumentIds = new ArrayList<UUID>();
+        notFoundDocumentIds = new ArrayList<UUID>();
+    }
+
+    public void addConfirmedDocumentId(UUID documentId) {
+        this.confirmedDocumentIds.add(documentId);
+    }
+
+    public void addNotFoundDocumentId(UUID documentId) {
+        this.notFoundDocumentIds.add(documentId);
+    }
+
+    public List<UUID> getConfirmedDocumentIds() {
+        return this.confirmedDocumentIds;
+    }
+
+    public void setConfirmedDocumentIds(List<UUID> confirmedDocumentIds) {
+        this.confirmedDocumentIds = confirmedDocumentIds;
+    }
+
+    public List<UUID> getNotFoundDocumentIds() {
+        return this.notFoundDocumentIds;
+    }
+
+    public void setNotFoundDocumentIds(List<UUID> notFoundDocumentIds) {
+        this.notFoundDocumentIds = notFoundDocumentIds;
+    }
+}
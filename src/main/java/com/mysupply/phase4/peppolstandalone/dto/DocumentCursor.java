@@ -0,0 +1,53 @@
+package com.mysupply.phase4.peppolstandalone.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * The position of a document in the order of not retrieved documents, i.e. by creation time and then by ID.
+ * Connectors receive it as an opaque string and pass it back unchanged to continue after this document.
+ */
+public class DocumentCursor {
+    private static final char SEPARATOR = '|';
+
+    private final UUID id;
+    private final OffsetDateTime created;
+
+    public DocumentCursor(UUID id, OffsetDateTime created) {
+        this.id = id;
+        this.created = created;
+    }
+
+    public UUID getId() {
+        return this.id;
+    }
+
+    public OffsetDateTime getCreated() {
+        return this.created;
+    }
+
+    public String encode() {
+        String value = this.created.toString() + SEPARATOR + this.id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException If the value was not created by {@link #encode()}.
+     */
+    public static DocumentCursor decode(String encoded) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            int separator = value.indexOf(SEPARATOR);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid document cursor");
+            }
+            return new DocumentCursor(UUID.fromString(value.substring(separator + 1)),
+                    OffsetDateTime.parse(value.substring(0, separator)));
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid document cursor", ex);
+        }
+    }
+}
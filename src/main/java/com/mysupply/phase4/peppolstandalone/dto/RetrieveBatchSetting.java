@@ -0,0 +1,51 @@
+package com.mysupply.phase4.peppolstandalone.dto;
+
+import java.util.List;
+import java.util.UUID;
+
+public class RetrieveBatchSetting {
+    /// The documents to return. When empty, the oldest documents that have not been retrieved are returned instead.
+    private List<UUID> documentIds;
+
+    /// The maximum number of not retrieved documents to return when no document IDs are given.
+    private int limit = 100;
+
+    /// The payload codecs the connector can decode itself, see {@link RetrieveSetting#getAcceptedEncodings()}.
+    private List<String> acceptedEncodings;
+
+    public List<UUID> getDocumentIds() {
+        return documentIds;
+    }
+
+    public void setDocumentIds(List<UUID> documentIds) {
+        this.documentIds = documentIds;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public List<String> getAcceptedEncodings() {
+        return acceptedEncodings;
+    }
+
+    public void setAcceptedEncodings(List<String> acceptedEncodings) {
+        this.acceptedEncodings = acceptedEncodings;
+    }
+
+    public boolean acceptsEncoding(String encoding) {
+        if (this.acceptedEncodings == null) {
+            return false;
+        }
+        for (String accepted : this.acceptedEncodings) {
+            if (encoding.equalsIgnoreCase(accepted)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
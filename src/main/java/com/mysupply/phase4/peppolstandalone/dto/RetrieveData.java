@@ -1,5 +1,6 @@
 package com.mysupply.phase4.peppolstandalone.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.mysupply.phase4.domain.Document;
 
 import java.time.OffsetDateTime;
@@ -8,6 +9,9 @@ import java.util.UUID;
 public class RetrieveData {
     private UUID id;
     private byte[] data;
+    // Only written when set, so connectors that do not negotiate an encoding see the same JSON as before
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String dataEncoding;
     private OffsetDateTime created;
     private String domain;
     private String senderIdentifier;
@@ -24,8 +28,15 @@ public class RetrieveData {
     }
 
     public RetrieveData(Document document) {
+        this(document, document.getData(), null);
+    }
+
+    /// @param data         The payload to return, either decoded or as stored.
+    /// @param dataEncoding The codec the payload is still encoded with, or null when it is decoded.
+    public RetrieveData(Document document, byte[] data, String dataEncoding) {
         this.id = document.getId();
-        this.data = document.getData();
+        this.data = data;
+        this.dataEncoding = dataEncoding;
         this.created = document.getCreated();
         this.domain = document.getDomain();
         this.senderIdentifier = document.getSenderIdentifier();
@@ -55,6 +66,14 @@ public class RetrieveData {
         this.data = data;
     }
 
+    public String getDataEncoding() {
+        return dataEncoding;
+    }
+
+    public void setDataEncoding(String dataEncoding) {
+        this.dataEncoding = dataEncoding;
+    }
+
     public OffsetDateTime getCreated() {
         return created;
     }
@@ -1,11 +1,16 @@
 package com.mysupply.phase4.peppolstandalone.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 public class RetrieveSearchResult {
     private List<UUID> documentIds;
+    // Null on the last page. Only written when set, so the JSON of the last page is the same as before paging
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String nextCursor;
 
     public RetrieveSearchResult() {
         documentIds = new ArrayList<UUID>();
@@ -22,4 +27,12 @@ public class RetrieveSearchResult {
     public void setDocumentIds(List<UUID> documentIds) {
         this.documentIds = documentIds;
     }
+
+    public String getNextCursor() {
+        return this.nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
@@ -27,6 +27,16 @@ public class RetrieveSearchSetting {
      */
     private boolean retrieveFromAllDomains;
 
+    /**
+     * The maximum number of document IDs returned per call. The server caps it.
+     */
+    private int pageSize = 1000;
+
+    /**
+     * The cursor returned with the previous page, or null for the first page.
+     */
+    private String cursor;
+
     public RetrieveSearchSetting() {
     }
 
@@ -77,4 +87,29 @@ public class RetrieveSearchSetting {
     public void setRetrieveFromAllDomains(boolean retrieveFromAllDomains) {
         this.retrieveFromAllDomains = retrieveFromAllDomains;
     }
+
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public String getCursor() {
+        return this.cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * Returns true if a document with these values matches the sender, receiver and domain criteria.
+     */
+    public boolean matches(String senderIdentifier, String receiverIdentifier, String domain) {
+        return (this.retrieveFromAllSenders || (this.senderIdentifiers != null && this.senderIdentifiers.contains(senderIdentifier)))
+                && (this.retrieveFromAllReceivers || (this.receiverIdentifiers != null && this.receiverIdentifiers.contains(receiverIdentifier)))
+                && (this.retrieveFromAllDomains || (this.domains != null && this.domains.contains(domain)));
+    }
 }
@@ -1,10 +1,15 @@
 package com.mysupply.phase4.peppolstandalone.dto;
 
+import java.util.List;
 import java.util.UUID;
 
 public class RetrieveSetting {
     private UUID documentId;
 
+    /// The payload codecs (e.g. "gzip", "zstd") the connector can decode itself. When the stored payload uses one
+    /// of them, it is returned as stored and {@link RetrieveData#getDataEncoding()} names the codec.
+    private List<String> acceptedEncodings;
+
     public UUID getDocumentId() {
         return documentId;
     }
@@ -12,4 +17,24 @@ public class RetrieveSetting {
     public void setDocumentId(UUID documentId) {
         this.documentId = documentId;
     }
+
+    public List<String> getAcceptedEncodings() {
+        return acceptedEncodings;
+    }
+
+    public void setAcceptedEncodings(List<String> acceptedEncodings) {
+        this.acceptedEncodings = acceptedEncodings;
+    }
+
+    public boolean acceptsEncoding(String encoding) {
+        if (this.acceptedEncodings == null) {
+            return false;
+        }
+        for (String accepted : this.acceptedEncodings) {
+            if (encoding.equalsIgnoreCase(accepted)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,28 @@
+package com.mysupply.phase4.peppolstandalone.dump;
+
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.phase4.dump.AbstractAS4IncomingDumperWithHeaders;
+import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
+import org.jspecify.annotations.NonNull;
+
+import java.io.OutputStream;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Dumps inbound AS4 messages, including their HTTP headers, into the segment files of a {@link DumpSegmentWriter}.
+ */
+public class AS4IncomingDumperSegmentBased extends AbstractAS4IncomingDumperWithHeaders<AS4IncomingDumperSegmentBased> {
+    private final DumpSegmentWriter writer;
+
+    public AS4IncomingDumperSegmentBased(@NonNull final DumpSegmentWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    protected OutputStream openOutputStream(@NonNull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                            @NonNull final HttpHeaderMap aHttpHeaderMap) {
+        return new DumpBufferOutputStream(this.writer,
+                "=== incoming " + OffsetDateTime.now(ZoneOffset.UTC) + " id=" + aMessageMetadata.getIncomingUniqueID() + "\n");
+    }
+}
@@ -0,0 +1,36 @@
+package com.mysupply.phase4.peppolstandalone.dump;
+
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.phase4.dump.AbstractAS4OutgoingDumperWithHeaders;
+import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import java.io.OutputStream;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Dumps outbound AS4 messages and responses, including their HTTP headers, into the segment files of a
+ * {@link DumpSegmentWriter}.
+ */
+public class AS4OutgoingDumperSegmentBased extends AbstractAS4OutgoingDumperWithHeaders<AS4OutgoingDumperSegmentBased> {
+    private final DumpSegmentWriter writer;
+
+    public AS4OutgoingDumperSegmentBased(@NonNull final DumpSegmentWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    protected OutputStream openOutputStream(@NonNull final EAS4MessageMode eMsgMode,
+                                            @Nullable final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                            @Nullable final IAS4IncomingMessageState aIncomingState,
+                                            @NonNull final String sMessageID,
+                                            @Nullable final HttpHeaderMap aCustomHeaders,
+                                            final int nTry) {
+        return new DumpBufferOutputStream(this.writer,
+                "=== outgoing " + OffsetDateTime.now(ZoneOffset.UTC) + " mode=" + eMsgMode + " id=" + sMessageID + " try=" + nTry + "\n");
+    }
+}
@@ -0,0 +1,64 @@
+package com.mysupply.phase4.peppolstandalone.dump;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Collects one dump in memory and hands it to the {@link DumpSegmentWriter} when it is closed.
+ * A dump that grows beyond the maximum size is discarded right away, so a huge message is not held in memory twice.
+ * A dump is written by the one thread that handles its message, so the overrides do not take the stream monitor.
+ */
+final class DumpBufferOutputStream extends ByteArrayOutputStream {
+    private final DumpSegmentWriter writer;
+    private final String header;
+    private final long maxBytes;
+    private boolean discarded;
+    private boolean closed;
+
+    DumpBufferOutputStream(DumpSegmentWriter writer, String header) {
+        super(8192);
+        this.writer = writer;
+        this.header = header;
+        this.maxBytes = writer.getMaxDumpBytes();
+    }
+
+    @Override
+    public void write(int b) {
+        if (this.reserve(1)) {
+            super.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (this.reserve(len)) {
+            super.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.discarded) {
+            this.writer.dropTooLarge();
+        } else {
+            // The writer takes over the buffer, this stream is not used afterwards
+            this.writer.submit(this.header, this.buf, this.count);
+        }
+    }
+
+    private boolean reserve(int len) {
+        if (this.discarded || this.closed) {
+            return false;
+        }
+        if ((long) this.count + len > this.maxBytes) {
+            this.discarded = true;
+            this.reset();
+            this.buf = new byte[0];
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,287 @@
+package com.mysupply.phase4.peppolstandalone.dump;
+
+import com.mysupply.phase4.persistence.configuration.PeppolDumpConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends AS4 message dumps to gzip-compressed segment files on a background thread.
+ * <p>
+ * The AS4 request thread only buffers a dump and queues it. If the queue is full, the dump is dropped instead of
+ * delaying the message. The writer appends every batch of dumps as its own gzip member, so a segment stays readable
+ * with {@code zcat} even if the process stops in the middle of a write. A new segment is started when the current one
+ * reaches its size or age limit, and segments past the retention period are deleted.
+ */
+@Component
+public class DumpSegmentWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DumpSegmentWriter.class);
+    private static final String METRIC_PREFIX = "phase4.dump";
+    private static final String SEGMENT_PREFIX = "as4-dump-";
+    private static final String SEGMENT_SUFFIX = ".log.gz";
+    private static final DateTimeFormatter SEGMENT_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final PeppolDumpConfiguration configuration;
+    private final MeterRegistry meterRegistry;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private BlockingQueue<DumpRecord> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    private Counter writtenCounter;
+    private Counter droppedQueueFullCounter;
+    private Counter droppedTooLargeCounter;
+    private Counter droppedWriteFailedCounter;
+
+    // Only used by the writer thread
+    private OutputStream segmentOutput;
+    private volatile Path segmentPath;
+    private long segmentBytes;
+    private long segmentStartMillis;
+
+    @Autowired
+    public DumpSegmentWriter(PeppolDumpConfiguration configuration, MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!this.configuration.isSegmentsEnabled()) {
+            return;
+        }
+
+        this.writtenCounter = Counter.builder(METRIC_PREFIX + ".written")
+                .description("Number of AS4 message dumps written")
+                .register(this.meterRegistry);
+        this.droppedQueueFullCounter = this.createDroppedCounter("queue_full");
+        this.droppedTooLargeCounter = this.createDroppedCounter("too_large");
+        this.droppedWriteFailedCounter = this.createDroppedCounter("write_failed");
+
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, this.configuration.getQueueCapacity()));
+        Gauge.builder(METRIC_PREFIX + ".queue.depth", this.queue, BlockingQueue::size)
+                .description("Number of AS4 message dumps waiting to be written")
+                .register(this.meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".queue.bytes", this.queuedBytes, AtomicLong::get)
+                .description("Total size of the AS4 message dumps waiting to be written")
+                .baseUnit("bytes")
+                .register(this.meterRegistry);
+
+        this.running = true;
+        this.writerThread = Thread.ofPlatform().name("phase4-dump-writer").daemon(true).start(this::runWriter);
+        LOGGER.info("AS4 message dumps are written to segment files in '{}'", this.configuration.getDirectory());
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.running = false;
+        if (this.writerThread != null) {
+            try {
+                // The writer empties the queue before it ends
+                this.writerThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.configuration.isSegmentsEnabled();
+    }
+
+    public long getMaxDumpBytes() {
+        return this.configuration.getMaxDumpBytes();
+    }
+
+    /**
+     * Queues a dump without waiting. The data array must not be changed afterwards.
+     *
+     * @return False if the dump was dropped because the queue is full.
+     */
+    public boolean submit(String header, byte[] data, int length) {
+        long total = this.queuedBytes.addAndGet(length);
+        if (total > this.configuration.getMaxQueuedBytes() || !this.queue.offer(new DumpRecord(header, data, length))) {
+            this.queuedBytes.addAndGet(-length);
+            this.droppedQueueFullCounter.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a dump that was dropped because it exceeded the maximum dump size.
+     */
+    public void dropTooLarge() {
+        this.droppedTooLargeCounter.increment();
+    }
+
+    /**
+     * Deletes the segment files older than the retention period.
+     */
+    @Scheduled(fixedDelayString = "${peppol.dump.cleanup-interval-millis:3600000}")
+    public void deleteExpiredSegments() {
+        Path directory = Paths.get(this.configuration.getDirectory());
+        if (!this.configuration.isSegmentsEnabled() || !Files.isDirectory(directory)) {
+            return;
+        }
+
+        long cutoffMillis = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(this.configuration.getRetentionDays());
+        Path current = this.segmentPath;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                if (!segment.equals(current) && Files.getLastModifiedTime(segment).toMillis() < cutoffMillis) {
+                    Files.deleteIfExists(segment);
+                    LOGGER.info("Deleted the expired AS4 dump segment '{}'", segment);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to delete the expired AS4 dump segments in '{}'", directory, ex);
+        }
+    }
+
+    private Counter createDroppedCounter(String reason) {
+        return Counter.builder(METRIC_PREFIX + ".dropped")
+                .description("Number of AS4 message dumps that were not written")
+                .tag("reason", reason)
+                .register(this.meterRegistry);
+    }
+
+    private void runWriter() {
+        List<DumpRecord> batch = new ArrayList<>();
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                DumpRecord first = this.queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    this.rollIfDue();
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                this.write(batch);
+                this.writtenCounter.increment(batch.size());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.error("Failed to write {} AS4 message dump(s) to '{}'", batch.size(), this.segmentPath, ex);
+                this.droppedWriteFailedCounter.increment(batch.size());
+                // Start a fresh segment with the next batch
+                this.closeSegment();
+            } finally {
+                for (DumpRecord record : batch) {
+                    this.queuedBytes.addAndGet(-record.length);
+                }
+                batch.clear();
+            }
+        }
+        this.closeSegment();
+    }
+
+    private void write(List<DumpRecord> batch) throws IOException {
+        this.rollIfDue();
+        if (this.segmentOutput == null) {
+            this.openSegment();
+        }
+
+        // Each batch is a complete gzip member, concatenated members form a valid gzip file
+        try (GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(this.segmentOutput), 65536)) {
+            for (DumpRecord record : batch) {
+                gzip.write(record.header.getBytes(StandardCharsets.UTF_8));
+                gzip.write(record.data, 0, record.length);
+                gzip.write('\n');
+                this.segmentBytes += record.length;
+            }
+        }
+        this.segmentOutput.flush();
+    }
+
+    private void rollIfDue() {
+        if (this.segmentOutput == null) {
+            return;
+        }
+        long ageMillis = System.currentTimeMillis() - this.segmentStartMillis;
+        if (this.segmentBytes >= this.configuration.getMaxSegmentBytes()
+                || ageMillis >= TimeUnit.SECONDS.toMillis(this.configuration.getMaxSegmentAgeSeconds())) {
+            this.closeSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        Path directory = Paths.get(this.configuration.getDirectory());
+        Files.createDirectories(directory);
+        this.segmentStartMillis = System.currentTimeMillis();
+        this.segmentPath = directory.resolve(SEGMENT_PREFIX + SEGMENT_TIMESTAMP.format(Instant.ofEpochMilli(this.segmentStartMillis)) + SEGMENT_SUFFIX);
+        this.segmentOutput = new FileOutputStream(this.segmentPath.toFile(), true);
+        this.segmentBytes = 0;
+    }
+
+    private void closeSegment() {
+        if (this.segmentOutput == null) {
+            return;
+        }
+        try {
+            this.segmentOutput.close();
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to close the AS4 dump segment '{}'", this.segmentPath, ex);
+        }
+        this.segmentOutput = null;
+        this.segmentPath = null;
+    }
+
+    private static final class DumpRecord {
+        final String header;
+        final byte[] data;
+        final int length;
+
+        DumpRecord(String header, byte[] data, int length) {
+            this.header = header;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /** Keeps the segment open when a gzip member is closed. */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.flush();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.mysupply.phase4.peppolstandalone.metrics;
+
+import com.mysupply.phase4.peppolstandalone.spi.KnownDomains;
+import com.mysupply.phase4.persistence.configuration.PeppolInboundMetricsConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Latency of the stages an inbound AS4 message passes through, tagged by domain and document type.
+ * <p>
+ * The AS4 servlet marks the start and end of each request. Everything phase4 does before handing the SBD to the
+ * handler (MIME decoding, signature verification, decryption, certificate revocation checking and SBDH parsing) is
+ * recorded as the {@value #STAGE_RECEIVE} stage. The handler records its own stages. All timers publish a percentile
+ * histogram, so quantiles such as p99 can be computed across instances.
+ * <p>
+ * The domain and the document type are chosen by the sender, and every tag value adds a histogram. Domains are
+ * therefore limited to the known domains, and document types to the configured list or, without one, to the first
+ * ones seen. Everything else is reported as {@value #OTHER}.
+ * <p>
+ * A request is handled on a single thread, so the per-request state is kept in a thread local.
+ */
+@Component
+public class InboundMessageMetrics {
+    private static final String METRIC_PREFIX = "phase4.inbound";
+    private static final String TAG_DOMAIN = "domain";
+    private static final String TAG_DOC_TYPE = "doc_type";
+    private static final String UNKNOWN = "unknown";
+    private static final String OTHER = KnownDomains.OTHER;
+
+    /** From the start of the request until phase4 hands the parsed SBD to the handler. */
+    public static final String STAGE_RECEIVE = "receive";
+    /** Extracting and interning the document metadata. */
+    public static final String STAGE_METADATA = "metadata";
+    /** Creating the Peppol reporting item. */
+    public static final String STAGE_REPORTING = "reporting";
+    /** Storing the document, including waiting for the group commit. */
+    public static final String STAGE_PERSISTENCE = "persistence";
+
+    /** The document was stored. */
+    public static final String OUTCOME_STORED = "stored";
+    /** The document was already stored and was ignored. */
+    public static final String OUTCOME_DUPLICATE = "duplicate";
+    /** The document could not be stored. */
+    public static final String OUTCOME_FAILED = "failed";
+
+    private final Meter.MeterProvider<Timer> stageTimers;
+    private final Meter.MeterProvider<Timer> requestTimers;
+    private final Meter.MeterProvider<Counter> messageCounters;
+    private final ThreadLocal<RequestState> currentRequest = new ThreadLocal<>();
+    private final KnownDomains knownDomains;
+    private final Set<String> docTypes = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock docTypesLock = new ReentrantLock();
+    private final boolean docTypesConfigured;
+    private final int maxDocTypes;
+
+    @Autowired
+    public InboundMessageMetrics(MeterRegistry meterRegistry,
+                                 KnownDomains knownDomains,
+                                 PeppolInboundMetricsConfiguration configuration) {
+        this.knownDomains = knownDomains;
+        this.docTypes.addAll(configuration.getDocTypes());
+        this.docTypesConfigured = !configuration.getDocTypes().isEmpty();
+        this.maxDocTypes = Math.max(0, configuration.getMaxDocTypes());
+        this.stageTimers = Timer.builder(METRIC_PREFIX + ".stage")
+                .description("Time spent in each stage of handling an inbound AS4 message")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(2))
+                .withRegistry(meterRegistry);
+        this.requestTimers = Timer.builder(METRIC_PREFIX + ".request")
+                .description("Time spent handling an inbound AS4 request, from receiving it to sending the response")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(2))
+                .withRegistry(meterRegistry);
+        this.messageCounters = Counter.builder(METRIC_PREFIX + ".messages")
+                .description("Number of inbound messages handed to the handler, by outcome")
+                .withRegistry(meterRegistry);
+    }
+
+    /**
+     * Marks the start of an inbound request on the current thread.
+     */
+    public void requestStarted() {
+        this.currentRequest.set(new RequestState(System.nanoTime()));
+    }
+
+    /**
+     * Records the duration of the request started on the current thread, tagged with the domain and document type
+     * reported by the handler, if it was reached.
+     */
+    public void requestFinished() {
+        RequestState state = this.currentRequest.get();
+        if (state == null) {
+            return;
+        }
+        this.currentRequest.remove();
+        this.requestTimers.withTags(TAG_DOMAIN, state.domain, TAG_DOC_TYPE, state.docType)
+                .record(System.nanoTime() - state.startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Called when the handler receives the SBD. Records the {@value #STAGE_RECEIVE} stage and remembers the tags for
+     * the request timer.
+     */
+    public void messageReceived(String domain, String docType) {
+        RequestState state = this.currentRequest.get();
+        if (state == null) {
+            return;
+        }
+        state.domain = this.domainTag(domain);
+        state.docType = this.docTypeTag(docType);
+        this.recordStage(STAGE_RECEIVE, domain, docType, state.startNanos);
+    }
+
+    /**
+     * Records a stage that started at {@code startNanos}, a value taken from {@link System#nanoTime()}.
+     */
+    public void recordStage(String stage, String domain, String docType, long startNanos) {
+        this.stageTimers.withTags("stage", stage, TAG_DOMAIN, this.domainTag(domain), TAG_DOC_TYPE, this.docTypeTag(docType))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordOutcome(String outcome, String domain, String docType) {
+        this.messageCounters.withTags("outcome", outcome, TAG_DOMAIN, this.domainTag(domain), TAG_DOC_TYPE, this.docTypeTag(docType))
+                .increment();
+    }
+
+    private String domainTag(String domain) {
+        return domain != null ? this.knownDomains.resolve(domain) : UNKNOWN;
+    }
+
+    private String docTypeTag(String docType) {
+        if (docType == null) {
+            return UNKNOWN;
+        }
+        if (this.docTypes.contains(docType)) {
+            return docType;
+        }
+        if (this.docTypesConfigured) {
+            return OTHER;
+        }
+        return this.addDocType(docType) ? docType : OTHER;
+    }
+
+    // Only reached for new document types, the lock keeps the set from growing past the limit
+    private boolean addDocType(String docType) {
+        this.docTypesLock.lock();
+        try {
+            if (this.docTypes.contains(docType)) {
+                return true;
+            }
+            if (this.docTypes.size() >= this.maxDocTypes) {
+                return false;
+            }
+            this.docTypes.add(docType);
+            return true;
+        } finally {
+            this.docTypesLock.unlock();
+        }
+    }
+
+    private static final class RequestState {
+        final long startNanos;
+        String domain = UNKNOWN;
+        String docType = UNKNOWN;
+
+        RequestState(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.mysupply.phase4.peppolstandalone.servlet;
+
+import com.helger.base.string.StringHelper;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4CryptoFactoryInMemoryKeyStore;
+import com.helger.phase4.incoming.AS4IncomingProfileSelectorConstant;
+import com.helger.phase4.incoming.mgr.AS4ProfileSelector;
+import com.helger.phase4.model.pmode.resolve.AS4DefaultPModeResolver;
+import com.helger.phase4.peppol.servlet.Phase4PeppolDefaultReceiverConfiguration;
+import com.helger.phase4.peppol.servlet.Phase4PeppolReceiverConfiguration;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The objects the AS4 servlet assigns to every request handler, built once at startup from the configuration.
+ * <p>
+ * All fields are immutable and shared by concurrent requests. The AS4 configuration is read once per process, so the
+ * snapshot is not rebuilt later; configuration changes take effect after a restart.
+ */
+public final class AS4HandlerCustomization {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AS4HandlerCustomization.class);
+    // Set once at startup, the servlet only reads it
+    private static volatile AS4HandlerCustomization instance;
+
+    private final AS4CryptoFactoryInMemoryKeyStore cryptoFactory;
+    private final Phase4PeppolReceiverConfiguration receiverCheckData;
+    private final AS4DefaultPModeResolver pModeResolver;
+    private final AS4IncomingProfileSelectorConstant incomingProfileSelector;
+    private final ReceiverRoutingTable receiverRoutes;
+    private final Map<ReceiverRoutingTable.ReceiverRoute, Phase4PeppolReceiverConfiguration> routedReceiverCheckData;
+
+    private AS4HandlerCustomization(AS4CryptoFactoryInMemoryKeyStore cryptoFactory,
+                                    Phase4PeppolReceiverConfiguration receiverCheckData,
+                                    AS4DefaultPModeResolver pModeResolver,
+                                    AS4IncomingProfileSelectorConstant incomingProfileSelector,
+                                    ReceiverRoutingTable receiverRoutes,
+                                    Map<ReceiverRoutingTable.ReceiverRoute, Phase4PeppolReceiverConfiguration> routedReceiverCheckData) {
+        this.cryptoFactory = cryptoFactory;
+        this.receiverCheckData = receiverCheckData;
+        this.pModeResolver = pModeResolver;
+        this.incomingProfileSelector = incomingProfileSelector;
+        this.receiverRoutes = receiverRoutes;
+        this.routedReceiverCheckData = routedReceiverCheckData;
+    }
+
+    /**
+     * Returns the snapshot. Must not be called before {@link #initialize(ReceiverRoutingTable)}.
+     */
+    @NonNull
+    public static AS4HandlerCustomization get() {
+        AS4HandlerCustomization current = instance;
+        if (current == null) {
+            throw new IllegalStateException("The AS4 handler customization was not built yet");
+        }
+        return current;
+    }
+
+    /**
+     * Builds the snapshot from the configuration and the receiver routes. Called once at startup, after the Peppol
+     * receiver defaults are set.
+     *
+     * @param receiverRoutes The receiver routes, built once; they own their SMP clients and caches.
+     */
+    public static void initialize(@NonNull ReceiverRoutingTable receiverRoutes) {
+        // The receiver check data builder reads this default, so it must be set first
+        final boolean performSBDHValueChecks = AS4Configuration
+                .getConfig()
+                .getAsBoolean("peppol.receiver.PerformSBDHValueChecks", true);
+        Phase4PeppolDefaultReceiverConfiguration.setPerformSBDHValueChecks(performSBDHValueChecks);
+
+        final AS4CryptoFactoryInMemoryKeyStore cryptoFactory = ServletConfig.getCryptoFactoryToUse();
+        final Phase4PeppolReceiverConfiguration receiverCheckData = Phase4PeppolDefaultReceiverConfiguration.getAsReceiverCheckDataBuilder()
+                .apCertificate(cryptoFactory.getCertificate())
+                .build();
+
+        // Specific setters, dependent on a specific AS4 profile ID
+        // This only uses the global one (if any)
+        final String sAS4ProfileID = AS4ProfileSelector.getDefaultAS4ProfileID();
+        AS4DefaultPModeResolver pModeResolver = null;
+        AS4IncomingProfileSelectorConstant incomingProfileSelector = null;
+        if (StringHelper.isNotEmpty(sAS4ProfileID)) {
+            pModeResolver = new AS4DefaultPModeResolver(sAS4ProfileID);
+            incomingProfileSelector = new AS4IncomingProfileSelectorConstant(sAS4ProfileID);
+        }
+
+        // The receiver check data of each route starts from the defaults, e.g. the CA checker and the revocation check.
+        // Settings a route leaves empty keep their default value
+        final Map<ReceiverRoutingTable.ReceiverRoute, Phase4PeppolReceiverConfiguration> routedReceiverCheckData = new IdentityHashMap<>();
+        for (ReceiverRoutingTable.ReceiverRoute route : receiverRoutes.getRoutes()) {
+            final Phase4PeppolReceiverConfiguration.Phase4PeppolReceiverConfigurationBuilder builder = Phase4PeppolDefaultReceiverConfiguration
+                    .getAsReceiverCheckDataBuilder()
+                    .receiverCheckEnabled(route.isReceiverCheckEnabled())
+                    .apCertificate(route.getApCertificate() != null ? route.getApCertificate() : cryptoFactory.getCertificate());
+            if (route.getSmpClient() != null) {
+                builder.serviceMetadataProvider(route.getSmpClient());
+            }
+            if (route.getAs4EndpointUrl() != null && !route.getAs4EndpointUrl().isBlank()) {
+                builder.as4EndpointUrl(route.getAs4EndpointUrl());
+            }
+            routedReceiverCheckData.put(route, builder.build());
+        }
+
+        instance = new AS4HandlerCustomization(cryptoFactory, receiverCheckData, pModeResolver, incomingProfileSelector,
+                receiverRoutes, routedReceiverCheckData);
+        LOGGER.info("Built the AS4 handler customization (PerformSBDHValueChecks={}, profile={})", performSBDHValueChecks, sAS4ProfileID);
+    }
+
+    @NonNull
+    public AS4CryptoFactoryInMemoryKeyStore getCryptoFactory() {
+        return this.cryptoFactory;
+    }
+
+    @NonNull
+    public Phase4PeppolReceiverConfiguration getReceiverCheckData() {
+        return this.receiverCheckData;
+    }
+
+    /**
+     * Returns the receiver check data of the route matching the request, or the default one if no route matches.
+     */
+    @NonNull
+    public Phase4PeppolReceiverConfiguration getReceiverCheckData(@Nullable String host, @Nullable String url) {
+        ReceiverRoutingTable.ReceiverRoute route = this.receiverRoutes.resolve(host, url);
+        return route != null ? this.routedReceiverCheckData.get(route) : this.receiverCheckData;
+    }
+
+    /** Null if no default AS4 profile is configured. */
+    @Nullable
+    public AS4DefaultPModeResolver getPModeResolver() {
+        return this.pModeResolver;
+    }
+
+    /** Null if no default AS4 profile is configured. */
+    @Nullable
+    public AS4IncomingProfileSelectorConstant getIncomingProfileSelector() {
+        return this.incomingProfileSelector;
+    }
+}
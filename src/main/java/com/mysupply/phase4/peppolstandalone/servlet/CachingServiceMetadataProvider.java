@@ -0,0 +1,133 @@
+package com.mysupply.phase4.peppolstandalone.servlet;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.smpclient.exception.SMPClientException;
+import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
+import com.helger.smpclient.peppol.PeppolWildcardSelector;
+import com.helger.xsds.peppol.smp1.SignedServiceMetadataType;
+import com.mysupply.phase4.persistence.configuration.PeppolSmpCacheConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A service metadata provider that caches the lookups of another provider, used for the inbound receiver check.
+ * <p>
+ * Lookups that found service metadata are kept for the TTL, lookups that found nothing for the shorter negative TTL.
+ * Concurrent lookups of the same participant and document type share one SMP request. An entry that is used after the
+ * refresh age is reloaded in the background, so a slow SMP does not delay inbound messages for entries in use. Failed
+ * lookups are not cached, and a failed background reload keeps the previous value. The lookups run on the given
+ * executor, which must allow blocking calls.
+ */
+public class CachingServiceMetadataProvider implements ISMPServiceMetadataProvider {
+    private final ISMPServiceMetadataProvider delegate;
+    private final AsyncLoadingCache<LookupKey, Optional<SignedServiceMetadataType>> cache;
+
+    public CachingServiceMetadataProvider(ISMPServiceMetadataProvider delegate,
+                                          PeppolSmpCacheConfiguration configuration,
+                                          MeterRegistry meterRegistry,
+                                          Executor loadExecutor) {
+        this.delegate = delegate;
+
+        Duration ttl = Duration.ofSeconds(Math.max(1, configuration.getTtlSeconds()));
+        Duration negativeTtl = Duration.ofSeconds(Math.max(1, configuration.getNegativeTtlSeconds()));
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(Math.max(0, configuration.getMaxEntries()))
+                .expireAfter(Expiry.<LookupKey, Optional<SignedServiceMetadataType>>writing(
+                        (key, value) -> value.isPresent() ? ttl : negativeTtl))
+                .refreshAfterWrite(Duration.ofSeconds(Math.max(1, configuration.getRefreshAfterSeconds())))
+                // SMP lookups block on HTTP, so they must not run on the common fork-join pool
+                .executor(loadExecutor)
+                .recordStats()
+                .buildAsync(key -> Optional.ofNullable(key.load(this.delegate)));
+
+        CaffeineCacheMetrics.monitor(meterRegistry, this.cache, "smp-receiver-check");
+    }
+
+    @Override
+    @Nullable
+    public SignedServiceMetadataType getServiceMetadataOrNull(@NonNull final IParticipantIdentifier aServiceGroupID,
+                                                              @NonNull final IDocumentTypeIdentifier aDocTypeID) throws SMPClientException {
+        return this.get(new LookupKey(aServiceGroupID, aDocTypeID, null));
+    }
+
+    @Override
+    @Nullable
+    public SignedServiceMetadataType getWildcardServiceMetadataOrNull(@NonNull final IParticipantIdentifier aServiceGroupID,
+                                                                      @NonNull final IDocumentTypeIdentifier aDocTypeID,
+                                                                      @NonNull final PeppolWildcardSelector.EMode eMode) throws SMPClientException {
+        return this.get(new LookupKey(aServiceGroupID, aDocTypeID, eMode));
+    }
+
+    private SignedServiceMetadataType get(LookupKey key) throws SMPClientException {
+        try {
+            return this.cache.get(key).get().orElse(null);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SMPClientException("Interrupted while waiting for the SMP lookup", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() instanceof CompletionException && ex.getCause().getCause() != null
+                    ? ex.getCause().getCause()
+                    : ex.getCause();
+            if (cause instanceof SMPClientException smpClientException) {
+                throw smpClientException;
+            }
+            throw new SMPClientException("The SMP lookup failed", cause);
+        }
+    }
+
+    /**
+     * The cache key. Identifiers are compared by their URI-encoded form, the identifier objects are kept for loading.
+     */
+    private static final class LookupKey {
+        private final IParticipantIdentifier participantId;
+        private final IDocumentTypeIdentifier docTypeId;
+        private final PeppolWildcardSelector.EMode wildcardMode;
+        private final String participant;
+        private final String docType;
+
+        LookupKey(IParticipantIdentifier participantId, IDocumentTypeIdentifier docTypeId, PeppolWildcardSelector.EMode wildcardMode) {
+            this.participantId = participantId;
+            this.docTypeId = docTypeId;
+            this.wildcardMode = wildcardMode;
+            this.participant = participantId.getURIEncoded();
+            this.docType = docTypeId.getURIEncoded();
+        }
+
+        SignedServiceMetadataType load(ISMPServiceMetadataProvider provider) throws SMPClientException {
+            return this.wildcardMode == null
+                    ? provider.getServiceMetadataOrNull(this.participantId, this.docTypeId)
+                    : provider.getWildcardServiceMetadataOrNull(this.participantId, this.docTypeId, this.wildcardMode);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LookupKey other)) {
+                return false;
+            }
+            return this.participant.equals(other.participant)
+                    && this.docType.equals(other.docType)
+                    && this.wildcardMode == other.wildcardMode;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.participant, this.docType, this.wildcardMode);
+        }
+    }
+}
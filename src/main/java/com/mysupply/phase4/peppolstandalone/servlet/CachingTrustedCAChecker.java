@@ -0,0 +1,137 @@
+package com.mysupply.phase4.peppolstandalone.servlet;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.helger.base.state.ETriState;
+import com.helger.security.certificate.ECertificateCheckResult;
+import com.helger.security.certificate.TrustedCAChecker;
+import com.helger.security.revocation.ERevocationCheckMode;
+import com.mysupply.phase4.persistence.configuration.PeppolCertificateCheckCacheConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.HexFormat;
+
+/**
+ * A {@link TrustedCAChecker} that caches the valid verdicts of the checker it wraps.
+ * <p>
+ * Nearly all inbound messages are signed by a few hundred access points, so the path validation and revocation check
+ * of the same certificate is repeated over and over. Verdicts are keyed by the SHA-256 fingerprint of the certificate,
+ * the bucket of the check time and the revocation check mode. A verdict is used until the earliest nextUpdate time of
+ * the known CRLs, at most for the configured TTL, and is dropped as soon as a refreshed CRL revokes its certificate.
+ * Only valid verdicts are cached, invalid ones are rare and always checked again.
+ */
+public class CachingTrustedCAChecker extends TrustedCAChecker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingTrustedCAChecker.class);
+    private static final String METRIC_PREFIX = "phase4.certificate.check";
+
+    private final TrustedCAChecker delegate;
+    private final PersistentCRLDownloader crlDownloader;
+    private final long bucketMillis;
+    private final Cache<String, CachedVerdict> verdicts;
+    private final Timer fullCheckTimer;
+
+    public CachingTrustedCAChecker(TrustedCAChecker delegate,
+                                   PersistentCRLDownloader crlDownloader,
+                                   PeppolCertificateCheckCacheConfiguration configuration,
+                                   MeterRegistry meterRegistry) {
+        super(delegate.getAllTrustedCAs());
+        this.delegate = delegate;
+        this.crlDownloader = crlDownloader;
+        this.bucketMillis = Math.max(1, configuration.getCheckTimeBucketSeconds()) * 1000;
+
+        Duration maxTtl = Duration.ofSeconds(Math.max(1, configuration.getMaxTtlSeconds()));
+        this.verdicts = Caffeine.newBuilder()
+                .maximumSize(Math.max(0, configuration.getMaxEntries()))
+                .expireAfter(Expiry.<String, CachedVerdict>creating((key, value) -> this.getTtl(maxTtl)))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, this.verdicts, "certificate-verdicts");
+
+        // Hits multiplied by the mean of this timer estimate the validation time saved by the cache
+        this.fullCheckTimer = Timer.builder(METRIC_PREFIX + ".full")
+                .description("Time spent validating a signing certificate without a cached verdict")
+                .register(meterRegistry);
+
+        crlDownloader.addRefreshListener(this::invalidateRevoked);
+    }
+
+    @Override
+    @NonNull
+    public ECertificateCheckResult checkCertificate(@Nullable final X509Certificate aCert,
+                                                    @Nullable final OffsetDateTime aCheckDT,
+                                                    @NonNull final ETriState eCacheRevocationCheckResult,
+                                                    @Nullable final ERevocationCheckMode eRevocationCheckMode) {
+        // Callers that explicitly disable caching get a full check
+        if (aCert == null || eCacheRevocationCheckResult.isFalse()) {
+            return this.delegate.checkCertificate(aCert, aCheckDT, eCacheRevocationCheckResult, eRevocationCheckMode);
+        }
+
+        String key = this.createKey(aCert, aCheckDT, eRevocationCheckMode);
+        CachedVerdict cached = this.verdicts.getIfPresent(key);
+        if (cached != null) {
+            return cached.result;
+        }
+
+        long start = System.nanoTime();
+        ECertificateCheckResult result = this.delegate.checkCertificate(aCert, aCheckDT, eCacheRevocationCheckResult, eRevocationCheckMode);
+        this.fullCheckTimer.record(Duration.ofNanos(System.nanoTime() - start));
+        if (result.isValid()) {
+            this.verdicts.put(key, new CachedVerdict(aCert, result));
+        }
+        return result;
+    }
+
+    private Duration getTtl(Duration maxTtl) {
+        Long nextUpdate = this.crlDownloader.getEarliestNextUpdateMillis();
+        if (nextUpdate == null) {
+            return maxTtl;
+        }
+        Duration untilNextUpdate = Duration.ofMillis(Math.max(0, nextUpdate - System.currentTimeMillis()));
+        return untilNextUpdate.compareTo(maxTtl) < 0 ? untilNextUpdate : maxTtl;
+    }
+
+    private void invalidateRevoked(X509CRL crl) {
+        this.verdicts.asMap().entrySet().removeIf(entry -> {
+            if (crl.isRevoked(entry.getValue().certificate)) {
+                LOGGER.info("Dropping the cached verdict of the revoked certificate '{}'",
+                        entry.getValue().certificate.getSubjectX500Principal().getName());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private String createKey(X509Certificate certificate, OffsetDateTime checkDT, ERevocationCheckMode revocationCheckMode) {
+        long checkMillis = checkDT != null ? checkDT.toInstant().toEpochMilli() : System.currentTimeMillis();
+        try {
+            String fingerprint = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+            return fingerprint + '|' + (checkMillis / this.bucketMillis) + '|' + revocationCheckMode;
+        } catch (NoSuchAlgorithmException | CertificateEncodingException ex) {
+            throw new IllegalStateException("Failed to create the fingerprint of the certificate", ex);
+        }
+    }
+
+    private static final class CachedVerdict {
+        final X509Certificate certificate;
+        final ECertificateCheckResult result;
+
+        CachedVerdict(X509Certificate certificate, ECertificateCheckResult result) {
+            this.certificate = certificate;
+            this.result = result;
+        }
+    }
+}
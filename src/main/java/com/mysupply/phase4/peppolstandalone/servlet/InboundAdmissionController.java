@@ -0,0 +1,117 @@
+package com.mysupply.phase4.peppolstandalone.servlet;
+
+import com.mysupply.phase4.persistence.configuration.PeppolInboundAdmissionConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number and the total size of inbound AS4 messages that are handled at the same time.
+ * <p>
+ * A request above either limit is rejected by {@link InboundAdmissionFilter} before the AS4 servlet reads it. The
+ * filter runs on the servlet thread that accepted the request, so a rejected request still takes a thread, but only
+ * for as long as it takes to send the 503 response. A slow database therefore cannot make inbound requests pile up
+ * until memory runs out or the senders time out. The state is published as metrics and on the health endpoint.
+ */
+@Component("inboundAdmission")
+public class InboundAdmissionController implements HealthIndicator {
+    private static final String METRIC_PREFIX = "phase4.inbound.admission";
+
+    /** Why a request was rejected. */
+    public enum Rejection {
+        CONCURRENCY, BYTES
+    }
+
+    private final PeppolInboundAdmissionConfiguration configuration;
+    private final AtomicInteger inFlightMessages = new AtomicInteger();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final Counter rejectedConcurrencyCounter;
+    private final Counter rejectedBytesCounter;
+
+    @Autowired
+    public InboundAdmissionController(PeppolInboundAdmissionConfiguration configuration, MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+
+        Gauge.builder(METRIC_PREFIX + ".in_flight", this.inFlightMessages, AtomicInteger::get)
+                .description("Number of inbound AS4 messages currently being handled")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".in_flight_bytes", this.inFlightBytes, AtomicLong::get)
+                .description("Total request size of the inbound AS4 messages currently being handled")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.rejectedConcurrencyCounter = Counter.builder(METRIC_PREFIX + ".rejected")
+                .description("Number of inbound AS4 requests rejected because a limit was reached")
+                .tag("reason", "concurrency")
+                .register(meterRegistry);
+        this.rejectedBytesCounter = Counter.builder(METRIC_PREFIX + ".rejected")
+                .description("Number of inbound AS4 requests rejected because a limit was reached")
+                .tag("reason", "bytes")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return this.configuration.isEnabled();
+    }
+
+    public int getRetryAfterSeconds() {
+        return this.configuration.getRetryAfterSeconds();
+    }
+
+    /**
+     * Returns the size a request counts with against the byte limit.
+     *
+     * @param contentLength The request size, or a negative value if it is not known.
+     */
+    public long getRequestBytes(long contentLength) {
+        return contentLength >= 0 ? contentLength : this.configuration.getUnknownContentLengthBytes();
+    }
+
+    /**
+     * Tries to admit a request of the given size. An admitted request must be passed to {@link #release(long)} once
+     * it is handled.
+     *
+     * @return Null if the request was admitted, otherwise the limit that was reached.
+     */
+    public Rejection tryAdmit(long bytes) {
+        if (this.inFlightMessages.incrementAndGet() > this.configuration.getMaxConcurrentMessages()) {
+            this.inFlightMessages.decrementAndGet();
+            this.rejectedConcurrencyCounter.increment();
+            return Rejection.CONCURRENCY;
+        }
+
+        long total = this.inFlightBytes.addAndGet(bytes);
+        // A single message is admitted on its own even if it is larger than the limit
+        if (total > this.configuration.getMaxInFlightBytes() && total != bytes) {
+            this.release(bytes);
+            this.rejectedBytesCounter.increment();
+            return Rejection.BYTES;
+        }
+        return null;
+    }
+
+    public void release(long bytes) {
+        this.inFlightBytes.addAndGet(-bytes);
+        this.inFlightMessages.decrementAndGet();
+    }
+
+    @Override
+    public Health health() {
+        // Saturation is a temporary state that the senders retry, so it is reported in the details only
+        return Health.up()
+                .withDetail("enabled", this.configuration.isEnabled())
+                .withDetail("inFlightMessages", this.inFlightMessages.get())
+                .withDetail("maxConcurrentMessages", this.configuration.getMaxConcurrentMessages())
+                .withDetail("inFlightBytes", this.inFlightBytes.get())
+                .withDetail("maxInFlightBytes", this.configuration.getMaxInFlightBytes())
+                .withDetail("rejectedConcurrency", (long) this.rejectedConcurrencyCounter.count())
+                .withDetail("rejectedBytes", (long) this.rejectedBytesCounter.count())
+                .build();
+    }
+}
@@ -0,0 +1,73 @@
+package com.mysupply.phase4.peppolstandalone.servlet;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Rejects inbound AS4 messages with "503 Service Unavailable" while the {@link InboundAdmissionController} limits are
+ * reached.
+ * <p>
+ * AS4 senders treat a 5xx response as a transport failure and retry the message later, while an ebMS error in a 200
+ * response is final for the message. The response therefore carries a Retry-After header and a SOAP 1.2 Receiver
+ * fault, which marks the failure as a server-side condition that is worth retrying.
+ */
+public class InboundAdmissionFilter extends OncePerRequestFilter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InboundAdmissionFilter.class);
+
+    private static final String SOAP_12_CONTENT_TYPE = "application/soap+xml; charset=utf-8";
+
+    private final InboundAdmissionController admissionController;
+
+    public InboundAdmissionFilter(InboundAdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // Only message submissions carry a payload, the informational GET page is always served
+        return !this.admissionController.isEnabled() || !"POST".equals(request.getMethod());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long bytes = this.admissionController.getRequestBytes(request.getContentLengthLong());
+        InboundAdmissionController.Rejection rejection = this.admissionController.tryAdmit(bytes);
+        if (rejection != null) {
+            LOGGER.warn("Rejecting inbound AS4 request of {} bytes from {}, the {} limit is reached",
+                    bytes, request.getRemoteAddr(), rejection.name().toLowerCase());
+            this.sendBusy(response);
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            this.admissionController.release(bytes);
+        }
+    }
+
+    private void sendBusy(HttpServletResponse response) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<env:Envelope xmlns:env=\"http://www.w3.org/2003/05/soap-envelope\">" +
+                "<env:Body><env:Fault>" +
+                "<env:Code><env:Value>env:Receiver</env:Value></env:Code>" +
+                "<env:Reason><env:Text xml:lang=\"en\">The access point is temporarily overloaded, retry the message later</env:Text></env:Reason>" +
+                "</env:Fault></env:Body></env:Envelope>").getBytes(StandardCharsets.UTF_8);
+
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(this.admissionController.getRetryAfterSeconds()));
+        response.setContentType(SOAP_12_CONTENT_TYPE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+}
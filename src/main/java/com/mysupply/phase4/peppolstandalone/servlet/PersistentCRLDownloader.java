@@ -0,0 +1,291 @@
+package com.mysupply.phase4.peppolstandalone.servlet;
+
+import com.helger.phase4.profile.peppol.PeppolCRLDownloader;
+import com.helger.phase4.profile.peppol.Phase4PeppolHttpClientSettings;
+import com.mysupply.phase4.persistence.configuration.PeppolCrlConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRL;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A CRL downloader that keeps every CRL in memory and in the data directory, and downloads it again in the background
+ * before it expires.
+ * <p>
+ * Revocation checks are served from memory. Only a CRL that was never downloaded before is fetched while a check
+ * waits. At startup, the CRLs of the previous run are loaded from disk, so the first inbound messages do not wait for
+ * a download either. A failed background download keeps the previous CRL and is retried at the next check, but only
+ * up to the configured maximum staleness after its nextUpdate time. After that the CRL is no longer served and a check
+ * downloads it again while it waits. The number of expired CRLs still in use is published as a gauge.
+ * <p>
+ * Concurrent checks of a URL that is not cached share one download through a future per URL. The download runs
+ * outside any map lock, so it neither blocks other URLs nor pins the carrier of a virtual thread.
+ */
+@Component
+public class PersistentCRLDownloader extends PeppolCRLDownloader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PersistentCRLDownloader.class);
+    private static final String METRIC_PREFIX = "phase4.crl";
+    private static final String CRL_EXTENSION = ".crl";
+    private static final String URL_EXTENSION = ".url";
+
+    private final PeppolCrlConfiguration configuration;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, CachedCRL> crls = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<CachedCRL>> downloads = new ConcurrentHashMap<>();
+    private final List<Consumer<X509CRL>> refreshListeners = new CopyOnWriteArrayList<>();
+    private final Counter fetchedCounter;
+    private final Counter failedCounter;
+
+    @Autowired
+    public PersistentCRLDownloader(PeppolCrlConfiguration configuration, MeterRegistry meterRegistry) {
+        super(new Phase4PeppolHttpClientSettings());
+        this.configuration = configuration;
+        this.meterRegistry = meterRegistry;
+        this.fetchedCounter = Counter.builder(METRIC_PREFIX + ".fetches")
+                .description("Number of CRL downloads")
+                .tag("result", "success")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder(METRIC_PREFIX + ".fetches")
+                .description("Number of CRL downloads")
+                .tag("result", "failure")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".expired", this.crls, map -> {
+                    long now = System.currentTimeMillis();
+                    return map.values().stream().filter(cached -> isExpired(cached, now)).count();
+                })
+                .description("Number of CRLs in use past their nextUpdate time, because their refresh keeps failing")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void loadStored() {
+        Path directory = this.getDirectory();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + URL_EXTENSION)) {
+            for (Path urlFile : files) {
+                String name = urlFile.getFileName().toString();
+                Path crlFile = directory.resolve(name.substring(0, name.length() - URL_EXTENSION.length()) + CRL_EXTENSION);
+                try {
+                    String url = Files.readString(urlFile, StandardCharsets.UTF_8);
+                    X509CRL crl = parse(Files.readAllBytes(crlFile));
+                    this.remember(url, crl, Files.getLastModifiedTime(crlFile).toMillis());
+                } catch (IOException | GeneralSecurityException ex) {
+                    LOGGER.warn("Ignoring the stored CRL '{}', it is downloaded again when needed", crlFile, ex);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to read the stored CRLs from '{}'", directory, ex);
+        }
+        LOGGER.info("Loaded {} stored CRL(s) from '{}'", this.crls.size(), directory);
+    }
+
+    @Override
+    @Nullable
+    public CRL downloadCRL(@NonNull final String sCRLURL) {
+        CachedCRL cached = this.crls.get(sCRLURL);
+        if (cached != null && !this.isTooStale(cached, System.currentTimeMillis())) {
+            return cached.crl;
+        }
+        cached = this.downloadShared(sCRLURL);
+        return cached != null ? cached.crl : null;
+    }
+
+    /**
+     * Downloads the CRL in the calling thread, or waits for the download another thread already started for the URL.
+     */
+    @Nullable
+    private CachedCRL downloadShared(String url) {
+        CompletableFuture<CachedCRL> download = new CompletableFuture<>();
+        CompletableFuture<CachedCRL> running = this.downloads.putIfAbsent(url, download);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException ex) {
+                return null;
+            }
+        }
+
+        try {
+            X509CRL crl = this.fetch(url);
+            CachedCRL cached = null;
+            if (crl != null) {
+                cached = this.createEntry(url, crl, System.currentTimeMillis());
+                this.crls.put(url, cached);
+            }
+            download.complete(cached);
+            return cached;
+        } catch (RuntimeException ex) {
+            download.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            this.downloads.remove(url, download);
+        }
+    }
+
+    /**
+     * Registers a listener that is called with every CRL downloaded by the background refresh.
+     */
+    public void addRefreshListener(Consumer<X509CRL> listener) {
+        this.refreshListeners.add(listener);
+    }
+
+    /**
+     * Returns the earliest nextUpdate time of all known CRLs, or null if none of them has one.
+     */
+    @Nullable
+    public Long getEarliestNextUpdateMillis() {
+        Long earliest = null;
+        for (CachedCRL cached : this.crls.values()) {
+            if (cached.crl.getNextUpdate() != null) {
+                long nextUpdate = cached.crl.getNextUpdate().getTime();
+                earliest = earliest == null ? nextUpdate : Math.min(earliest, nextUpdate);
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Downloads every CRL again that expires soon.
+     */
+    @Scheduled(fixedDelayString = "${peppol.crl.refresh-check-interval-millis:60000}")
+    public void refreshDue() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, CachedCRL> entry : this.crls.entrySet()) {
+            if (now < this.getRefreshDueMillis(entry.getValue())) {
+                continue;
+            }
+            X509CRL crl = this.fetch(entry.getKey());
+            if (crl != null) {
+                this.remember(entry.getKey(), crl, System.currentTimeMillis());
+                for (Consumer<X509CRL> listener : this.refreshListeners) {
+                    listener.accept(crl);
+                }
+            }
+        }
+    }
+
+    private static boolean isExpired(CachedCRL cached, long now) {
+        return cached.crl.getNextUpdate() != null && now > cached.crl.getNextUpdate().getTime();
+    }
+
+    private boolean isTooStale(CachedCRL cached, long now) {
+        long validUntil = cached.crl.getNextUpdate() != null
+                ? cached.crl.getNextUpdate().getTime()
+                : cached.fetchedMillis + this.configuration.getMaxAgeSeconds() * 1000;
+        return now > validUntil + this.configuration.getMaxStaleSeconds() * 1000;
+    }
+
+    private long getRefreshDueMillis(CachedCRL cached) {
+        if (cached.crl.getNextUpdate() == null) {
+            return cached.fetchedMillis + this.configuration.getMaxAgeSeconds() * 1000;
+        }
+        return cached.crl.getNextUpdate().getTime() - this.configuration.getRefreshAheadSeconds() * 1000;
+    }
+
+    private X509CRL fetch(String url) {
+        CRL crl = super.downloadCRL(url);
+        if (!(crl instanceof X509CRL x509Crl)) {
+            this.failedCounter.increment();
+            LOGGER.warn("Failed to download the CRL from '{}'", url);
+            return null;
+        }
+        this.fetchedCounter.increment();
+        this.store(url, x509Crl);
+        return x509Crl;
+    }
+
+    private void store(String url, X509CRL crl) {
+        Path directory = this.getDirectory();
+        String baseName = hash(url);
+        try {
+            Files.createDirectories(directory);
+            Path tempFile = Files.createTempFile(directory, baseName, ".tmp");
+            Files.write(tempFile, crl.getEncoded());
+            Files.move(tempFile, directory.resolve(baseName + CRL_EXTENSION),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.writeString(directory.resolve(baseName + URL_EXTENSION), url, StandardCharsets.UTF_8);
+        } catch (IOException | GeneralSecurityException ex) {
+            // The CRL is still used from memory, it is only downloaded again after a restart
+            LOGGER.warn("Failed to store the CRL from '{}' in '{}'", url, directory, ex);
+        }
+    }
+
+    private void remember(String url, X509CRL crl, long fetchedMillis) {
+        this.crls.put(url, this.createEntry(url, crl, fetchedMillis));
+    }
+
+    private CachedCRL createEntry(String url, X509CRL crl, long fetchedMillis) {
+        // Registered once per URL, the gauge reads the current entry
+        Gauge.builder(METRIC_PREFIX + ".age", this.crls, map -> {
+                    CachedCRL current = map.get(url);
+                    return current != null ? (System.currentTimeMillis() - current.fetchedMillis) / 1000.0 : Double.NaN;
+                })
+                .description("Time since the CRL was downloaded")
+                .baseUnit("seconds")
+                .tag("url", url)
+                .register(this.meterRegistry);
+        return new CachedCRL(crl, fetchedMillis);
+    }
+
+    private Path getDirectory() {
+        return Paths.get(this.configuration.getDirectory());
+    }
+
+    private static X509CRL parse(byte[] encoded) throws GeneralSecurityException, IOException {
+        try (InputStream input = new ByteArrayInputStream(encoded)) {
+            return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(input);
+        }
+    }
+
+    private static String hash(String url) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static final class CachedCRL {
+        final X509CRL crl;
+        final long fetchedMillis;
+
+        CachedCRL(X509CRL crl, long fetchedMillis) {
+            this.crl = crl;
+            this.fetchedMillis = fetchedMillis;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.mysupply.phase4.peppolstandalone.servlet;
+
+import com.helger.base.url.URLHelper;
+import com.helger.security.certificate.CertificateDecodeHelper;
+import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
+import com.helger.smpclient.peppol.SMPClientReadOnly;
+import com.mysupply.phase4.persistence.configuration.PeppolReceiverRoutingConfiguration;
+import com.mysupply.phase4.persistence.configuration.PeppolSmpCacheConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jspecify.annotations.Nullable;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Selects the receiver route of an inbound request by host name or URL prefix.
+ * <p>
+ * Routes are built once: each has its own SMP client, cached like the default one, and its decoded AP certificate.
+ * Host names are found with one hash lookup, URL prefixes with a walk over a character trie that remembers the
+ * longest matching prefix. The table is immutable and shared by all requests.
+ */
+public final class ReceiverRoutingTable {
+    private final Map<String, ReceiverRoute> routesByHost;
+    private final TrieNode prefixRoot;
+    private final List<ReceiverRoute> routes;
+
+    private ReceiverRoutingTable(Map<String, ReceiverRoute> routesByHost, TrieNode prefixRoot, List<ReceiverRoute> routes) {
+        this.routesByHost = routesByHost;
+        this.prefixRoot = prefixRoot;
+        this.routes = routes;
+    }
+
+    public static ReceiverRoutingTable empty() {
+        return new ReceiverRoutingTable(Map.of(), new TrieNode(), List.of());
+    }
+
+    /**
+     * Builds the routes from the configuration.
+     *
+     * @throws IllegalStateException If a route has neither a host nor a URL prefix, or its certificate cannot be decoded.
+     */
+    public static ReceiverRoutingTable build(PeppolReceiverRoutingConfiguration configuration,
+                                             PeppolSmpCacheConfiguration smpCacheConfiguration,
+                                             MeterRegistry meterRegistry,
+                                             Executor smpLoadExecutor) {
+        Map<String, ReceiverRoute> routesByHost = new HashMap<>();
+        TrieNode prefixRoot = new TrieNode();
+        List<ReceiverRoute> routes = new ArrayList<>();
+
+        for (PeppolReceiverRoutingConfiguration.Route route : configuration.getRoutes()) {
+            boolean hasHost = route.getHost() != null && !route.getHost().isBlank();
+            boolean hasPrefix = route.getUrlPrefix() != null && !route.getUrlPrefix().isBlank();
+            if (!hasHost && !hasPrefix) {
+                throw new IllegalStateException("A receiver route needs a host or a URL prefix");
+            }
+
+            ISMPServiceMetadataProvider smpClient = null;
+            if (route.getSmpUrl() != null && !route.getSmpUrl().isBlank()) {
+                SMPClientReadOnly client = new SMPClientReadOnly(URLHelper.getAsURI(route.getSmpUrl()));
+                smpClient = smpCacheConfiguration.isEnabled()
+                        ? new CachingServiceMetadataProvider(client, smpCacheConfiguration, meterRegistry, smpLoadExecutor)
+                        : client;
+            }
+
+            X509Certificate apCertificate = null;
+            if (route.getApCertificate() != null && !route.getApCertificate().isBlank()) {
+                apCertificate = new CertificateDecodeHelper().source(route.getApCertificate())
+                        .pemEncoded(true)
+                        .getDecodedOrNull();
+                if (apCertificate == null) {
+                    throw new IllegalStateException("The AP certificate of the receiver route for '" +
+                            (hasHost ? route.getHost() : route.getUrlPrefix()) + "' cannot be decoded");
+                }
+            }
+
+            ReceiverRoute receiverRoute = new ReceiverRoute(route.getHost(), route.getUrlPrefix(),
+                    route.isReceiverCheckEnabled(), smpClient, route.getAs4EndpointUrl(), apCertificate);
+            routes.add(receiverRoute);
+            if (hasHost) {
+                routesByHost.put(route.getHost().toLowerCase(Locale.ROOT), receiverRoute);
+            } else {
+                prefixRoot.put(route.getUrlPrefix(), receiverRoute);
+            }
+        }
+        return new ReceiverRoutingTable(routesByHost, prefixRoot, Collections.unmodifiableList(routes));
+    }
+
+    /**
+     * Returns all routes, in configuration order.
+     */
+    public List<ReceiverRoute> getRoutes() {
+        return this.routes;
+    }
+
+    /**
+     * Returns the route of a request. A host route wins over a URL prefix route.
+     *
+     * @return The route, or null if the request uses the default receiver configuration.
+     */
+    @Nullable
+    public ReceiverRoute resolve(@Nullable String host, @Nullable String url) {
+        if (host != null && !this.routesByHost.isEmpty()) {
+            ReceiverRoute route = this.routesByHost.get(host.toLowerCase(Locale.ROOT));
+            if (route != null) {
+                return route;
+            }
+        }
+        return url != null ? this.prefixRoot.findLongestPrefix(url) : null;
+    }
+
+    /**
+     * A prebuilt receiver route.
+     */
+    public static final class ReceiverRoute {
+        private final String host;
+        private final String urlPrefix;
+        private final boolean receiverCheckEnabled;
+        private final ISMPServiceMetadataProvider smpClient;
+        private final String as4EndpointUrl;
+        private final X509Certificate apCertificate;
+
+        ReceiverRoute(String host, String urlPrefix, boolean receiverCheckEnabled, ISMPServiceMetadataProvider smpClient,
+                      String as4EndpointUrl, X509Certificate apCertificate) {
+            this.host = host;
+            this.urlPrefix = urlPrefix;
+            this.receiverCheckEnabled = receiverCheckEnabled;
+            this.smpClient = smpClient;
+            this.as4EndpointUrl = as4EndpointUrl;
+            this.apCertificate = apCertificate;
+        }
+
+        public String getHost() {
+            return this.host;
+        }
+
+        public String getUrlPrefix() {
+            return this.urlPrefix;
+        }
+
+        public boolean isReceiverCheckEnabled() {
+            return this.receiverCheckEnabled;
+        }
+
+        public ISMPServiceMetadataProvider getSmpClient() {
+            return this.smpClient;
+        }
+
+        public String getAs4EndpointUrl() {
+            return this.as4EndpointUrl;
+        }
+
+        public X509Certificate getApCertificate() {
+            return this.apCertificate;
+        }
+    }
+
+    private static final class TrieNode {
+        private final Map<Character, TrieNode> children = new HashMap<>();
+        private ReceiverRoute route;
+
+        void put(String prefix, ReceiverRoute route) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new TrieNode());
+            }
+            node.route = route;
+        }
+
+        ReceiverRoute findLongestPrefix(String url) {
+            TrieNode node = this;
+            ReceiverRoute longest = this.route;
+            for (int i = 0; i < url.length() && node != null; i++) {
+                node = node.children.get(url.charAt(i));
+                if (node != null && node.route != null) {
+                    longest = node.route;
+                }
+            }
+            return longest;
+        }
+    }
+}
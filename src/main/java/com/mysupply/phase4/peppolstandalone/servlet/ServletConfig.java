@@ -19,15 +19,20 @@ package com.mysupply.phase4.peppolstandalone.servlet;
 import java.io.File;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.time.YearMonth;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.bridge.SLF4JBridgeHandler;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 
 import com.helger.base.debug.GlobalDebug;
 import com.helger.base.exception.InitializationException;
@@ -41,8 +46,16 @@ import com.helger.peppol.servicedomain.EPeppolNetwork;
 import com.helger.phase4.crypto.AS4CryptoFactoryInMemoryKeyStore;
 import com.helger.security.certificate.ECertificateCheckResult;
 import com.helger.security.certificate.TrustedCAChecker;
+import com.helger.security.crl.CRLCache;
+import com.helger.security.revocation.CertificateRevocationCheckerDefaults;
 import com.mysupply.phase4.peppolstandalone.APConfig;
+import com.mysupply.phase4.peppolstandalone.dump.AS4IncomingDumperSegmentBased;
+import com.mysupply.phase4.peppolstandalone.dump.AS4OutgoingDumperSegmentBased;
+import com.mysupply.phase4.peppolstandalone.dump.DumpSegmentWriter;
 import com.mysupply.phase4.peppolstandalone.reporting.AppReportingHelper;
+import com.mysupply.phase4.persistence.configuration.PeppolCertificateCheckCacheConfiguration;
+import com.mysupply.phase4.persistence.configuration.PeppolReceiverRoutingConfiguration;
+import com.mysupply.phase4.persistence.configuration.PeppolSmpCacheConfiguration;
 
 import com.helger.httpclient.HttpDebugger;
 import com.helger.phase4.config.AS4Configuration;
@@ -56,14 +69,13 @@ import com.helger.phase4.incoming.mgr.AS4ProfileSelector;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.peppol.servlet.Phase4PeppolDefaultReceiverConfiguration;
 import com.helger.phase4.profile.peppol.AS4PeppolProfileRegistarSPI;
-import com.helger.phase4.profile.peppol.PeppolCRLDownloader;
-import com.helger.phase4.profile.peppol.Phase4PeppolHttpClientSettings;
 import com.helger.photon.io.WebFileIO;
 import com.helger.servlet.ServletHelper;
 import com.helger.smpclient.peppol.SMPClientReadOnly;
 import com.helger.web.scope.mgr.WebScopeManager;
 import com.helger.xservlet.requesttrack.RequestTrackerSettings;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.activation.CommandMap;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.PreDestroy;
@@ -90,10 +102,24 @@ public class ServletConfig {
     }
 
     @Bean
-    public ServletRegistrationBean <SpringBootAS4Servlet> servletRegistrationBean (final ServletContext ctx)
+    public ServletRegistrationBean <SpringBootAS4Servlet> servletRegistrationBean (final ServletContext ctx,
+                                                                               final PeppolSmpCacheConfiguration aSmpCacheConfiguration,
+                                                                               final PersistentCRLDownloader aCRLDownloader,
+                                                                               final PeppolCertificateCheckCacheConfiguration aCertificateCheckCacheConfiguration,
+                                                                               final PeppolReceiverRoutingConfiguration aReceiverRoutingConfiguration,
+                                                                               final DumpSegmentWriter aDumpSegmentWriter,
+                                                                               final MeterRegistry aMeterRegistry,
+                                                                               final Environment aEnvironment)
     {
         // Must be called BEFORE the servlet is instantiated
-        _init (ctx);
+        _init (ctx,
+               aSmpCacheConfiguration,
+               aCRLDownloader,
+               aCertificateCheckCacheConfiguration,
+               aReceiverRoutingConfiguration,
+               aDumpSegmentWriter,
+               aMeterRegistry,
+               aEnvironment);
 
         // Instantiate and register Servlet
         final ServletRegistrationBean <SpringBootAS4Servlet> bean = new ServletRegistrationBean <> (new SpringBootAS4Servlet (),
@@ -103,15 +129,50 @@ public class ServletConfig {
         return bean;
     }
 
-    private void _init (@Nonnull final ServletContext aSC)
+    @Bean
+    public FilterRegistrationBean <InboundAdmissionFilter> inboundAdmissionFilterRegistrationBean (final InboundAdmissionController aAdmissionController)
+    {
+        // Rejects inbound messages before they occupy the AS4 servlet while the admission limits are reached
+        final FilterRegistrationBean <InboundAdmissionFilter> bean = new FilterRegistrationBean <> (new InboundAdmissionFilter (aAdmissionController));
+        bean.addUrlPatterns ("/as4");
+        return bean;
+    }
+
+    private void _init (@Nonnull final ServletContext aSC,
+                        @Nonnull final PeppolSmpCacheConfiguration aSmpCacheConfiguration,
+                        @Nonnull final PersistentCRLDownloader aCRLDownloader,
+                        @Nonnull final PeppolCertificateCheckCacheConfiguration aCertificateCheckCacheConfiguration,
+                        @Nonnull final PeppolReceiverRoutingConfiguration aReceiverRoutingConfiguration,
+                        @Nonnull final DumpSegmentWriter aDumpSegmentWriter,
+                        @Nonnull final MeterRegistry aMeterRegistry,
+                        @Nonnull final Environment aEnvironment)
     {
         // Do it only once
         if (!WebScopeManager.isGlobalScopePresent ())
         {
+            // SMP lookups block on HTTP, so the caches load them on their own threads, virtual ones only when the
+            // application runs on virtual threads
+            final Executor aSmpLoadExecutor = aEnvironment.getProperty ("spring.threads.virtual.enabled", Boolean.class, false)
+                                              ? Executors.newVirtualThreadPerTaskExecutor ()
+                                              : Executors.newCachedThreadPool (Thread.ofPlatform ()
+                                                                                     .name ("phase4-smp-lookup-", 0)
+                                                                                     .daemon (true)
+                                                                                     .factory ());
+
             WebScopeManager.onGlobalBegin (aSC);
             _initGlobalSettings (aSC);
-            _initAS4 ();
-            _initPeppolAS4 ();
+            _initAS4 (aDumpSegmentWriter);
+            _initPeppolAS4 (aSmpCacheConfiguration,
+                            aCRLDownloader,
+                            aCertificateCheckCacheConfiguration,
+                            aMeterRegistry,
+                            aSmpLoadExecutor);
+            // Built once after the receiver defaults are set, the servlet only assigns the prebuilt objects.
+            // The routes own SMP clients with their caches.
+            AS4HandlerCustomization.initialize (ReceiverRoutingTable.build (aReceiverRoutingConfiguration,
+                                                                            aSmpCacheConfiguration,
+                                                                            aMeterRegistry,
+                                                                            aSmpLoadExecutor));
         }
     }
 
@@ -152,7 +213,7 @@ public class ServletConfig {
         }
     }
 
-    private static void _initAS4 ()
+    private static void _initAS4 (@Nonnull final DumpSegmentWriter aDumpSegmentWriter)
     {
         // Enforce Peppol profile usage
         // This is the programmatic way to enforce exactly this one profile
@@ -161,12 +222,25 @@ public class ServletConfig {
 
         AS4ServerInitializer.initAS4Server ();
 
-        // dump all messages to a file
-        AS4DumpManager.setIncomingDumper (new AS4IncomingDumperFileBased ());
-        AS4DumpManager.setOutgoingDumper (new AS4OutgoingDumperFileBased ());
+        // dump all messages, either appended to compressed segment files by a
+        // background writer or to one file per message
+        if (aDumpSegmentWriter.isEnabled ())
+        {
+            AS4DumpManager.setIncomingDumper (new AS4IncomingDumperSegmentBased (aDumpSegmentWriter));
+            AS4DumpManager.setOutgoingDumper (new AS4OutgoingDumperSegmentBased (aDumpSegmentWriter));
+        }
+        else
+        {
+            AS4DumpManager.setIncomingDumper (new AS4IncomingDumperFileBased ());
+            AS4DumpManager.setOutgoingDumper (new AS4OutgoingDumperFileBased ());
+        }
     }
 
-    private static void _initPeppolAS4 ()
+    private static void _initPeppolAS4 (@Nonnull final PeppolSmpCacheConfiguration aSmpCacheConfiguration,
+                                        @Nonnull final PersistentCRLDownloader aCRLDownloader,
+                                        @Nonnull final PeppolCertificateCheckCacheConfiguration aCertificateCheckCacheConfiguration,
+                                        @Nonnull final MeterRegistry aMeterRegistry,
+                                        @Nonnull final Executor aSmpLoadExecutor)
     {
         // Our server should check all signing certificates of incoming messages if
         // they are revoked or not (this is the default setting, but added it here
@@ -175,12 +249,11 @@ public class ServletConfig {
 
         // Make sure the download of CRL is using Apache HttpClient and that the
         // provided settings are used. If e.g. a proxy is needed to access outbound
-        // resources, it can be configured here
-        {
-            final Phase4PeppolHttpClientSettings aHCS = new Phase4PeppolHttpClientSettings ();
-            // TODO eventually configure an outbound proxy here as well
-            PeppolCRLDownloader.setAsDefaultCRLCache (aHCS);
-        }
+        // resources, it can be configured in PersistentCRLDownloader.
+        // The downloader keeps the CRLs in memory and on disk and refreshes them in
+        // the background, so the CRL cache only needs to hold them briefly and then
+        // picks up the refreshed version
+        CertificateRevocationCheckerDefaults.setCRLCache (new CRLCache (aCRLDownloader, Duration.ofMinutes (1)));
 
         // Throws an exception if configuration parameters are missing
         final AS4CryptoFactoryInMemoryKeyStore aCryptoFactory = getCryptoFactoryToUse ();
@@ -230,7 +303,14 @@ public class ServletConfig {
 
         // Must be set independent on the enabled/disable status
         // This must be changed for eB2B
-        Phase4PeppolDefaultReceiverConfiguration.setAPCAChecker (aAPCAChecker);
+        // Inbound signing certificates are checked through a verdict cache
+        if (aCertificateCheckCacheConfiguration.isEnabled ())
+            Phase4PeppolDefaultReceiverConfiguration.setAPCAChecker (new CachingTrustedCAChecker (aAPCAChecker,
+                                                                                                 aCRLDownloader,
+                                                                                                 aCertificateCheckCacheConfiguration,
+                                                                                                 aMeterRegistry));
+        else
+            Phase4PeppolDefaultReceiverConfiguration.setAPCAChecker (aAPCAChecker);
 
         // Eventually enable the receiver check, so that for each incoming request
         // the validity is crosscheck against the owning SMP
@@ -241,7 +321,15 @@ public class ServletConfig {
             // To process the message even though the receiver is not registered in
             // our AP
             Phase4PeppolDefaultReceiverConfiguration.setReceiverCheckEnabled (true);
-            Phase4PeppolDefaultReceiverConfiguration.setSMPClient (new SMPClientReadOnly (URLHelper.getAsURI (sSMPURL)));
+            final SMPClientReadOnly aSMPClient = new SMPClientReadOnly (URLHelper.getAsURI (sSMPURL));
+            // Cache the lookups, so the SMP is not queried for every inbound message
+            if (aSmpCacheConfiguration.isEnabled ())
+                Phase4PeppolDefaultReceiverConfiguration.setSMPClient (new CachingServiceMetadataProvider (aSMPClient,
+                                                                                                          aSmpCacheConfiguration,
+                                                                                                          aMeterRegistry,
+                                                                                                          aSmpLoadExecutor));
+            else
+                Phase4PeppolDefaultReceiverConfiguration.setSMPClient (aSMPClient);
             ////Phase4PeppolDefaultReceiverConfiguration.setWildcardSelectionMode (Phase4PeppolDefaultReceiverConfiguration.DEFAULT_WILDCARD_SELECTION_MODE);
             Phase4PeppolDefaultReceiverConfiguration.setAS4EndpointURL (sAPURL);
             Phase4PeppolDefaultReceiverConfiguration.setAPCertificate (aAPCert);
@@ -16,26 +16,19 @@
  */
 package com.mysupply.phase4.peppolstandalone.servlet;
 
-import com.helger.phase4.config.AS4Configuration;
 import org.jspecify.annotations.NonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.helger.base.string.StringHelper;
-import com.helger.base.url.URLHelper;
-import com.helger.phase4.crypto.AS4CryptoFactoryInMemoryKeyStore;
 import com.helger.phase4.incoming.AS4IncomingProfileSelectorConstant;
 import com.helger.phase4.incoming.AS4RequestHandler;
 import com.helger.phase4.incoming.mgr.AS4ProfileSelector;
-import com.helger.phase4.model.pmode.resolve.AS4DefaultPModeResolver;
 import com.helger.phase4.peppol.servlet.Phase4PeppolAS4Servlet;
-import com.helger.phase4.peppol.servlet.Phase4PeppolDefaultReceiverConfiguration;
-import com.helger.phase4.peppol.servlet.Phase4PeppolReceiverConfiguration;
 import com.helger.phase4.peppol.servlet.Phase4PeppolServletMessageProcessorSPI;
 import com.helger.phase4.servlet.AS4UnifiedResponse;
-import com.helger.security.certificate.CertificateDecodeHelper;
-import com.helger.smpclient.peppol.SMPClientReadOnly;
 import com.helger.web.scope.IRequestWebScopeWithoutResponse;
+import com.mysupply.phase4.peppolstandalone.context.SpringContextHolder;
+import com.mysupply.phase4.peppolstandalone.metrics.InboundMessageMetrics;
 
 public class SpringBootAS4Servlet extends Phase4PeppolAS4Servlet
 {
@@ -53,82 +46,38 @@ public class SpringBootAS4Servlet extends Phase4PeppolAS4Servlet
         // Parent always first
         super.customizeBeforeHandling (aRequestScope, aUnifiedResponse, aRequestHandler);
 
-        final AS4CryptoFactoryInMemoryKeyStore aCryptoFactory = ServletConfig.getCryptoFactoryToUse ();
+        // Start of the per-stage latency metrics, the handler records its stages on the same thread
+        SpringContextHolder.getBean (InboundMessageMetrics.class).requestStarted ();
 
-        // This method refers to the outer static method
-        aRequestHandler.setCryptoFactory (aCryptoFactory);
+        // All objects are prebuilt and shared, only the references are assigned per request
+        final AS4HandlerCustomization aCustomization = AS4HandlerCustomization.get ();
 
-        final boolean performSBDHValueChecks = AS4Configuration
-                .getConfig()
-                .getAsBoolean("peppol.receiver.PerformSBDHValueChecks", true);
-        Phase4PeppolDefaultReceiverConfiguration.setPerformSBDHValueChecks(performSBDHValueChecks);
+        // This method refers to the outer static method
+        aRequestHandler.setCryptoFactory (aCustomization.getCryptoFactory ());
 
-        // by Philip Helger
+        // The receiver check data of the route matching the request host or URL, or the default one.
+        // Behind a proxy, the server name is the forwarded host if server.forward-headers-strategy is set
         aRequestHandler.getProcessorOfType (Phase4PeppolServletMessageProcessorSPI.class)
-                .setReceiverCheckData (Phase4PeppolDefaultReceiverConfiguration.getAsReceiverCheckDataBuilder ()
-                        .apCertificate (aCryptoFactory.getCertificate ())
-                        .build ());
+                .setReceiverCheckData (aCustomization.getReceiverCheckData (aRequestScope.getServerName (),
+                                                                            aRequestScope.getURLDecoded ()));
 
         // Specific setters, dependent on a specific AS4 profile ID
         // This example code only uses the global one (if any)
-        final String sAS4ProfileID = AS4ProfileSelector.getDefaultAS4ProfileID ();
-        if (StringHelper.isNotEmpty (sAS4ProfileID))
+        if (aCustomization.getPModeResolver () != null)
         {
-          aRequestHandler.setPModeResolver (new AS4DefaultPModeResolver (sAS4ProfileID));
-          aRequestHandler.setIncomingProfileSelector (new AS4IncomingProfileSelectorConstant (sAS4ProfileID));
+          aRequestHandler.setPModeResolver (aCustomization.getPModeResolver ());
+          aRequestHandler.setIncomingProfileSelector (aCustomization.getIncomingProfileSelector ());
 
           // Example code to disable PMode validation
           if (false)
           {
+            final String sAS4ProfileID = AS4ProfileSelector.getDefaultAS4ProfileID ();
             final boolean bValidateAgainstProfile = false;
             aRequestHandler.setIncomingProfileSelector (new AS4IncomingProfileSelectorConstant (sAS4ProfileID,
                                                                                                 bValidateAgainstProfile));
           }
         }
 
-        // Example code for changing the Peppol receiver data based on the
-        // source URL
-        // Delete the block if you don't need it
-        if (false)
-        {
-          final String sUrl = aRequestScope.getURLDecoded ();
-
-          // The receiver check data you want to set
-          final Phase4PeppolReceiverConfiguration aReceiverCheckData;
-          if (sUrl != null && sUrl.startsWith ("https://ap-prod.example.org/as4"))
-          {
-            aReceiverCheckData = Phase4PeppolReceiverConfiguration.builder ()
-                                                                  .receiverCheckEnabled (true)
-                                                                  .serviceMetadataProvider (new SMPClientReadOnly (URLHelper.getAsURI ("http://smp-prod.example.org")))
-                                                                  .as4EndpointUrl ("https://ap-prod.example.org/as4")
-                                                                  .apCertificate (new CertificateDecodeHelper ().source ("....Public Prod AP Cert....")
-                                                                                                                .pemEncoded (true)
-                                                                                                                .getDecodedOrNull ())
-                                                                  .sbdhIdentifierFactoryPeppol ()
-                                                                  .performSBDHValueChecks (Phase4PeppolDefaultReceiverConfiguration.isPerformSBDHValueChecks ())
-                                                                  .checkSigningCertificateRevocation (Phase4PeppolDefaultReceiverConfiguration.isCheckSigningCertificateRevocation ())
-                                                                  .build ();
-          }
-          else
-          {
-            aReceiverCheckData = Phase4PeppolReceiverConfiguration.builder ()
-                                                                  .receiverCheckEnabled (true)
-                                                                  .serviceMetadataProvider (new SMPClientReadOnly (URLHelper.getAsURI ("http://smp-test.example.org")))
-                                                                  .as4EndpointUrl ("https://ap-test.example.org/as4")
-                                                                  .apCertificate (new CertificateDecodeHelper ().source ("....Public Test AP Cert....")
-                                                                                                                .pemEncoded (true)
-                                                                                                                .getDecodedOrNull ())
-                                                                  .sbdhIdentifierFactoryPeppol ()
-                                                                  .performSBDHValueChecks (Phase4PeppolDefaultReceiverConfiguration.isPerformSBDHValueChecks ())
-                                                                  .checkSigningCertificateRevocation (Phase4PeppolDefaultReceiverConfiguration.isCheckSigningCertificateRevocation ())
-                                                                  .build ();
-          }
-
-          // Find the right SPI handler
-          aRequestHandler.getProcessorOfType (Phase4PeppolServletMessageProcessorSPI.class)
-                         .setReceiverCheckData (aReceiverCheckData);
-        }
-
         if (false)
         {
           // Install a global consumer that is called every time an inbound message triggers an AS4
@@ -146,6 +95,8 @@ public class SpringBootAS4Servlet extends Phase4PeppolAS4Servlet
                                           @NonNull final AS4UnifiedResponse aUnifiedResponse,
                                           @NonNull final AS4RequestHandler aRequestHandler)
       {
+        SpringContextHolder.getBean (InboundMessageMetrics.class).requestFinished ();
+
         // Parent always last
         super.customizeAfterHandling (aRequestScope, aUnifiedResponse, aRequestHandler);
       }
@@ -0,0 +1,103 @@
+package com.mysupply.phase4.peppolstandalone.spi;
+
+import com.helger.phase4.config.AS4Configuration;
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentDomainsConfiguration;
+import com.mysupply.phase4.persistence.configuration.PeppolReceiverRoutingConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps the host name an inbound request was sent to onto the set of domains this access point serves, for the metric
+ * tags.
+ * <p>
+ * The host comes from a request header, so any sender can choose it. Documents are stored with the host as sent, so
+ * connectors keep finding them by host and the duplicate check keeps hosts apart. Only the metrics map it to a known
+ * domain or {@link #OTHER}, which keeps the number of tag values bounded.
+ */
+@Component
+public class KnownDomains {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KnownDomains.class);
+
+    /** The metric domain of every request to a host that is not known. */
+    public static final String OTHER = "other";
+
+    // By lower case host name, so hosts match regardless of case
+    private final Map<String, String> domainsByHost = new HashMap<>();
+
+    @Autowired
+    public KnownDomains(PeppolDocumentDomainsConfiguration configuration,
+                        PeppolReceiverRoutingConfiguration routingConfiguration) {
+        this(collectHosts(configuration, routingConfiguration));
+    }
+
+    /**
+     * Creates the mapping for a fixed set of host names.
+     */
+    public KnownDomains(Collection<String> hosts) {
+        for (String host : hosts) {
+            if (host != null && !host.isBlank()) {
+                this.domainsByHost.putIfAbsent(host.trim().toLowerCase(Locale.ROOT), host.trim());
+            }
+        }
+        LOGGER.info("Known inbound domains: {}", this.domainsByHost.values());
+    }
+
+    /**
+     * Returns the configured spelling of a known host, or {@link #OTHER}.
+     */
+    public String resolve(String host) {
+        if (host == null) {
+            return OTHER;
+        }
+        return this.domainsByHost.getOrDefault(host.trim().toLowerCase(Locale.ROOT), OTHER);
+    }
+
+    /**
+     * Returns the host name of a Host or X-Forwarded-Host header value: the first entry of a comma separated list,
+     * without the port. Returns null for a missing or blank value.
+     */
+    public static String normalizeHost(String headerValue) {
+        if (headerValue == null) {
+            return null;
+        }
+        String host = headerValue;
+        int comma = host.indexOf(',');
+        if (comma >= 0) {
+            host = host.substring(0, comma);
+        }
+        host = host.trim();
+        // An IPv6 literal keeps its brackets, only a port after them is removed
+        int portSeparator = host.startsWith("[") ? host.indexOf(':', host.indexOf(']') + 1) : host.indexOf(':');
+        if (portSeparator >= 0) {
+            host = host.substring(0, portSeparator);
+        }
+        return host.isEmpty() ? null : host;
+    }
+
+    private static List<String> collectHosts(PeppolDocumentDomainsConfiguration configuration,
+                                             PeppolReceiverRoutingConfiguration routingConfiguration) {
+        List<String> hosts = new ArrayList<>(configuration.getKnown());
+        String endpointAddress = AS4Configuration.getThisEndpointAddress();
+        if (endpointAddress != null) {
+            try {
+                hosts.add(URI.create(endpointAddress).getHost());
+            } catch (IllegalArgumentException ex) {
+                LOGGER.warn("Ignoring the unparsable endpoint address '{}'", endpointAddress);
+            }
+        }
+        for (PeppolReceiverRoutingConfiguration.Route route : routingConfiguration.getRoutes()) {
+            hosts.add(route.getHost());
+        }
+        return hosts;
+    }
+}
@@ -26,6 +26,7 @@ import com.mysupply.phase4.ICountryCodeMapper;
 import com.mysupply.phase4.domain.Document;
 import com.mysupply.phase4.peppolstandalone.APConfig;
 import com.mysupply.phase4.peppolstandalone.context.SpringContextHolder;
+import com.mysupply.phase4.peppolstandalone.metrics.InboundMessageMetrics;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
@@ -35,8 +36,6 @@ import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.stereotype.Component;
 import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
 import com.helger.peppol.reporting.api.PeppolReportingItem;
-import com.helger.peppol.reporting.api.backend.PeppolReportingBackend;
-import com.helger.peppol.reporting.api.backend.PeppolReportingBackendException;
 import com.helger.peppol.sbdh.PeppolSBDHData;
 import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
@@ -45,7 +44,8 @@ import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
 import com.helger.phase4.incoming.IAS4IncomingMessageState;
 import com.helger.phase4.peppol.servlet.IPhase4PeppolIncomingSBDHandlerSPI;
 import com.helger.phase4.peppol.servlet.Phase4PeppolServletMessageProcessorSPI;
-import com.mysupply.phase4.persistence.ISBDRepository;
+import com.mysupply.phase4.persistence.DocumentGroupCommitter;
+import com.mysupply.phase4.persistence.MetadataDictionary;
 
 import java.nio.charset.StandardCharsets;
 
@@ -60,7 +60,11 @@ import java.nio.charset.StandardCharsets;
 public class PeppolIncomingSBDHandlerSPI implements IPhase4PeppolIncomingSBDHandlerSPI {
     private static final Logger LOGGER = LoggerFactory.getLogger(PeppolIncomingSBDHandlerSPI.class);
 
-    private ISBDRepository sbdRepository;
+    private DocumentGroupCommitter documentGroupCommitter;
+
+    private MetadataDictionary metadataDictionary;
+
+    private InboundMessageMetrics inboundMessageMetrics;
 
     private ICountryCodeMapper countryCodeMapper;
 
@@ -89,6 +93,13 @@ public class PeppolIncomingSBDHandlerSPI implements IPhase4PeppolIncomingSBDHand
         // Ensure dependencies are autowired before use
         ensureAutowired();
 
+        // Everything phase4 did before calling this handler is recorded as the receive stage
+        final String metricDomain = this.GetDomain(aHeaders);
+        final String metricDocType = aPeppolSBD.getDocumentTypeAsIdentifier() != null
+            ? aPeppolSBD.getDocumentTypeAsIdentifier().getURIEncoded()
+            : null;
+        this.inboundMessageMetrics.messageReceived(metricDomain, metricDocType);
+
         final String sMyPeppolSeatID = APConfig.getMyPeppolSeatID ();
         try {
             // Example code snippets how to get data
@@ -116,11 +127,13 @@ public class PeppolIncomingSBDHandlerSPI implements IPhase4PeppolIncomingSBDHand
         }
 
         try {
+            long stageStart = System.nanoTime();
             String c1 = aPeppolSBD.getSenderAsIdentifier().getURIEncoded();
             String c4 = aPeppolSBD.getReceiverAsIdentifier().getURIEncoded();
             String docType = aPeppolSBD.getDocumentTypeAsIdentifier().getURIEncoded();
             String process = aPeppolSBD.getProcessAsIdentifier().getURIEncoded();
-            String domain = this.GetDomain(aHeaders);
+            // The host as sent, so documents to different hosts stay apart. Only the metric tags are bounded
+            String domain = GetDomain(aHeaders);
             String messageID = aUserMessage.getMessageInfo().getMessageId();
             String conversationID = aUserMessage.getCollaborationInfo().getConversationId(); //
             String senderCertificate = aIncomingState.getSigningCertificate() != null
@@ -133,54 +146,76 @@ public class PeppolIncomingSBDHandlerSPI implements IPhase4PeppolIncomingSBDHand
 
             String f = getEndpointUrl(aHeaders);
 
+            // The repeated metadata values are stored as dictionary keys, interning resolves them from the cache
             Document documentToStore = Document.builder()
                 .data(aSBDBytes)
-                .domain(domain)
+                .domain(this.metadataDictionary.intern(domain))
                 .senderIdentifier(c1)
                 .receiverIdentifier(c4)
-                .docType(docType)
-                .process(process)
+                .docType(this.metadataDictionary.intern(docType))
+                .process(this.metadataDictionary.intern(process))
                 .messageId(messageID)
                 .conversationId(conversationID)
-                .senderCertificate(senderCertificate)
-                .receiverCertificate(receiverCertificate)
-                .protocol(protocol)
+                .senderCertificate(this.metadataDictionary.intern(senderCertificate))
+                .receiverCertificate(this.metadataDictionary.intern(receiverCertificate))
+                .protocol(this.metadataDictionary.intern(protocol))
                 .dataSize(aSBDBytes.length)
                 .build();
 
-            this.sbdRepository.save(documentToStore);
-            LOGGER.info("SBD saved successfully");
+            this.inboundMessageMetrics.recordStage(InboundMessageMetrics.STAGE_METADATA, metricDomain, metricDocType, stageStart);
+
+            // The reporting item is committed together with the document, the outbox drainer stores it later
+            stageStart = System.nanoTime();
+            final PeppolReportingItem aReportingItem = this.createReportingItem(aUserMessage, aPeppolSBD, aIncomingState);
+            this.inboundMessageMetrics.recordStage(InboundMessageMetrics.STAGE_REPORTING, metricDomain, metricDocType, stageStart);
+
+            // Returns once the document is committed, possibly together with concurrent inbound documents
+            stageStart = System.nanoTime();
+            boolean stored = this.documentGroupCommitter.store(documentToStore, aReportingItem);
+            this.inboundMessageMetrics.recordStage(InboundMessageMetrics.STAGE_PERSISTENCE, metricDomain, metricDocType, stageStart);
+            if (stored) {
+                this.inboundMessageMetrics.recordOutcome(InboundMessageMetrics.OUTCOME_STORED, metricDomain, metricDocType);
+                LOGGER.info("SBD saved successfully");
+            } else {
+                // A redelivery of a message that is already stored, the sender still gets a receipt
+                this.inboundMessageMetrics.recordOutcome(InboundMessageMetrics.OUTCOME_DUPLICATE, metricDomain, metricDocType);
+                LOGGER.info("SBD with message ID '" + messageID + "' for domain '" + domain + "' was already stored, ignoring the duplicate");
+            }
         } catch (Exception ex) {
+            this.inboundMessageMetrics.recordOutcome(InboundMessageMetrics.OUTCOME_FAILED, metricDomain, metricDocType);
             LOGGER.error("Failed to save SBD", ex);
             throw new Exception("Failed to save SBD");
         }
+    }
+
+    @Nullable
+    private PeppolReportingItem createReportingItem(@NonNull final Ebms3UserMessage aUserMessage,
+                                                    @NonNull final PeppolSBDHData aPeppolSBD,
+                                                    @NonNull final IAS4IncomingMessageState aIncomingState) {
+        final boolean createPeppolReportingItem = AS4Configuration
+                .getConfig()
+                .getAsBoolean("peppol.createReportingItem");
+        if (!createPeppolReportingItem) {
+            return null;
+        }
 
-        new Thread(() -> {
-            final boolean createPeppolReportingItem = AS4Configuration
-                    .getConfig()
-                    .getAsBoolean("peppol.createReportingItem");
-
-            if (createPeppolReportingItem)
-                try {
-                    LOGGER.info("Creating Peppol Reporting Item and storing it");
-
-                    final String sC3ID = APConfig.getMyPeppolSeatID ();
-                    final String sC4CountryCode = this.countryCodeMapper.mapCountryCode(aPeppolSBD.getReceiverValue());
-                    final String sEndUserID = aPeppolSBD.getReceiverAsIdentifier().getURIEncoded();
-                    final PeppolReportingItem aReportingItem = Phase4PeppolServletMessageProcessorSPI.createPeppolReportingItemForReceivedMessage(aUserMessage,
-                            aPeppolSBD,
-                            aIncomingState,
-                            sC3ID,
-                            sC4CountryCode,
-                            sEndUserID);
-
-                    PeppolReportingBackend.withBackendDo(APConfig.getConfig(),
-                            aBackend -> aBackend.storeReportingItem(aReportingItem));
-                } catch (final PeppolReportingBackendException ex) {
-                    LOGGER.error("Failed to store Peppol Reporting Item", ex);
-                    // TODO improve error handling
-                }
-        }).start();
+        try {
+            LOGGER.info("Creating Peppol Reporting Item and adding it to the outbox");
+
+            final String sC3ID = APConfig.getMyPeppolSeatID ();
+            final String sC4CountryCode = this.countryCodeMapper.mapCountryCode(aPeppolSBD.getReceiverValue());
+            final String sEndUserID = aPeppolSBD.getReceiverAsIdentifier().getURIEncoded();
+            return Phase4PeppolServletMessageProcessorSPI.createPeppolReportingItemForReceivedMessage(aUserMessage,
+                    aPeppolSBD,
+                    aIncomingState,
+                    sC3ID,
+                    sC4CountryCode,
+                    sEndUserID);
+        } catch (final Exception ex) {
+            // A missing reporting item must not reject the inbound message
+            LOGGER.error("Failed to create Peppol Reporting Item", ex);
+            return null;
+        }
     }
 
     @Override
@@ -194,20 +229,19 @@ public class PeppolIncomingSBDHandlerSPI implements IPhase4PeppolIncomingSBDHand
             LOGGER.info ("  Response content: " + new String (aResponseBytes, StandardCharsets.UTF_8));
     }
 
-    private String GetDomain(HttpHeaderMap aHeaders)
+    /**
+     * Gets the host name the sender called, without the port. Behind a reverse proxy the first X-Forwarded-Host entry
+     * is used.
+     */
+    static String GetDomain(HttpHeaderMap aHeaders)
     {
-        String forwardedHost = aHeaders.getFirstHeaderValue("X-Forwarded-Host");
+        String forwardedHost = KnownDomains.normalizeHost(aHeaders.getFirstHeaderValue("X-Forwarded-Host"));
         if (forwardedHost != null) {
             return forwardedHost;
         }
 
-        String host = aHeaders.getFirstHeaderValue("host");
+        String host = KnownDomains.normalizeHost(aHeaders.getFirstHeaderValue("host"));
         if (host != null) {
-            if (host.contains(":"))
-            {
-                host = host.substring(0, host.indexOf(':'));
-            }
-
             return host;
         }
 
@@ -243,8 +277,18 @@ public class PeppolIncomingSBDHandlerSPI implements IPhase4PeppolIncomingSBDHand
     }
 
     @Autowired
-    private void setSbdRepository(ISBDRepository sbdRepository) {
-        this.sbdRepository = sbdRepository;
+    private void setDocumentGroupCommitter(DocumentGroupCommitter documentGroupCommitter) {
+        this.documentGroupCommitter = documentGroupCommitter;
+    }
+
+    @Autowired
+    private void setMetadataDictionary(MetadataDictionary metadataDictionary) {
+        this.metadataDictionary = metadataDictionary;
+    }
+
+    @Autowired
+    private void setInboundMessageMetrics(InboundMessageMetrics inboundMessageMetrics) {
+        this.inboundMessageMetrics = inboundMessageMetrics;
     }
 
     @Autowired
@@ -0,0 +1,25 @@
+package com.mysupply.phase4.persistence;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps payloads in the {@code document_payload} table, which is the default.
+ */
+@Component
+@ConditionalOnProperty(prefix = "peppol.documents.payload-store", name = "type", havingValue = "database", matchIfMissing = true)
+public class DatabaseDocumentPayloadStore implements IDocumentPayloadStore {
+    @Override
+    public List<DocumentPayloadPointer> writeAll(List<byte[]> payloads) {
+        return Collections.nCopies(payloads.size(), null);
+    }
+
+    @Override
+    public byte[] read(DocumentPayloadPointer pointer) {
+        throw new IllegalStateException("The payload is kept in " + pointer +
+                ", but the segment-file payload store is not configured");
+    }
+}
@@ -0,0 +1,97 @@
+package com.mysupply.phase4.persistence;
+
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveSearchSetting;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Leases pending documents to connectors, so that concurrent connectors with the same criteria receive disjoint sets.
+ * <p>
+ * A claim locks the oldest matching documents that are neither retrieved nor leased with {@code FOR UPDATE SKIP LOCKED}
+ * and sets their lease in the same statement. Documents locked by a concurrent claim are skipped instead of waited for.
+ * A lease ends with the confirmation of the document; if none arrives before the lease expires, the document can be
+ * claimed again.
+ */
+@Component
+public class DocumentClaimer {
+    private static final String TABLE = DocumentConstants.DOCUMENT_SCHEMA_NAME + "." + DocumentConstants.DOCUMENT_TABLE_NAME;
+
+    // An empty criteria array with the wildcard flag set matches everything. The ORDER BY follows the
+    // not retrieved search index, so the oldest candidates are read first
+    private static final String CLAIM_SQL = "WITH claimable AS (" +
+            "SELECT id FROM " + TABLE + " WHERE retrieved IS NULL" +
+            " AND (leased_until IS NULL OR leased_until < ?)" +
+            " AND (? OR sender_identifier = ANY (?))" +
+            " AND (? OR receiver_identifier = ANY (?))" +
+            " AND (? OR domain_id = ANY (?))" +
+            " ORDER BY created, id LIMIT ? FOR UPDATE SKIP LOCKED)" +
+            " UPDATE " + TABLE + " d SET leased_until = ?, leased_by_connector_id = ?" +
+            " FROM claimable c WHERE d.id = c.id RETURNING d.id, d.created";
+
+    private final DataSource dataSource;
+    private final MetadataDictionary metadataDictionary;
+
+    @Autowired
+    public DocumentClaimer(DataSource dataSource, MetadataDictionary metadataDictionary) {
+        this.dataSource = dataSource;
+        this.metadataDictionary = metadataDictionary;
+    }
+
+    /**
+     * Leases up to {@code limit} matching documents to the connector until {@code leasedUntil}.
+     *
+     * @return The IDs of the leased documents, oldest first.
+     */
+    public List<UUID> claim(RetrieveSearchSetting search, UUID connectorId, int limit, OffsetDateTime leasedUntil) throws SQLException {
+        List<String> senderIds = search.getSenderIdentifiers() != null ? search.getSenderIdentifiers() : List.of();
+        List<String> receiverIds = search.getReceiverIdentifiers() != null ? search.getReceiverIdentifiers() : List.of();
+        List<String> domains = search.getDomains() != null ? search.getDomains() : List.of();
+
+        // Unknown domains are mapped to a key no row has, so they match nothing
+        Integer[] domainIds = new Integer[domains.size()];
+        for (int i = 0; i < domains.size(); i++) {
+            domainIds[i] = this.metadataDictionary.findIdOrUnknown(domains.get(i));
+        }
+
+        List<DocumentOrderKey> claimed = new ArrayList<>();
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(CLAIM_SQL)) {
+            int index = 1;
+            statement.setObject(index++, OffsetDateTime.now(ZoneOffset.UTC));
+            statement.setBoolean(index++, search.isRetrieveFromAllSenders());
+            statement.setArray(index++, connection.createArrayOf("varchar", senderIds.toArray()));
+            statement.setBoolean(index++, search.isRetrieveFromAllReceivers());
+            statement.setArray(index++, connection.createArrayOf("varchar", receiverIds.toArray()));
+            statement.setBoolean(index++, search.isRetrieveFromAllDomains());
+            statement.setArray(index++, connection.createArrayOf("integer", domainIds));
+            statement.setInt(index++, limit);
+            statement.setObject(index++, leasedUntil);
+            statement.setObject(index++, connectorId);
+            // A single statement runs in its own transaction when auto-commit is on, the locks end with it
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    claimed.add(new DocumentOrderKey(resultSet.getObject(1, UUID.class), resultSet.getObject(2, OffsetDateTime.class)));
+                }
+            }
+        }
+
+        // RETURNING does not keep the order of the CTE
+        claimed.sort(DocumentOrderKey.RECEPTION_ORDER);
+        List<UUID> ids = new ArrayList<>(claimed.size());
+        for (DocumentOrderKey orderKey : claimed) {
+            ids.add(orderKey.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,92 @@
+package com.mysupply.phase4.persistence;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The encodings a stored document payload can have. The ID is stored in the {@code data_codec} column and matches
+ * the HTTP content coding of the same name, so compressed payloads can be handed to connectors unchanged.
+ */
+public enum DocumentCodec {
+    NONE("none"),
+    GZIP("gzip"),
+    ZSTD("zstd");
+
+    private final String id;
+
+    DocumentCodec(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the codec with the given ID. A null ID is treated as {@link #NONE}.
+     *
+     * @throws IllegalArgumentException if the ID is unknown.
+     */
+    public static DocumentCodec fromId(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        for (DocumentCodec codec : values()) {
+            if (codec.id.equalsIgnoreCase(id)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown document codec '" + id + "'");
+    }
+
+    public byte[] encode(byte[] data) {
+        if (this == NONE) {
+            return data;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (OutputStream out = this.wrapOutput(buffer)) {
+            out.write(data);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to encode document payload with " + this.id, ex);
+        }
+        return buffer.toByteArray();
+    }
+
+    public byte[] decode(byte[] data) {
+        if (this == NONE) {
+            return data;
+        }
+
+        try (InputStream in = this.wrapInput(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to decode document payload with " + this.id, ex);
+        }
+    }
+
+    private OutputStream wrapOutput(OutputStream out) throws IOException {
+        return switch (this) {
+            case NONE -> out;
+            case GZIP -> new GZIPOutputStream(out, 8192);
+            case ZSTD -> new ZstdOutputStream(out);
+        };
+    }
+
+    private InputStream wrapInput(InputStream in) throws IOException {
+        return switch (this) {
+            case NONE -> in;
+            case GZIP -> new GZIPInputStream(in, 8192);
+            case ZSTD -> new ZstdInputStream(in);
+        };
+    }
+}
@@ -0,0 +1,105 @@
+package com.mysupply.phase4.persistence;
+
+import com.mysupply.phase4.peppolstandalone.dto.ConfirmSetting;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Marks documents as retrieved with one set-based update per batch, without loading the documents or their payloads.
+ */
+@Component
+public class DocumentConfirmationWriter {
+    /** Confirmations per statement, well below the bind parameter limit of PostgreSQL. */
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+
+    private final DataSource dataSource;
+
+    @Autowired
+    public DocumentConfirmationWriter(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Sets the retrieval columns of all confirmed documents in one transaction. All documents get the same retrieval
+     * time. Confirmations without a document ID are ignored.
+     *
+     * @return The IDs of the documents that exist and were updated.
+     */
+    public Set<UUID> confirm(List<ConfirmSetting> confirmations) throws SQLException {
+        List<ConfirmSetting> valid = confirmations.stream()
+                .filter(confirmation -> confirmation != null && confirmation.getDocumentId() != null)
+                .toList();
+        if (valid.isEmpty()) {
+            return Set.of();
+        }
+
+        OffsetDateTime retrieved = OffsetDateTime.now(ZoneOffset.UTC);
+        Set<UUID> confirmedIds = new HashSet<>();
+        try (Connection connection = this.dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                for (int from = 0; from < valid.size(); from += MAX_ROWS_PER_STATEMENT) {
+                    List<ConfirmSetting> chunk = valid.subList(from, Math.min(valid.size(), from + MAX_ROWS_PER_STATEMENT));
+                    confirmedIds.addAll(this.confirmChunk(connection, chunk, retrieved));
+                }
+                connection.commit();
+                return confirmedIds;
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private Set<UUID> confirmChunk(Connection connection, List<ConfirmSetting> confirmations, OffsetDateTime retrieved) throws SQLException {
+        Set<UUID> confirmedIds = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(buildUpdate(confirmations.size()))) {
+            int index = 1;
+            statement.setObject(index++, retrieved);
+            for (ConfirmSetting confirmation : confirmations) {
+                statement.setObject(index++, confirmation.getDocumentId(), Types.OTHER);
+                statement.setString(index++, confirmation.getInstanceName());
+                statement.setObject(index++, confirmation.getConnectorId(), Types.OTHER);
+                statement.setString(index++, confirmation.getConnectorName());
+                statement.setObject(index++, confirmation.getVaxId(), Types.OTHER);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    confirmedIds.add(resultSet.getObject(1, UUID.class));
+                }
+            }
+        }
+        return confirmedIds;
+    }
+
+    private static String buildUpdate(int rowCount) {
+        // The casts type the VALUES columns, a null in the first row would otherwise be text
+        String rowPlaceholders = "(CAST(? AS uuid), CAST(? AS text), CAST(? AS uuid), CAST(? AS text), CAST(? AS uuid))";
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("UPDATE ").append(DocumentConstants.DOCUMENT_SCHEMA_NAME).append('.').append(DocumentConstants.DOCUMENT_TABLE_NAME).append(" d");
+        sql.append(" SET retrieved = ?, retrieved_by_instance_name = v.instance_name, retrieved_by_connector_id = v.connector_id,");
+        sql.append(" retrieved_by_connector_name = v.connector_name, vax_id = v.vax_id");
+        sql.append(" FROM (VALUES ").append(String.join(", ", Collections.nCopies(rowCount, rowPlaceholders))).append(')');
+        sql.append(" AS v (id, instance_name, connector_id, connector_name, vax_id)");
+        sql.append(" WHERE d.id = v.id RETURNING d.id");
+        return sql.toString();
+    }
+}
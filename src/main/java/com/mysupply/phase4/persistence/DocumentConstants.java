@@ -3,6 +3,17 @@ package com.mysupply.phase4.persistence;
 public class DocumentConstants {
     public static final String DOCUMENT_TABLE_NAME = "document";
     public static final String DOCUMENT_SCHEMA_NAME = "phase4_documents";
+    /** Table name for the dictionary of repeated metadata values, referenced from documents by integer key. */
+    public static final String METADATA_DICTIONARY_TABLE_NAME = "metadata_dictionary";
+    /** Table name for payloads shared by documents with identical content. */
+    public static final String DOCUMENT_PAYLOAD_TABLE_NAME = "document_payload";
+    /** Table name for Peppol reporting items that are waiting to be stored in the reporting backend. */
+    public static final String REPORTING_ITEM_OUTBOX_TABLE_NAME = "reporting_item_outbox";
+
+    /** Number of documents fetched per round trip when documents are streamed through a cursor. */
+    public static final String STREAM_FETCH_SIZE = "50";
+    /** Maximum number of document IDs bound to one query, well below the bind parameter limit of PostgreSQL. */
+    public static final int MAX_IDS_PER_QUERY = 1000;
 
     /** Table name for the Peppol stored-reports table, as created by the peppol-reporting-support Flyway migration. */
     public static final String PEPPOL_REPORT_TABLE_NAME = "peppol_report";
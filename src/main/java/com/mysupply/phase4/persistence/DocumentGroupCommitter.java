@@ -0,0 +1,457 @@
+package com.mysupply.phase4.persistence;
+
+import com.helger.peppol.reporting.api.PeppolReportingItem;
+import com.mysupply.phase4.domain.Document;
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentsIngestConfiguration;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Group-commit stage for inbound documents.
+ * <p>
+ * Inbound AS4 requests hand their {@link Document} to {@link #store(Document, PeppolReportingItem)} and block until the row is durable.
+ * Writer threads drain the queue, write up to {@code batchSize} documents with one multi-row insert, commit once,
+ * and then release every waiting request of that batch. This turns one commit per message into one commit per batch
+ * when many messages arrive at the same time, while a single message is delayed by at most the linger time.
+ * A batch that fails with a data or constraint error is split in halves that are committed separately, so only the
+ * document that caused the failure is rejected. Any other failure, such as a lost connection, fails the whole batch at
+ * once, as retrying it piece by piece would only stall the writer. Documents whose caller already timed out are not
+ * written anymore.
+ * <p>
+ * Inserts are idempotent on domain and message ID. A redelivered message is answered from an in-memory
+ * recently-seen filter when possible, otherwise the database skips it.
+ * <p>
+ * Documents at or above the streaming threshold skip the queue. They are streamed to the database in their own
+ * transaction by the calling thread, so a few large payloads neither inflate a shared batch nor delay small documents.
+ */
+@Component
+public class DocumentGroupCommitter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentGroupCommitter.class);
+    private static final String METRIC_PREFIX = "phase4.documents.groupcommit";
+    /** The Spring Boot switch that also moves the servlet container and the scheduler to virtual threads. */
+    private static final String VIRTUAL_THREADS_PROPERTY = "spring.threads.virtual.enabled";
+
+    private final DocumentJdbcWriter documentJdbcWriter;
+    private final PeppolDocumentsIngestConfiguration configuration;
+    private final MeterRegistry meterRegistry;
+
+    private DocumentCodec codec = DocumentCodec.NONE;
+    private BlockingQueue<PendingDocument> queue;
+    private final List<Thread> writerThreads = new ArrayList<>();
+    private volatile boolean running;
+    private final boolean virtualThreads;
+
+    private Counter documentsCounter;
+    private Counter batchesCounter;
+    private Counter failedBatchesCounter;
+    private Counter rejectedCounter;
+    private Counter abandonedCounter;
+    private Counter streamedCounter;
+    private Counter filteredDuplicatesCounter;
+    private Counter databaseDuplicatesCounter;
+    private Cache<String, Boolean> recentlySeen;
+    private DistributionSummary batchSizeSummary;
+    private Timer commitTimer;
+    private Timer waitTimer;
+
+    @Autowired
+    public DocumentGroupCommitter(DocumentJdbcWriter documentJdbcWriter,
+                                  PeppolDocumentsIngestConfiguration configuration,
+                                  MeterRegistry meterRegistry,
+                                  Environment environment) {
+        this.documentJdbcWriter = documentJdbcWriter;
+        this.configuration = configuration;
+        this.meterRegistry = meterRegistry;
+        this.virtualThreads = environment.getProperty(VIRTUAL_THREADS_PROPERTY, Boolean.class, false);
+    }
+
+    @PostConstruct
+    public void start() {
+        this.codec = DocumentCodec.fromId(this.configuration.getCodec());
+
+        this.documentsCounter = Counter.builder(METRIC_PREFIX + ".documents")
+                .description("Number of inbound documents committed")
+                .register(this.meterRegistry);
+        this.batchesCounter = Counter.builder(METRIC_PREFIX + ".batches")
+                .description("Number of committed batches")
+                .register(this.meterRegistry);
+        this.failedBatchesCounter = Counter.builder(METRIC_PREFIX + ".batches.failed")
+                .description("Number of batches that failed to commit")
+                .register(this.meterRegistry);
+        this.rejectedCounter = Counter.builder(METRIC_PREFIX + ".rejected")
+                .description("Number of documents rejected because the queue was full")
+                .register(this.meterRegistry);
+        this.abandonedCounter = Counter.builder(METRIC_PREFIX + ".abandoned")
+                .description("Number of queued documents not written because their caller had timed out")
+                .register(this.meterRegistry);
+        this.streamedCounter = Counter.builder(METRIC_PREFIX + ".streamed")
+                .description("Number of large documents streamed in their own transaction")
+                .register(this.meterRegistry);
+        this.filteredDuplicatesCounter = Counter.builder("phase4.documents.duplicates")
+                .description("Number of redelivered documents that were not stored again")
+                .tag("source", "filter")
+                .register(this.meterRegistry);
+        this.databaseDuplicatesCounter = Counter.builder("phase4.documents.duplicates")
+                .description("Number of redelivered documents that were not stored again")
+                .tag("source", "database")
+                .register(this.meterRegistry);
+        this.recentlySeen = Caffeine.newBuilder()
+                .maximumSize(Math.max(0, this.configuration.getRecentlySeenMaxEntries()))
+                .expireAfterWrite(Duration.ofSeconds(Math.max(1, this.configuration.getRecentlySeenTtlSeconds())))
+                .build();
+        this.batchSizeSummary = DistributionSummary.builder(METRIC_PREFIX + ".batch.size")
+                .description("Number of documents per committed batch")
+                .register(this.meterRegistry);
+        this.commitTimer = Timer.builder(METRIC_PREFIX + ".commit")
+                .description("Time to insert and commit one batch")
+                .register(this.meterRegistry);
+        this.waitTimer = Timer.builder(METRIC_PREFIX + ".wait")
+                .description("Time from enqueueing a document until it is durable")
+                .register(this.meterRegistry);
+
+        if (!this.configuration.isGroupCommitEnabled()) {
+            LOGGER.info("Group commit of inbound documents is disabled, each document is committed on its own");
+            return;
+        }
+
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, this.configuration.getQueueCapacity()));
+        Gauge.builder(METRIC_PREFIX + ".queue.depth", this.queue, BlockingQueue::size)
+                .description("Number of documents waiting to be committed")
+                .register(this.meterRegistry);
+
+        this.running = true;
+        int threadCount = Math.max(1, this.configuration.getWriterThreads());
+        for (int i = 0; i < threadCount; i++) {
+            // The writers spend most of their time waiting for the database, virtual threads release their carrier meanwhile
+            Thread thread = this.virtualThreads
+                    ? Thread.ofVirtual().name("phase4-document-writer-" + i).start(this::runWriter)
+                    : Thread.ofPlatform().name("phase4-document-writer-" + i).daemon(true).start(this::runWriter);
+            this.writerThreads.add(thread);
+        }
+        LOGGER.info("Group commit of inbound documents started with {} {} writer thread(s), batch size {}, linger {} ms",
+                threadCount, this.virtualThreads ? "virtual" : "platform", this.getEffectiveBatchSize(), this.configuration.getLingerMillis());
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.running = false;
+        for (Thread thread : this.writerThreads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.writerThreads.clear();
+
+        if (this.queue != null) {
+            List<PendingDocument> remaining = new ArrayList<>();
+            this.queue.drainTo(remaining);
+            for (PendingDocument pending : remaining) {
+                pending.future.completeExceptionally(new IllegalStateException("The document writer was shut down"));
+            }
+        }
+    }
+
+    /**
+     * Stores the document and returns once it is committed. The payload is hashed for deduplication and compressed
+     * with the configured codec first, in the calling thread.
+     *
+     * @param document      The document to store. Its ID is assigned when it does not have one yet.
+     * @param reportingItem The Peppol reporting item to add to the outbox in the same transaction. May be null.
+     *                      It is dropped together with a duplicate document.
+     * @return True if the document was stored, false if a document with the same domain and message ID was already
+     * stored.
+     * @throws IllegalStateException if the document could not be stored.
+     */
+    public boolean store(Document document, PeppolReportingItem reportingItem) {
+        String messageKey = getMessageKey(document);
+        if (messageKey != null && this.recentlySeen.getIfPresent(messageKey) != null) {
+            this.filteredDuplicatesCounter.increment();
+            return false;
+        }
+
+        this.encodePayload(document);
+
+        boolean inserted;
+        long streamingThreshold = this.configuration.getStreamingThresholdBytes();
+        if (streamingThreshold > 0 && document.getData().length >= streamingThreshold) {
+            inserted = this.storeStreaming(document, reportingItem);
+        } else if (this.queue == null) {
+            inserted = this.storeDirectly(document, reportingItem);
+        } else {
+            inserted = this.storeQueued(document, reportingItem);
+        }
+
+        if (!inserted) {
+            this.databaseDuplicatesCounter.increment();
+        }
+        if (messageKey != null) {
+            // Committed either way, so later redeliveries can be answered without a database round trip
+            this.recentlySeen.put(messageKey, Boolean.TRUE);
+        }
+        return inserted;
+    }
+
+    private boolean storeQueued(Document document, PeppolReportingItem reportingItem) {
+        PendingDocument pending = new PendingDocument(document, reportingItem);
+        if (!this.queue.offer(pending)) {
+            this.rejectedCounter.increment();
+            throw new IllegalStateException("The document write queue is full (" + this.configuration.getQueueCapacity() + " entries)");
+        }
+
+        try {
+            return pending.future.get(this.configuration.getCommitTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            pending.future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the document to be committed", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Failed to commit the document", ex.getCause());
+        } catch (TimeoutException ex) {
+            // The sender is told about the failure and redelivers, so a writer that has not started on the document
+            // skips it. One that has may still commit it, the redelivery is then a duplicate
+            pending.future.cancel(false);
+            throw new IllegalStateException("Timed out waiting for the document to be committed", ex);
+        }
+    }
+
+    private static String getMessageKey(Document document) {
+        if (document.getMessageId() == null) {
+            return null;
+        }
+        return document.getDomain() + '\n' + document.getMessageId();
+    }
+
+    private void encodePayload(Document document) {
+        byte[] data = document.getData();
+        // Hash the decoded payload, so identical payloads match whatever codec was configured when they arrived.
+        // Inline payloads are hashed too, so downloads get their ETag without reading the payload
+        if (this.configuration.isDeduplicatePayloads()) {
+            document.setPayloadHash(sha256Hex(data));
+        } else {
+            document.setDataHash(sha256Hex(data));
+        }
+        if (this.codec == DocumentCodec.NONE || data.length < this.configuration.getCompressionMinBytes()) {
+            return;
+        }
+        document.setData(this.codec.encode(data));
+        document.setDataCodec(this.codec.getId());
+    }
+
+    /**
+     * Returns the payload hash of decoded payload data, as stored in {@code payload_hash} and {@code data_hash}.
+     */
+    public static String sha256Hex(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private boolean storeDirectly(Document document, PeppolReportingItem reportingItem) {
+        Timer.Sample sample = Timer.start(this.meterRegistry);
+        Set<UUID> insertedIds;
+        try {
+            insertedIds = this.documentJdbcWriter.insert(List.of(document), Collections.singletonList(reportingItem));
+        } catch (Exception ex) {
+            this.failedBatchesCounter.increment();
+            throw new IllegalStateException("Failed to commit the document", ex);
+        } finally {
+            sample.stop(this.commitTimer);
+        }
+        this.batchesCounter.increment();
+        this.documentsCounter.increment();
+        this.batchSizeSummary.record(1);
+        return insertedIds.contains(document.getId());
+    }
+
+    private boolean storeStreaming(Document document, PeppolReportingItem reportingItem) {
+        Timer.Sample sample = Timer.start(this.meterRegistry);
+        boolean inserted;
+        try {
+            inserted = this.documentJdbcWriter.insertStreaming(document,
+                    new ByteArrayInputStream(document.getData()),
+                    document.getData().length,
+                    reportingItem);
+        } catch (Exception ex) {
+            this.failedBatchesCounter.increment();
+            throw new IllegalStateException("Failed to commit the document", ex);
+        } finally {
+            sample.stop(this.commitTimer);
+        }
+        this.streamedCounter.increment();
+        this.documentsCounter.increment();
+        return inserted;
+    }
+
+    private int getEffectiveBatchSize() {
+        return Math.max(1, Math.min(this.configuration.getBatchSize(), DocumentJdbcWriter.getMaxBatchSize()));
+    }
+
+    private void runWriter() {
+        int batchSize = this.getEffectiveBatchSize();
+        long lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, this.configuration.getLingerMillis()));
+        List<PendingDocument> batch = new ArrayList<>(batchSize);
+
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                PendingDocument first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, batchSize - batch.size());
+
+                // Wait a little for concurrent requests to join this batch
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingDocument next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    this.queue.drainTo(batch, batchSize - batch.size());
+                }
+
+                this.commitBatch(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException ex) {
+                LOGGER.error("Unexpected error in document writer", ex);
+            } finally {
+                for (PendingDocument pending : batch) {
+                    // Never leave a caller waiting, whatever happened above
+                    pending.future.completeExceptionally(new IllegalStateException("The document was not committed"));
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void commitBatch(List<PendingDocument> queued) {
+        List<PendingDocument> batch = new ArrayList<>(queued.size());
+        for (PendingDocument pending : queued) {
+            if (pending.future.isCancelled()) {
+                this.abandonedCounter.increment();
+            } else {
+                batch.add(pending);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Document> documents = new ArrayList<>(batch.size());
+        List<PeppolReportingItem> reportingItems = new ArrayList<>(batch.size());
+        for (PendingDocument pending : batch) {
+            documents.add(pending.document);
+            reportingItems.add(pending.reportingItem);
+        }
+
+        Timer.Sample sample = Timer.start(this.meterRegistry);
+        Set<UUID> insertedIds;
+        try {
+            insertedIds = this.documentJdbcWriter.insert(documents, reportingItems);
+        } catch (Exception ex) {
+            sample.stop(this.commitTimer);
+            this.failedBatchesCounter.increment();
+            if (batch.size() > 1 && isDataError(ex)) {
+                // One bad document must not fail the documents of other senders, so the halves are committed on their
+                // own until the bad document is alone
+                LOGGER.warn("Failed to commit a batch of {} document(s), retrying it in halves", batch.size(), ex);
+                int middle = batch.size() / 2;
+                this.commitBatch(batch.subList(0, middle));
+                this.commitBatch(batch.subList(middle, batch.size()));
+                return;
+            }
+            LOGGER.error("Failed to commit {} document(s)", batch.size(), ex);
+            for (PendingDocument pending : batch) {
+                pending.future.completeExceptionally(ex);
+            }
+            return;
+        }
+        sample.stop(this.commitTimer);
+
+        this.batchesCounter.increment();
+        this.documentsCounter.increment(batch.size());
+        this.batchSizeSummary.record(batch.size());
+
+        long now = System.nanoTime();
+        for (PendingDocument pending : batch) {
+            this.waitTimer.record(now - pending.enqueuedNanos, TimeUnit.NANOSECONDS);
+            pending.future.complete(insertedIds.contains(pending.document.getId()));
+        }
+    }
+
+    /**
+     * Returns true if the failure was caused by the content of a document (SQLState class 22 or 23), which a smaller
+     * batch without that document avoids.
+     */
+    static boolean isDataError(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLDataException || cause instanceof SQLIntegrityConstraintViolationException) {
+                return true;
+            }
+            if (cause instanceof SQLException sqlException) {
+                for (SQLException next = sqlException; next != null; next = next.getNextException()) {
+                    String sqlState = next.getSQLState();
+                    if (sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final class PendingDocument {
+        private final Document document;
+        private final PeppolReportingItem reportingItem;
+        private final long enqueuedNanos = System.nanoTime();
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private PendingDocument(Document document, PeppolReportingItem reportingItem) {
+            this.document = document;
+            this.reportingItem = reportingItem;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.mysupply.phase4.persistence;
+
+import com.helger.peppol.reporting.api.PeppolReportingItem;
+import com.mysupply.phase4.domain.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Writes inbound documents with plain JDBC, so that many documents can share one multi-row insert
+ * and one commit instead of paying for a transaction each.
+ */
+@Component
+public class DocumentJdbcWriter {
+    /** PostgreSQL accepts at most this many bind parameters in one statement. */
+    private static final int MAX_BIND_PARAMETERS = 32767;
+
+    private static final String[] DOCUMENT_COLUMNS = {
+            "id", "data", "data_size", "created", "domain_id", "sender_identifier", "receiver_identifier",
+            "doc_type_id", "process_id", "sender_certificate_id", "receiver_certificate_id", "protocol_id",
+            "conversation_id", "message_id", "data_codec", "payload_hash", "data_hash"
+    };
+
+    private final DataSource dataSource;
+    private final ReportingItemOutbox reportingItemOutbox;
+    private final DocumentPayloadWriter documentPayloadWriter;
+    private final MetadataDictionary metadataDictionary;
+    private final DocumentNotifications documentNotifications;
+
+    @Autowired
+    public DocumentJdbcWriter(DataSource dataSource,
+                              ReportingItemOutbox reportingItemOutbox,
+                              DocumentPayloadWriter documentPayloadWriter,
+                              MetadataDictionary metadataDictionary,
+                              DocumentNotifications documentNotifications) {
+        this.dataSource = dataSource;
+        this.reportingItemOutbox = reportingItemOutbox;
+        this.documentPayloadWriter = documentPayloadWriter;
+        this.metadataDictionary = metadataDictionary;
+        this.documentNotifications = documentNotifications;
+    }
+
+    /**
+     * Returns the largest number of documents that fit into one multi-row insert.
+     */
+    public static int getMaxBatchSize() {
+        return MAX_BIND_PARAMETERS / DOCUMENT_COLUMNS.length;
+    }
+
+    /**
+     * Inserts all documents and their reporting items in one transaction. When this method returns, all rows are
+     * committed. Documents without an ID are assigned a new random ID.
+     * <p>
+     * A document whose domain and message ID are already stored is skipped together with its reporting item.
+     * Documents with a payload hash share their payload through the payload table, which is only written when the
+     * hash is not stored yet. A notification about each inserted document is delivered to listeners on commit.
+     *
+     * @param reportingItems The reporting item of each document, at the same position. Entries may be null.
+     * @return The IDs of the documents that were inserted.
+     */
+    public Set<UUID> insert(List<Document> documents, List<PeppolReportingItem> reportingItems) throws SQLException {
+        if (documents.isEmpty()) {
+            return Set.of();
+        }
+
+        try (Connection connection = this.dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                Set<UUID> insertedIds = this.insertDocuments(connection, documents);
+
+                List<Document> insertedDocuments = new ArrayList<>(insertedIds.size());
+                List<PeppolReportingItem> insertedReportingItems = new ArrayList<>(insertedIds.size());
+                for (int i = 0; i < documents.size(); i++) {
+                    if (insertedIds.contains(documents.get(i).getId())) {
+                        insertedDocuments.add(documents.get(i));
+                        if (reportingItems.get(i) != null) {
+                            insertedReportingItems.add(reportingItems.get(i));
+                        }
+                    }
+                }
+
+                // The payload foreign key is deferred, so the payloads can follow the documents that need them
+                this.storePayloads(connection, insertedDocuments);
+                this.reportingItemOutbox.insert(connection, insertedReportingItems);
+                this.documentNotifications.publish(connection, insertedDocuments);
+                connection.commit();
+                return insertedIds;
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Inserts a single document whose payload is read from {@code data} while it is sent to the database, so the
+     * driver does not build another copy of the payload. The {@code data} field of the document is ignored.
+     * When the document has a payload hash, {@code data} is not used: the payload is written from the document's data
+     * through the payload store, and only if it is not stored yet.
+     * The reporting item and the notification about the document are committed in the same transaction.
+     *
+     * @param reportingItem The reporting item of the document. May be null.
+     * @return True if the document was inserted, false if its domain and message ID were already stored.
+     */
+    public boolean insertStreaming(Document document, InputStream data, long dataSize,
+                                   PeppolReportingItem reportingItem) throws SQLException {
+        try (Connection connection = this.dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                boolean inline = document.getPayloadHash() == null;
+                boolean inserted;
+                try (PreparedStatement statement = connection.prepareStatement(buildMultiRowInsert(1))) {
+                    if (document.getId() == null) {
+                        document.setId(UUID.randomUUID());
+                    }
+                    statement.setObject(1, document.getId());
+                    if (inline) {
+                        statement.setBinaryStream(2, data, dataSize);
+                    } else {
+                        statement.setNull(2, Types.BINARY);
+                    }
+                    this.bindMetadata(statement, 3, document);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        inserted = resultSet.next();
+                    }
+                }
+
+                if (inserted) {
+                    if (!inline && this.documentPayloadWriter.addReferences(connection, Map.of(document.getPayloadHash(), 1)).isEmpty()) {
+                        this.documentPayloadWriter.insertAll(connection, List.of(document), List.of(1));
+                    }
+                    if (reportingItem != null) {
+                        this.reportingItemOutbox.insert(connection, List.of(reportingItem));
+                    }
+                    this.documentNotifications.publish(connection, List.of(document));
+                }
+                connection.commit();
+                return inserted;
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private Set<UUID> insertDocuments(Connection connection, List<Document> documents) throws SQLException {
+        Set<UUID> insertedIds = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(buildMultiRowInsert(documents.size()))) {
+            int index = 1;
+            for (Document document : documents) {
+                if (document.getId() == null) {
+                    document.setId(UUID.randomUUID());
+                }
+                statement.setObject(index++, document.getId());
+                if (document.getPayloadHash() == null) {
+                    statement.setBytes(index++, document.getData());
+                } else {
+                    statement.setNull(index++, Types.BINARY);
+                }
+                index = this.bindMetadata(statement, index, document);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    insertedIds.add(resultSet.getObject(1, UUID.class));
+                }
+            }
+        }
+        return insertedIds;
+    }
+
+    private void storePayloads(Connection connection, List<Document> documents) throws SQLException {
+        Map<String, List<Document>> documentsByHash = new LinkedHashMap<>();
+        for (Document document : documents) {
+            if (document.getPayloadHash() != null) {
+                documentsByHash.computeIfAbsent(document.getPayloadHash(), hash -> new ArrayList<>()).add(document);
+            }
+        }
+        if (documentsByHash.isEmpty()) {
+            return;
+        }
+
+        Map<String, Integer> references = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Document>> entry : documentsByHash.entrySet()) {
+            references.put(entry.getKey(), entry.getValue().size());
+        }
+        Set<String> existing = this.documentPayloadWriter.addReferences(connection, references);
+
+        List<Document> newPayloads = new ArrayList<>();
+        List<Integer> newReferences = new ArrayList<>();
+        for (Map.Entry<String, List<Document>> entry : documentsByHash.entrySet()) {
+            if (!existing.contains(entry.getKey())) {
+                newPayloads.add(entry.getValue().get(0));
+                newReferences.add(entry.getValue().size());
+            }
+        }
+        this.documentPayloadWriter.insertAll(connection, newPayloads, newReferences);
+    }
+
+    /**
+     * Binds all columns after {@code id} and {@code data}, starting at {@code index}. Dictionary-encoded values are
+     * bound as their keys.
+     *
+     * @return The next free parameter index.
+     */
+    private int bindMetadata(PreparedStatement statement, int index, Document document) throws SQLException {
+        statement.setLong(index++, document.getDataSize());
+        statement.setObject(index++, document.getCreated());
+        statement.setObject(index++, this.metadataDictionary.getId(document.getDomain()), Types.INTEGER);
+        statement.setString(index++, document.getSenderIdentifier());
+        statement.setString(index++, document.getReceiverIdentifier());
+        statement.setObject(index++, this.metadataDictionary.getId(document.getDocType()), Types.INTEGER);
+        statement.setObject(index++, this.metadataDictionary.getId(document.getProcess()), Types.INTEGER);
+        statement.setObject(index++, this.metadataDictionary.getId(document.getSenderCertificate()), Types.INTEGER);
+        statement.setObject(index++, this.metadataDictionary.getId(document.getReceiverCertificate()), Types.INTEGER);
+        statement.setObject(index++, this.metadataDictionary.getId(document.getProtocol()), Types.INTEGER);
+        statement.setString(index++, document.getConversationId());
+        statement.setString(index++, document.getMessageId());
+        statement.setString(index++, document.getDataCodec());
+        statement.setString(index++, document.getPayloadHash());
+        statement.setString(index++, document.getDataHash());
+        return index;
+    }
+
+    private static String buildMultiRowInsert(int rowCount) {
+        String rowPlaceholders = "(" + String.join(", ", Collections.nCopies(DOCUMENT_COLUMNS.length, "?")) + ")";
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(DocumentConstants.DOCUMENT_SCHEMA_NAME).append('.').append(DocumentConstants.DOCUMENT_TABLE_NAME);
+        sql.append(" (").append(String.join(", ", DOCUMENT_COLUMNS)).append(") VALUES ");
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(rowPlaceholders);
+        }
+        // A redelivered message is skipped, RETURNING only lists the rows that were inserted
+        sql.append(" ON CONFLICT (domain_id, message_id) DO NOTHING RETURNING id");
+        return sql.toString();
+    }
+}
@@ -0,0 +1,253 @@
+package com.mysupply.phase4.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mysupply.phase4.domain.Document;
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentNotificationConfiguration;
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentsJdbcConfiguration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Tells waiting retriever clients about new documents through PostgreSQL LISTEN/NOTIFY.
+ * <p>
+ * The document writer sends one notification per inserted document in the insert transaction, so PostgreSQL delivers
+ * it only after the commit. A background thread listens on its own connection, outside the pool, and passes every
+ * notification to the matching subscribers. Each delivery runs on its own thread, virtual when
+ * spring.threads.virtual.enabled is set and pooled platform threads otherwise, so a slow subscriber does not delay the
+ * others. Notifications sent while the listener reconnects are lost; clients that poll again after their
+ * wait times out still find those documents.
+ */
+@Component
+public class DocumentNotifications {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentNotifications.class);
+    private static final String CHANNEL = "phase4_document";
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final String VIRTUAL_THREADS_PROPERTY = "spring.threads.virtual.enabled";
+
+    private final PeppolDocumentNotificationConfiguration configuration;
+    private final PeppolDocumentsJdbcConfiguration jdbcConfiguration;
+    private final ObjectMapper objectMapper;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService deliveryExecutor;
+    private Thread listenerThread;
+    private volatile boolean running;
+
+    @Autowired
+    public DocumentNotifications(PeppolDocumentNotificationConfiguration configuration,
+                                 PeppolDocumentsJdbcConfiguration jdbcConfiguration,
+                                 ObjectMapper objectMapper,
+                                 Environment environment) {
+        this.configuration = configuration;
+        this.jdbcConfiguration = jdbcConfiguration;
+        this.objectMapper = objectMapper;
+        this.deliveryExecutor = environment.getProperty(VIRTUAL_THREADS_PROPERTY, Boolean.class, false)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newCachedThreadPool(Thread.ofPlatform().name("phase4-document-delivery-", 0).daemon(true).factory());
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!this.configuration.isEnabled()) {
+            return;
+        }
+        this.running = true;
+        this.listenerThread = Thread.ofPlatform().name("phase4-document-listener").daemon(true).start(this::runListener);
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.running = false;
+        if (this.listenerThread != null) {
+            this.listenerThread.interrupt();
+        }
+        this.deliveryExecutor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return this.configuration.isEnabled();
+    }
+
+    /**
+     * Queues one notification per document on the connection. They are delivered when its transaction commits.
+     */
+    void publish(Connection connection, List<Document> documents) throws SQLException {
+        if (!this.configuration.isEnabled() || documents.isEmpty()) {
+            return;
+        }
+
+        String[] payloads = new String[documents.size()];
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            try {
+                payloads[i] = this.objectMapper.writeValueAsString(new DocumentNotification(document.getId(),
+                        document.getDomain(), document.getSenderIdentifier(), document.getReceiverIdentifier()));
+            } catch (IOException ex) {
+                throw new SQLException("Failed to serialize the notification of document " + document.getId(), ex);
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, payload) FROM unnest(?) AS payload")) {
+            statement.setString(1, CHANNEL);
+            statement.setArray(2, connection.createArrayOf("text", payloads));
+            statement.execute();
+        }
+    }
+
+    /**
+     * Calls the consumer for every new document accepted by the filter, until the returned subscription is closed.
+     */
+    public Subscription subscribe(Predicate<DocumentNotification> filter, Consumer<DocumentNotification> consumer) {
+        Subscription subscription = new Subscription(filter, consumer);
+        this.subscriptions.add(subscription);
+        return subscription;
+    }
+
+    private void runListener() {
+        while (this.running) {
+            try (Connection connection = DriverManager.getConnection(this.jdbcConfiguration.getUrl(),
+                    this.jdbcConfiguration.getUsername(),
+                    this.jdbcConfiguration.getPassword())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                LOGGER.info("Listening for new documents on channel '{}'", CHANNEL);
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (this.running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            this.dispatch(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException ex) {
+                if (!this.running) {
+                    return;
+                }
+                LOGGER.warn("The document notification listener lost its connection, it reconnects in {} ms",
+                        this.configuration.getReconnectDelayMillis(), ex);
+                try {
+                    Thread.sleep(this.configuration.getReconnectDelayMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void dispatch(String payload) {
+        DocumentNotification notification;
+        try {
+            notification = this.objectMapper.readValue(payload, DocumentNotification.class);
+        } catch (IOException ex) {
+            LOGGER.warn("Ignoring an unreadable document notification '{}'", payload, ex);
+            return;
+        }
+        for (Subscription subscription : this.subscriptions) {
+            if (subscription.filter.test(notification)) {
+                this.deliveryExecutor.execute(() -> subscription.deliver(notification));
+            }
+        }
+    }
+
+    /**
+     * A new document, as sent by ingest.
+     */
+    public static final class DocumentNotification {
+        private UUID documentId;
+        private String domain;
+        private String senderIdentifier;
+        private String receiverIdentifier;
+
+        public DocumentNotification() {
+        }
+
+        public DocumentNotification(UUID documentId, String domain, String senderIdentifier, String receiverIdentifier) {
+            this.documentId = documentId;
+            this.domain = domain;
+            this.senderIdentifier = senderIdentifier;
+            this.receiverIdentifier = receiverIdentifier;
+        }
+
+        public UUID getDocumentId() {
+            return this.documentId;
+        }
+
+        public void setDocumentId(UUID documentId) {
+            this.documentId = documentId;
+        }
+
+        public String getDomain() {
+            return this.domain;
+        }
+
+        public void setDomain(String domain) {
+            this.domain = domain;
+        }
+
+        public String getSenderIdentifier() {
+            return this.senderIdentifier;
+        }
+
+        public void setSenderIdentifier(String senderIdentifier) {
+            this.senderIdentifier = senderIdentifier;
+        }
+
+        public String getReceiverIdentifier() {
+            return this.receiverIdentifier;
+        }
+
+        public void setReceiverIdentifier(String receiverIdentifier) {
+            this.receiverIdentifier = receiverIdentifier;
+        }
+    }
+
+    public final class Subscription implements AutoCloseable {
+        private final Predicate<DocumentNotification> filter;
+        private final Consumer<DocumentNotification> consumer;
+
+        private Subscription(Predicate<DocumentNotification> filter, Consumer<DocumentNotification> consumer) {
+            this.filter = filter;
+            this.consumer = consumer;
+        }
+
+        private void deliver(DocumentNotification notification) {
+            if (!DocumentNotifications.this.subscriptions.contains(this)) {
+                return;
+            }
+            try {
+                this.consumer.accept(notification);
+            } catch (RuntimeException ex) {
+                LOGGER.warn("A document notification subscriber failed", ex);
+            }
+        }
+
+        @Override
+        public void close() {
+            DocumentNotifications.this.subscriptions.remove(this);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.mysupply.phase4.persistence;
+
+import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * The ID and reception time of a document, used to order documents that are queried in several chunks.
+ */
+public final class DocumentOrderKey {
+    /**
+     * Orders documents by reception time, then by ID, as the document queries do. PostgreSQL compares UUIDs as unsigned
+     * bytes, while {@link UUID#compareTo} compares signed longs, so the IDs are compared unsigned here.
+     */
+    public static final Comparator<DocumentOrderKey> RECEPTION_ORDER = Comparator.comparing(DocumentOrderKey::getCreated)
+            .thenComparing(DocumentOrderKey::getId, DocumentOrderKey::compareUnsigned);
+
+    private final UUID id;
+    private final OffsetDateTime created;
+
+    public DocumentOrderKey(UUID id, OffsetDateTime created) {
+        this.id = id;
+        this.created = created;
+    }
+
+    public UUID getId() {
+        return this.id;
+    }
+
+    public OffsetDateTime getCreated() {
+        return this.created;
+    }
+
+    private static int compareUnsigned(UUID a, UUID b) {
+        int result = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return result != 0 ? result : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    }
+}
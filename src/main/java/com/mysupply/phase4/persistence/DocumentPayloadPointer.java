@@ -0,0 +1,33 @@
+package com.mysupply.phase4.persistence;
+
+/**
+ * The location of an encoded payload in a segment file of the {@link SegmentFileDocumentPayloadStore}.
+ */
+public final class DocumentPayloadPointer {
+    private final long segmentId;
+    private final long offset;
+    private final int length;
+
+    public DocumentPayloadPointer(long segmentId, long offset, int length) {
+        this.segmentId = segmentId;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getSegmentId() {
+        return this.segmentId;
+    }
+
+    public long getOffset() {
+        return this.offset;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    @Override
+    public String toString() {
+        return "segment " + this.segmentId + " @ " + this.offset + " (" + this.length + " bytes)";
+    }
+}
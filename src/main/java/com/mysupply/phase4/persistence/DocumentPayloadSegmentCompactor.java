@@ -0,0 +1,165 @@
+package com.mysupply.phase4.persistence;
+
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentPayloadStoreConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reclaims the space of deleted payloads in the segment files.
+ * <p>
+ * Segments whose share of live payloads dropped below the configured ratio are rewritten: their live payloads are
+ * appended to the active segment and the payload rows are pointed to the new location. A segment without live
+ * payloads is deleted once the grace period has passed, so reads that looked up the old location can still finish.
+ * Every segment below the active one is treated as sealed, which holds because the store locks the directory to a
+ * single instance.
+ */
+@Component
+@ConditionalOnProperty(prefix = "peppol.documents.payload-store", name = "type", havingValue = "segment-file")
+public class DocumentPayloadSegmentCompactor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentPayloadSegmentCompactor.class);
+    private static final String TABLE = DocumentConstants.DOCUMENT_SCHEMA_NAME + "." + DocumentConstants.DOCUMENT_PAYLOAD_TABLE_NAME;
+    private static final int MOVE_BATCH_SIZE = 500;
+
+    private final DataSource dataSource;
+    private final SegmentFileDocumentPayloadStore store;
+    private final PeppolDocumentPayloadStoreConfiguration configuration;
+    private final Counter reclaimedCounter;
+    // When each segment was first seen without live payloads
+    private final Map<Long, Long> emptySince = new HashMap<>();
+
+    @Autowired
+    public DocumentPayloadSegmentCompactor(DataSource dataSource,
+                                           SegmentFileDocumentPayloadStore store,
+                                           PeppolDocumentPayloadStoreConfiguration configuration,
+                                           MeterRegistry meterRegistry) {
+        this.dataSource = dataSource;
+        this.store = store;
+        this.configuration = configuration;
+        this.reclaimedCounter = Counter.builder("phase4.documents.payload.segments.reclaimed")
+                .description("Bytes of segment files deleted by the compaction job")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    // Runs are never concurrent, as fixed-delay tasks wait for the previous run
+    @Scheduled(fixedDelayString = "${peppol.documents.payload-store.compaction-interval-millis:3600000}",
+               initialDelayString = "${peppol.documents.payload-store.compaction-interval-millis:3600000}")
+    public void compact() {
+        try {
+            Map<Long, Long> liveBytes = this.loadLiveBytes();
+            long activeSegmentId = this.store.getActiveSegmentId();
+            long now = System.currentTimeMillis();
+
+            for (Map.Entry<Long, Long> segment : this.store.getSegmentSizes().entrySet()) {
+                long segmentId = segment.getKey();
+                long size = segment.getValue();
+                if (segmentId >= activeSegmentId) {
+                    continue;
+                }
+
+                long live = liveBytes.getOrDefault(segmentId, 0L);
+                if (live == 0) {
+                    long since = this.emptySince.computeIfAbsent(segmentId, id -> now);
+                    if (now - since >= this.configuration.getCompactionGraceMillis()) {
+                        this.store.deleteSegment(segmentId);
+                        this.emptySince.remove(segmentId);
+                        this.reclaimedCounter.increment(size);
+                        LOGGER.info("Deleted payload segment {} ({} bytes)", segmentId, size);
+                    }
+                } else if (live < size * this.configuration.getCompactionMinLiveRatio()) {
+                    int moved = this.moveLivePayloads(segmentId);
+                    LOGGER.info("Moved {} live payload(s) ({} of {} bytes) out of segment {}", moved, live, size, segmentId);
+                }
+            }
+        } catch (IOException | SQLException ex) {
+            LOGGER.error("Failed to compact the payload segments", ex);
+        }
+    }
+
+    private Map<Long, Long> loadLiveBytes() throws SQLException {
+        Map<Long, Long> liveBytes = new HashMap<>();
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT segment_id, SUM(segment_length) FROM " + TABLE +
+                     " WHERE segment_id IS NOT NULL GROUP BY segment_id");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                liveBytes.put(resultSet.getLong(1), resultSet.getLong(2));
+            }
+        }
+        return liveBytes;
+    }
+
+    /**
+     * Moves all live payloads of the segment to the active segment, in short transactions so that concurrent
+     * inbound documents referencing the same payloads are not blocked for long.
+     *
+     * @return The number of payloads moved.
+     */
+    private int moveLivePayloads(long segmentId) throws SQLException, IOException {
+        int moved = 0;
+        try (Connection connection = this.dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                while (true) {
+                    List<String> hashes = new ArrayList<>();
+                    List<byte[]> payloads = new ArrayList<>();
+                    try (PreparedStatement statement = connection.prepareStatement("SELECT hash, segment_offset, segment_length FROM " + TABLE +
+                            " WHERE segment_id = ? ORDER BY segment_offset LIMIT ? FOR UPDATE")) {
+                        statement.setLong(1, segmentId);
+                        statement.setInt(2, MOVE_BATCH_SIZE);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            while (resultSet.next()) {
+                                hashes.add(resultSet.getString(1));
+                                payloads.add(this.store.read(new DocumentPayloadPointer(segmentId, resultSet.getLong(2), resultSet.getInt(3))));
+                            }
+                        }
+                    }
+                    if (hashes.isEmpty()) {
+                        connection.commit();
+                        return moved;
+                    }
+
+                    // The payloads are durable in their new location before any row points there
+                    List<DocumentPayloadPointer> pointers = this.store.writeAll(payloads);
+                    try (PreparedStatement statement = connection.prepareStatement("UPDATE " + TABLE +
+                            " SET segment_id = ?, segment_offset = ?, segment_length = ? WHERE hash = ?")) {
+                        for (int i = 0; i < hashes.size(); i++) {
+                            DocumentPayloadPointer pointer = pointers.get(i);
+                            statement.setLong(1, pointer.getSegmentId());
+                            statement.setLong(2, pointer.getOffset());
+                            statement.setInt(3, pointer.getLength());
+                            statement.setString(4, hashes.get(i));
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+                    connection.commit();
+                    moved += hashes.size();
+                }
+            } catch (SQLException | IOException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.mysupply.phase4.persistence;
+
+import com.mysupply.phase4.domain.Document;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes and reference counts the shared payloads of deduplicated documents.
+ * <p>
+ * All methods use the caller's connection, so payload and document rows are committed together. References are
+ * released by a database trigger when a document row is deleted.
+ */
+@Component
+public class DocumentPayloadWriter {
+    private static final String TABLE = DocumentConstants.DOCUMENT_SCHEMA_NAME + "." + DocumentConstants.DOCUMENT_PAYLOAD_TABLE_NAME;
+
+    private static final String ADD_REFERENCES_SQL = "UPDATE " + TABLE + " p SET ref_count = p.ref_count + r.refs" +
+            " FROM (SELECT UNNEST(?::varchar[]) AS hash, UNNEST(?::bigint[]) AS refs) r" +
+            " WHERE p.hash = r.hash RETURNING p.hash";
+
+    // A concurrent writer may have stored the same payload since the references were added
+    private static final String INSERT_SQL = "INSERT INTO " + TABLE +
+            " (hash, data, data_codec, data_size, ref_count, created, segment_id, segment_offset, segment_length)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)" +
+            " ON CONFLICT (hash) DO UPDATE SET ref_count = " + DocumentConstants.DOCUMENT_PAYLOAD_TABLE_NAME + ".ref_count + EXCLUDED.ref_count";
+
+    private final IDocumentPayloadStore documentPayloadStore;
+    private final Counter storedCounter;
+    private final Counter deduplicatedCounter;
+
+    @Autowired
+    public DocumentPayloadWriter(IDocumentPayloadStore documentPayloadStore, MeterRegistry meterRegistry) {
+        this.documentPayloadStore = documentPayloadStore;
+        this.storedCounter = Counter.builder("phase4.documents.payload.stored")
+                .description("Number of payloads written to the shared payload table")
+                .register(meterRegistry);
+        this.deduplicatedCounter = Counter.builder("phase4.documents.payload.deduplicated")
+                .description("Number of documents whose payload was already stored")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Adds references to payloads that are already stored.
+     *
+     * @param references The number of new references per payload hash.
+     * @return The hashes that were found. Payloads for all other hashes still have to be inserted.
+     */
+    Set<String> addReferences(Connection connection, Map<String, Integer> references) throws SQLException {
+        String[] hashes = new String[references.size()];
+        Long[] counts = new Long[references.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : references.entrySet()) {
+            hashes[i] = entry.getKey();
+            counts[i] = (long) entry.getValue();
+            i++;
+        }
+
+        Set<String> existing = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(ADD_REFERENCES_SQL)) {
+            statement.setArray(1, connection.createArrayOf("varchar", hashes));
+            statement.setArray(2, connection.createArrayOf("bigint", counts));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString(1));
+                }
+            }
+        }
+
+        int deduplicated = 0;
+        for (String hash : existing) {
+            deduplicated += references.get(hash);
+        }
+        this.deduplicatedCounter.increment(deduplicated);
+        return existing;
+    }
+
+    /**
+     * Stores the encoded payloads of the documents, each with the number of references at the same position. The
+     * payload store decides whether the bytes go into the payload rows or only their locations. All payloads are
+     * handed to the store at once and the rows are inserted as one batch, so a batch of new payloads costs one sync
+     * and one round trip.
+     */
+    void insertAll(Connection connection, List<Document> documents, List<Integer> references) throws SQLException {
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        List<byte[]> payloads = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            payloads.add(document.getData());
+        }
+        List<DocumentPayloadPointer> pointers;
+        try {
+            pointers = this.documentPayloadStore.writeAll(payloads);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write " + documents.size() + " payload(s)", ex);
+        }
+
+        OffsetDateTime created = OffsetDateTime.now(ZoneOffset.UTC);
+        int referenceCount = 0;
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                DocumentPayloadPointer pointer = pointers.get(i);
+                statement.setString(1, document.getPayloadHash());
+                if (pointer == null) {
+                    statement.setBinaryStream(2, new ByteArrayInputStream(document.getData()), document.getData().length);
+                    statement.setNull(7, Types.BIGINT);
+                    statement.setNull(8, Types.BIGINT);
+                    statement.setNull(9, Types.INTEGER);
+                } else {
+                    statement.setNull(2, Types.BINARY);
+                    statement.setLong(7, pointer.getSegmentId());
+                    statement.setLong(8, pointer.getOffset());
+                    statement.setInt(9, pointer.getLength());
+                }
+                statement.setString(3, document.getDataCodec());
+                statement.setLong(4, document.getDataSize());
+                statement.setLong(5, references.get(i));
+                statement.setObject(6, created);
+                statement.addBatch();
+                referenceCount += references.get(i);
+            }
+            statement.executeBatch();
+        }
+        this.storedCounter.increment(documents.size());
+        // Further documents of the same batch share these payloads
+        this.deduplicatedCounter.increment(referenceCount - documents.size());
+    }
+}
@@ -0,0 +1,26 @@
+package com.mysupply.phase4.persistence;
+
+/**
+ * Identifies the stored content of a document: the SHA-256 hash of the decoded payload and the codec of the stored
+ * bytes. Both are read without loading the payload.
+ */
+public final class DocumentVersion {
+    private final String payloadHash;
+    private final String dataCodec;
+
+    public DocumentVersion(String payloadHash, String dataCodec) {
+        this.payloadHash = payloadHash;
+        this.dataCodec = dataCodec;
+    }
+
+    /**
+     * Returns null for compressed inline payloads stored before payloads were hashed at ingest.
+     */
+    public String getPayloadHash() {
+        return this.payloadHash;
+    }
+
+    public String getDataCodec() {
+        return this.dataCodec;
+    }
+}
@@ -0,0 +1,37 @@
+package com.mysupply.phase4.persistence;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Decides where the shared payloads of documents are kept.
+ * <p>
+ * The payload row in {@code document_payload} always exists, as it holds the hash, the codec and the reference count.
+ * A store either leaves the payload bytes in that row, or keeps them elsewhere and only returns a pointer that is
+ * recorded in the row instead.
+ */
+public interface IDocumentPayloadStore {
+    /**
+     * Writes an encoded payload. The write must be durable when this method returns, as the payload row pointing to
+     * it is committed right after.
+     *
+     * @return The location of the payload, or null when the payload is to be stored in the payload row itself.
+     */
+    default DocumentPayloadPointer write(byte[] data) throws IOException {
+        return this.writeAll(List.of(data)).get(0);
+    }
+
+    /**
+     * Writes several encoded payloads, such as the new payloads of one committed batch. All writes must be durable
+     * when this method returns, a store syncs them once instead of once per payload.
+     *
+     * @return The location of each payload, at the same position. An entry is null when that payload is to be stored
+     * in the payload row itself.
+     */
+    List<DocumentPayloadPointer> writeAll(List<byte[]> payloads) throws IOException;
+
+    /**
+     * Reads the encoded payload at the given location.
+     */
+    byte[] read(DocumentPayloadPointer pointer) throws IOException;
+}
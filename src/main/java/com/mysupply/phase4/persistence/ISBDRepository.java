@@ -1,30 +1,91 @@
 package com.mysupply.phase4.persistence;
 
 import com.mysupply.phase4.domain.Document;
+import com.mysupply.phase4.peppolstandalone.dto.DocumentCursor;
 import com.mysupply.phase4.peppolstandalone.dto.DocumentOverview;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface ISBDRepository extends JpaRepository<Document, UUID> {
-    // Find only document IDs by sender, receiver and domain that have not been retrieved
-    @Query("SELECT d.id FROM Document d WHERE d.retrieved IS NULL " +
+    // Find one page of not retrieved document IDs by sender, receiver and domain, in (created, id) order.
+    // The domains are converted to their metadata dictionary keys, unknown domains match nothing
+    @Query("SELECT new com.mysupply.phase4.peppolstandalone.dto.DocumentCursor(d.id, d.created) " +
+           "FROM Document d WHERE d.retrieved IS NULL " +
            "AND (:senderWildcard = true OR d.senderIdentifier IN :senderIdentifiers) " +
            "AND (:receiverWildcard = true OR d.receiverIdentifier IN :receiverIdentifiers) " +
            "AND (:domainWildcard = true OR d.domain IN :domains) " +
-           "ORDER BY d.created ASC")
-    List<UUID> findNotRetrievedIdsBySearchCriteria(
+           "ORDER BY d.created ASC, d.id ASC")
+    List<DocumentCursor> findNotRetrievedIdsBySearchCriteria(
             @Param("senderWildcard") boolean senderWildcard,
             @Param("senderIdentifiers") List<String> senderIdentifiers,
             @Param("receiverWildcard") boolean receiverWildcard,
             @Param("receiverIdentifiers") List<String> receiverIdentifiers,
             @Param("domainWildcard") boolean domainWildcard,
-            @Param("domains") List<String> domains
+            @Param("domains") List<String> domains,
+            Limit limit
     );
 
+    // The page after the given position. The row comparison lets the index scan start at the position
+    @Query("SELECT new com.mysupply.phase4.peppolstandalone.dto.DocumentCursor(d.id, d.created) " +
+           "FROM Document d WHERE d.retrieved IS NULL " +
+           "AND (d.created, d.id) > (:afterCreated, :afterId) " +
+           "AND (:senderWildcard = true OR d.senderIdentifier IN :senderIdentifiers) " +
+           "AND (:receiverWildcard = true OR d.receiverIdentifier IN :receiverIdentifiers) " +
+           "AND (:domainWildcard = true OR d.domain IN :domains) " +
+           "ORDER BY d.created ASC, d.id ASC")
+    List<DocumentCursor> findNotRetrievedIdsBySearchCriteriaAfter(
+            @Param("afterCreated") OffsetDateTime afterCreated,
+            @Param("afterId") UUID afterId,
+            @Param("senderWildcard") boolean senderWildcard,
+            @Param("senderIdentifiers") List<String> senderIdentifiers,
+            @Param("receiverWildcard") boolean receiverWildcard,
+            @Param("receiverIdentifiers") List<String> receiverIdentifiers,
+            @Param("domainWildcard") boolean domainWildcard,
+            @Param("domains") List<String> domains,
+            Limit limit
+    );
+
+    // Find a document together with its shared payload in one query
+    @Query("SELECT d FROM Document d LEFT JOIN FETCH d.payload WHERE d.id = :id")
+    Optional<Document> findWithPayloadById(@Param("id") UUID id);
+
+    // Find the payload hash and the stored codec of a document without loading the document or its payload. Documents
+    // without a shared payload report the hash of their inline payload once it is known
+    @Query("SELECT new com.mysupply.phase4.persistence.DocumentVersion(COALESCE(d.payloadHash, d.dataHash), COALESCE(p.dataCodec, d.dataCodec)) " +
+           "FROM Document d LEFT JOIN d.payload p WHERE d.id = :id")
+    Optional<DocumentVersion> findVersionById(@Param("id") UUID id);
+
+    // Stream documents together with their shared payloads. The rows are read through a server-side cursor in
+    // chunks of the fetch size, so the stream must be consumed inside a transaction
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = DocumentConstants.STREAM_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT d FROM Document d LEFT JOIN FETCH d.payload WHERE d.id IN :ids ORDER BY d.created ASC, d.id ASC")
+    Stream<Document> streamWithPayloadByIds(@Param("ids") List<UUID> ids);
+
+    // Find the reception times of documents without loading them, to order ID lists that are queried in chunks
+    @Query("SELECT new com.mysupply.phase4.persistence.DocumentOrderKey(d.id, d.created) FROM Document d WHERE d.id IN :ids")
+    List<DocumentOrderKey> findOrderKeysByIds(@Param("ids") List<UUID> ids);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = DocumentConstants.STREAM_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT d FROM Document d LEFT JOIN FETCH d.payload WHERE d.retrieved IS NULL ORDER BY d.created ASC")
+    Stream<Document> streamNotRetrievedWithPayload(Limit limit);
+
     // Find all documents for overview without fetching the data blob
     @Query("SELECT new com.mysupply.phase4.peppolstandalone.dto.DocumentOverview(" +
            "d.id, d.created, d.domain, d.senderIdentifier, d.receiverIdentifier, " +
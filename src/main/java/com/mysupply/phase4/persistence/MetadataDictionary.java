@@ -0,0 +1,147 @@
+package com.mysupply.phase4.persistence;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps repeated document metadata values (domains, document types, processes, protocols and certificate DNs) to the
+ * small integer keys stored in the document table.
+ * <p>
+ * Both directions are cached in memory. The set of distinct values is small and entries are never removed, so the
+ * cache is not bounded. Interned values are returned as the cached instance, so all documents holding the same value
+ * share one string.
+ */
+@Component
+public class MetadataDictionary {
+    /** Returned by {@link #findIdOrUnknown(String)} for a value that is not in the dictionary. No row has this key. */
+    public static final int UNKNOWN_ID = -1;
+
+    private static final String TABLE = DocumentConstants.DOCUMENT_SCHEMA_NAME + "." + DocumentConstants.METADATA_DICTIONARY_TABLE_NAME;
+
+    // DO NOTHING would return no row when a concurrent insert of the same value commits first, as a SELECT in the
+    // same statement cannot see that row. The no-op update waits for it and returns its key
+    private static final String INTERN_SQL = "INSERT INTO " + TABLE + " (value) VALUES (?)" +
+            " ON CONFLICT (value) DO UPDATE SET value = EXCLUDED.value RETURNING id";
+
+    private final DataSource dataSource;
+    private final ConcurrentMap<String, Integer> idsByValue = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> valuesById = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MetadataDictionary(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Makes sure the value has a key and returns the cached instance of the value.
+     * The key is committed in its own transaction, so it is visible to every later document insert.
+     *
+     * @return The cached instance of the value, or null if the value is null.
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        return this.valuesById.get(this.getId(value));
+    }
+
+    /**
+     * Returns the key of the value, adding the value to the dictionary if needed.
+     *
+     * @return The key, or null if the value is null.
+     */
+    public Integer getId(String value) {
+        if (value == null) {
+            return null;
+        }
+        Integer id = this.idsByValue.get(value);
+        if (id != null) {
+            return id;
+        }
+
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(INTERN_SQL)) {
+            statement.setString(1, value);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new IllegalStateException("Failed to add the value '" + value + "' to the metadata dictionary");
+                }
+                id = resultSet.getInt(1);
+            }
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Failed to add the value '" + value + "' to the metadata dictionary", ex);
+        }
+        return this.cache(id, value);
+    }
+
+    /**
+     * Returns the key of the value without adding it. Used for query parameters, where an unknown value must match
+     * nothing rather than create an entry.
+     *
+     * @return The key, {@link #UNKNOWN_ID} if the value is not in the dictionary, or null if the value is null.
+     */
+    public Integer findIdOrUnknown(String value) {
+        if (value == null) {
+            return null;
+        }
+        Integer id = this.idsByValue.get(value);
+        if (id != null) {
+            return id;
+        }
+
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT id FROM " + TABLE + " WHERE value = ?")) {
+            statement.setString(1, value);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? this.cache(resultSet.getInt(1), value) : UNKNOWN_ID;
+            }
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Failed to look up the value '" + value + "' in the metadata dictionary", ex);
+        }
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @return The value, or null if the key is null.
+     */
+    public String getValue(Integer id) {
+        if (id == null) {
+            return null;
+        }
+        String value = this.valuesById.get(id);
+        if (value != null) {
+            return value;
+        }
+
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT value FROM " + TABLE + " WHERE id = ?")) {
+            statement.setInt(1, id);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new IllegalStateException("The metadata dictionary has no value for key " + id);
+                }
+                value = resultSet.getString(1);
+            }
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Failed to read key " + id + " from the metadata dictionary", ex);
+        }
+        this.cache(id, value);
+        return this.valuesById.get(id);
+    }
+
+    private Integer cache(int id, String value) {
+        // putIfAbsent keeps the first instance, so every caller ends up with the same string
+        this.valuesById.putIfAbsent(id, value);
+        this.idsByValue.putIfAbsent(this.valuesById.get(id), id);
+        return id;
+    }
+}
@@ -0,0 +1,179 @@
+package com.mysupply.phase4.persistence;
+
+import com.helger.peppol.reporting.api.backend.PeppolReportingBackend;
+import com.mysupply.phase4.peppolstandalone.APConfig;
+import com.mysupply.phase4.persistence.configuration.PeppolReportingOutboxConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves Peppol reporting items from the outbox table to the configured reporting backend.
+ * <p>
+ * Each pass claims a batch of due items for a lease, which commits at once, so no row locks are held while the
+ * backend is called. The items are stored one by one through one backend session, as the backend commits every item
+ * on its own. Afterwards the stored items are deleted and only the failed ones are retried with exponential backoff;
+ * an item that keeps failing is dead-lettered after the configured number of attempts. Delivery is at least once: a
+ * crash between storing and deleting repeats the stored items once their lease has ended.
+ */
+@Component
+public class PeppolReportingOutboxDrainer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PeppolReportingOutboxDrainer.class);
+    private static final String METRIC_PREFIX = "phase4.reporting.outbox";
+
+    private final DataSource dataSource;
+    private final ReportingItemOutbox reportingItemOutbox;
+    private final PeppolReportingOutboxConfiguration configuration;
+
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final Counter storedCounter;
+    private final Counter failedCounter;
+    private final Counter deadLetteredCounter;
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    @Autowired
+    public PeppolReportingOutboxDrainer(DataSource dataSource,
+                                        ReportingItemOutbox reportingItemOutbox,
+                                        PeppolReportingOutboxConfiguration configuration,
+                                        MeterRegistry meterRegistry) {
+        this.dataSource = dataSource;
+        this.reportingItemOutbox = reportingItemOutbox;
+        this.configuration = configuration;
+
+        Gauge.builder(METRIC_PREFIX + ".backlog", this.backlog, AtomicLong::get)
+                .description("Number of reporting items waiting in the outbox")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".lag", this.lagMillis, value -> value.get() / 1000.0)
+                .description("Age of the oldest reporting item waiting in the outbox")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.storedCounter = Counter.builder(METRIC_PREFIX + ".stored")
+                .description("Number of reporting items stored in the reporting backend")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder(METRIC_PREFIX + ".failed")
+                .description("Number of reporting items whose storage attempt failed")
+                .register(meterRegistry);
+        this.deadLetteredCounter = Counter.builder(METRIC_PREFIX + ".dead.lettered")
+                .description("Number of reporting items given up after too many failed attempts")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".dead.letters", this.deadLettered, AtomicLong::get)
+                .description("Number of dead-lettered reporting items kept in the outbox")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${peppol.reporting.outbox.poll-interval-millis:1000}")
+    public void drain() {
+        if (!this.configuration.isDrainerEnabled()) {
+            return;
+        }
+
+        try {
+            int batchSize = Math.max(1, this.configuration.getBatchSize());
+            // Keep going while full batches come back, so a backlog is worked off without waiting for the next pass
+            while (this.drainBatch(batchSize) == batchSize) {
+                // continue
+            }
+            this.updateBacklogMetrics();
+        } catch (SQLException ex) {
+            LOGGER.error("Failed to drain the reporting item outbox", ex);
+        }
+    }
+
+    private int drainBatch(int batchSize) throws SQLException {
+        List<ReportingItemOutbox.OutboxEntry> entries;
+        try (Connection connection = this.dataSource.getConnection()) {
+            entries = this.reportingItemOutbox.claimDue(connection, batchSize, this.configuration.getLeaseMillis());
+        }
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        List<ReportingItemOutbox.OutboxEntry> stored = new ArrayList<>();
+        Map<ReportingItemOutbox.OutboxEntry, String> failed = new LinkedHashMap<>();
+        try {
+            PeppolReportingBackend.withBackendDo(APConfig.getConfig(), aBackend -> {
+                for (ReportingItemOutbox.OutboxEntry entry : entries) {
+                    // Every item is committed by the backend on its own, so one failure must not repeat the others
+                    try {
+                        aBackend.storeReportingItem(entry.item);
+                        stored.add(entry);
+                    } catch (Exception ex) {
+                        LOGGER.warn("Failed to store Peppol Reporting Item {} from the outbox, it will be retried", entry.id, ex);
+                        failed.put(entry, String.valueOf(ex.getMessage()));
+                    }
+                }
+            });
+        } catch (Exception ex) {
+            LOGGER.error("The Peppol Reporting backend failed, the remaining items will be retried", ex);
+            for (ReportingItemOutbox.OutboxEntry entry : entries) {
+                if (!stored.contains(entry) && !failed.containsKey(entry)) {
+                    failed.put(entry, String.valueOf(ex.getMessage()));
+                }
+            }
+        }
+
+        int deadLetteredCount = 0;
+        try (Connection connection = this.dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                if (!stored.isEmpty()) {
+                    this.reportingItemOutbox.delete(connection, stored);
+                }
+                for (Map.Entry<ReportingItemOutbox.OutboxEntry, String> failure : failed.entrySet()) {
+                    if (this.reportingItemOutbox.reschedule(connection,
+                            failure.getKey(),
+                            this.configuration.getInitialBackoffMillis(),
+                            this.configuration.getMaxBackoffMillis(),
+                            this.configuration.getMaxAttempts(),
+                            failure.getValue())) {
+                        deadLetteredCount++;
+                        LOGGER.error("Gave up Peppol Reporting Item {} after {} attempts", failure.getKey().id, this.configuration.getMaxAttempts());
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+
+        this.storedCounter.increment(stored.size());
+        this.failedCounter.increment(failed.size());
+        this.deadLetteredCounter.increment(deadLetteredCount);
+        LOGGER.info("Stored {} Peppol Reporting Item(s) from the outbox, {} failed", stored.size(), failed.size());
+        // A failure ends this pass, the failed items are due again after the backoff
+        return failed.isEmpty() ? entries.size() : 0;
+    }
+
+    private void updateBacklogMetrics() throws SQLException {
+        try (Connection connection = this.dataSource.getConnection()) {
+            ReportingItemOutbox.Backlog current = this.reportingItemOutbox.getBacklog(connection);
+            this.backlog.set(current.count);
+            this.deadLettered.set(current.deadLettered);
+            this.lagMillis.set(current.oldestCreated == null
+                    ? 0
+                    : Math.max(0, Duration.between(current.oldestCreated, OffsetDateTime.now(ZoneOffset.UTC)).toMillis()));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.mysupply.phase4.persistence;
+
+import com.helger.peppol.reporting.api.EReportingDirection;
+import com.helger.peppol.reporting.api.PeppolReportingItem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Access to the reporting-item outbox table.
+ * <p>
+ * Reporting items are first written to the outbox, either in the same transaction as the inbound document or on their
+ * own for outbound messages. The {@link PeppolReportingOutboxDrainer} later moves them to the Peppol reporting backend.
+ */
+@Component
+public class ReportingItemOutbox {
+    private static final String TABLE = DocumentConstants.DOCUMENT_SCHEMA_NAME + "." + DocumentConstants.REPORTING_ITEM_OUTBOX_TABLE_NAME;
+
+    private static final String INSERT_SQL = "INSERT INTO " + TABLE +
+            " (created, exchange_dt, direction, c2_id, c3_id, doctype_scheme, doctype_value, process_scheme, process_value," +
+            " transport_protocol, c1_country_code, c4_country_code, end_user_id, next_attempt)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Claiming moves next_attempt past the lease, so the row locks end with the statement and other drainers still
+    // skip the items while they are being stored
+    private static final String CLAIM_SQL = "WITH due AS (" +
+            "SELECT id FROM " + TABLE + " WHERE next_attempt <= ? AND dead_lettered IS NULL" +
+            " ORDER BY next_attempt, id LIMIT ? FOR UPDATE SKIP LOCKED)" +
+            " UPDATE " + TABLE + " o SET next_attempt = ? FROM due WHERE o.id = due.id" +
+            " RETURNING o.id, o.exchange_dt, o.direction, o.c2_id, o.c3_id, o.doctype_scheme, o.doctype_value," +
+            " o.process_scheme, o.process_value, o.transport_protocol, o.c1_country_code, o.c4_country_code, o.end_user_id";
+
+    private static final String RESCHEDULE_SQL = "UPDATE " + TABLE +
+            " SET attempts = attempts + 1," +
+            " next_attempt = ? + LEAST(?, ? * POWER(2, LEAST(attempts, 30))) * INTERVAL '1 millisecond'," +
+            " last_error = ?," +
+            " dead_lettered = CASE WHEN attempts + 1 >= ? THEN ? ELSE NULL END" +
+            " WHERE id = ? RETURNING dead_lettered IS NOT NULL";
+
+    private final DataSource dataSource;
+
+    @Autowired
+    public ReportingItemOutbox(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Adds a single reporting item in its own transaction.
+     */
+    public void enqueue(PeppolReportingItem reportingItem) throws SQLException {
+        try (Connection connection = this.dataSource.getConnection()) {
+            this.insert(connection, List.of(reportingItem));
+        }
+    }
+
+    /**
+     * Adds the reporting items using the provided connection, so that they become part of the caller's transaction.
+     */
+    public void insert(Connection connection, List<PeppolReportingItem> reportingItems) throws SQLException {
+        if (reportingItems.isEmpty()) {
+            return;
+        }
+
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+            for (PeppolReportingItem item : reportingItems) {
+                statement.setObject(1, now);
+                statement.setObject(2, item.getExchangeDTUTC());
+                statement.setString(3, item.getDirection().getID());
+                statement.setString(4, item.getC2ID());
+                statement.setString(5, item.getC3ID());
+                statement.setString(6, item.getDocTypeIDScheme());
+                statement.setString(7, item.getDocTypeIDValue());
+                statement.setString(8, item.getProcessIDScheme());
+                statement.setString(9, item.getProcessIDValue());
+                statement.setString(10, item.getTransportProtocol());
+                statement.setString(11, item.getC1CountryCode());
+                statement.setString(12, item.getC4CountryCode());
+                statement.setString(13, item.getEndUserID());
+                statement.setObject(14, now);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Claims and returns up to {@code limit} items that are due, for {@code leaseMillis}. Claimed items are not due
+     * again before the lease ends, so an item whose drainer dies is retried afterwards. Items locked by a concurrent
+     * claim are skipped. The claim is a single statement and holds no locks once it returns.
+     */
+    List<OutboxEntry> claimDue(Connection connection, int limit, long leaseMillis) throws SQLException {
+        List<OutboxEntry> entries = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(CLAIM_SQL)) {
+            OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+            statement.setObject(1, now);
+            statement.setInt(2, limit);
+            statement.setObject(3, now.plusNanos(leaseMillis * 1_000_000));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    PeppolReportingItem item = new PeppolReportingItem(
+                            resultSet.getObject(2, OffsetDateTime.class),
+                            EReportingDirection.getFromIDOrNull(resultSet.getString(3)),
+                            resultSet.getString(4),
+                            resultSet.getString(5),
+                            resultSet.getString(6),
+                            resultSet.getString(7),
+                            resultSet.getString(8),
+                            resultSet.getString(9),
+                            resultSet.getString(10),
+                            resultSet.getString(11),
+                            resultSet.getString(12),
+                            resultSet.getString(13));
+                    entries.add(new OutboxEntry(resultSet.getLong(1), item));
+                }
+            }
+        }
+        return entries;
+    }
+
+    void delete(Connection connection, List<OutboxEntry> entries) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TABLE + " WHERE id = ANY (?)")) {
+            statement.setArray(1, connection.createArrayOf("bigint", toIds(entries)));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Records a failed attempt. The next attempt is delayed exponentially, starting at {@code initialBackoffMillis}
+     * and capped at {@code maxBackoffMillis}. After {@code maxAttempts} failed attempts the item is dead-lettered: it
+     * stays in the table with its last error but is no longer retried.
+     *
+     * @return True if the item was dead-lettered.
+     */
+    boolean reschedule(Connection connection, OutboxEntry entry, long initialBackoffMillis, long maxBackoffMillis,
+                       int maxAttempts, String error) throws SQLException {
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        try (PreparedStatement statement = connection.prepareStatement(RESCHEDULE_SQL)) {
+            statement.setObject(1, now);
+            statement.setLong(2, maxBackoffMillis);
+            statement.setLong(3, initialBackoffMillis);
+            statement.setString(4, error);
+            statement.setInt(5, maxAttempts);
+            statement.setObject(6, now);
+            statement.setLong(7, entry.id);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of items that are still retried, the creation time of the oldest one and the number of
+     * dead-lettered items.
+     */
+    Backlog getBacklog(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FILTER (WHERE dead_lettered IS NULL)," +
+                " MIN(created) FILTER (WHERE dead_lettered IS NULL), COUNT(*) FILTER (WHERE dead_lettered IS NOT NULL) FROM " + TABLE);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return new Backlog(resultSet.getLong(1), resultSet.getObject(2, OffsetDateTime.class), resultSet.getLong(3));
+        }
+    }
+
+    private static Long[] toIds(List<OutboxEntry> entries) {
+        Long[] ids = new Long[entries.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = entries.get(i).id;
+        }
+        return ids;
+    }
+
+    static final class OutboxEntry {
+        final long id;
+        final PeppolReportingItem item;
+
+        OutboxEntry(long id, PeppolReportingItem item) {
+            this.id = id;
+            this.item = item;
+        }
+    }
+
+    static final class Backlog {
+        final long count;
+        /** The creation time of the oldest waiting item, or null when the outbox is empty. */
+        final OffsetDateTime oldestCreated;
+        final long deadLettered;
+
+        Backlog(long count, OffsetDateTime oldestCreated, long deadLettered) {
+            this.count = count;
+            this.oldestCreated = oldestCreated;
+            this.deadLettered = deadLettered;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.mysupply.phase4.persistence;
+
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentPayloadStoreConfiguration;
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentsIngestConfiguration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps payloads in local append-only segment files and records only their location in the database.
+ * <p>
+ * Appends go to one active segment and are forced to disk before the location is returned. When the active segment
+ * is full a new one is started, and the old one is never written again. Reads of such sealed segments use one
+ * read-only memory mapping per segment, so they cost no system call. Space of deleted payloads is reclaimed by the
+ * {@link DocumentPayloadSegmentCompactor}.
+ * <p>
+ * The append position, the active segment and the compaction state are kept in memory, so only one process may use
+ * the directory. The store takes an exclusive {@link FileLock} on a lock file in the directory when it opens and
+ * fails to start if another process holds it. Deployments with several instances must use the database payload
+ * store instead.
+ */
+@Component
+@ConditionalOnProperty(prefix = "peppol.documents.payload-store", name = "type", havingValue = "segment-file")
+public class SegmentFileDocumentPayloadStore implements IDocumentPayloadStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentFileDocumentPayloadStore.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String LOCK_FILE = "segments.lock";
+
+    private final PeppolDocumentPayloadStoreConfiguration configuration;
+    private final PeppolDocumentsIngestConfiguration ingestConfiguration;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Map<Long, MappedByteBuffer> sealedSegments = new ConcurrentHashMap<>();
+    private Path directory;
+    private volatile long activeSegmentId;
+    private FileChannel activeChannel;
+    private FileChannel lockChannel;
+    private FileLock directoryLock;
+
+    @Autowired
+    public SegmentFileDocumentPayloadStore(PeppolDocumentPayloadStoreConfiguration configuration,
+                                           PeppolDocumentsIngestConfiguration ingestConfiguration) {
+        this.configuration = configuration;
+        this.ingestConfiguration = ingestConfiguration;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!this.ingestConfiguration.isDeduplicatePayloads()) {
+            throw new IllegalStateException("The segment-file payload store requires peppol.documents.ingest.deduplicate-payloads=true");
+        }
+        if (this.configuration.getMaxSegmentBytes() > Integer.MAX_VALUE) {
+            throw new IllegalStateException("peppol.documents.payload-store.max-segment-bytes must not exceed " + Integer.MAX_VALUE);
+        }
+
+        this.directory = Paths.get(this.configuration.getDirectory()).toAbsolutePath();
+        Files.createDirectories(this.directory);
+        this.lockDirectory();
+
+        // Continue with the newest segment. Bytes of an append that was never committed are reclaimed by compaction
+        long newest = 0;
+        for (Long segmentId : this.getSegmentSizes().keySet()) {
+            newest = Math.max(newest, segmentId);
+        }
+        this.openActiveSegment(Math.max(1, newest));
+        LOGGER.info("Storing document payloads in segment files in '{}', active segment {}", this.directory, this.activeSegmentId);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        this.appendLock.lock();
+        try {
+            if (this.activeChannel != null) {
+                this.activeChannel.close();
+            }
+            if (this.lockChannel != null) {
+                // Closing the channel releases the lock
+                this.lockChannel.close();
+            }
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends all payloads and forces them to disk once.
+     */
+    @Override
+    public List<DocumentPayloadPointer> writeAll(List<byte[]> payloads) throws IOException {
+        List<DocumentPayloadPointer> pointers = new ArrayList<>(payloads.size());
+        this.appendLock.lock();
+        try {
+            for (byte[] data : payloads) {
+                long position = this.activeChannel.size();
+                if (position > 0 && position + data.length > this.configuration.getMaxSegmentBytes()) {
+                    this.activeChannel.force(false);
+                    this.openActiveSegment(this.activeSegmentId + 1);
+                    position = 0;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    this.activeChannel.write(buffer, position + buffer.position());
+                }
+                pointers.add(new DocumentPayloadPointer(this.activeSegmentId, position, data.length));
+            }
+            this.activeChannel.force(false);
+        } finally {
+            this.appendLock.unlock();
+        }
+        return pointers;
+    }
+
+    @Override
+    public byte[] read(DocumentPayloadPointer pointer) throws IOException {
+        byte[] data = new byte[pointer.getLength()];
+        if (pointer.getSegmentId() >= this.activeSegmentId) {
+            // The active segment still grows, so only the requested region is mapped
+            try (FileChannel channel = FileChannel.open(this.getSegmentPath(pointer.getSegmentId()), StandardOpenOption.READ)) {
+                channel.map(FileChannel.MapMode.READ_ONLY, pointer.getOffset(), pointer.getLength()).get(data);
+            }
+            return data;
+        }
+
+        MappedByteBuffer segment;
+        try {
+            segment = this.sealedSegments.computeIfAbsent(pointer.getSegmentId(), this::mapSegment);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        // Absolute get, so concurrent readers do not disturb each other
+        segment.get((int) pointer.getOffset(), data);
+        return data;
+    }
+
+    long getActiveSegmentId() {
+        return this.activeSegmentId;
+    }
+
+    /**
+     * Returns the size in bytes of every segment file, by segment ID.
+     */
+    Map<Long, Long> getSegmentSizes() throws IOException {
+        Map<Long, Long> sizes = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long segmentId = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                sizes.put(segmentId, Files.size(file));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Deletes a sealed segment. Must only be called for segments without live payloads.
+     */
+    void deleteSegment(long segmentId) throws IOException {
+        if (segmentId >= this.activeSegmentId) {
+            throw new IllegalArgumentException("The active segment " + segmentId + " cannot be deleted");
+        }
+        // The mapping stays valid for readers that still hold it, it is released once it is garbage collected
+        this.sealedSegments.remove(segmentId);
+        Files.deleteIfExists(this.getSegmentPath(segmentId));
+    }
+
+    private void lockDirectory() throws IOException {
+        this.lockChannel = FileChannel.open(this.directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            this.directoryLock = this.lockChannel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            // Another store in this JVM holds the lock
+            this.directoryLock = null;
+        }
+        if (this.directoryLock == null) {
+            this.lockChannel.close();
+            this.lockChannel = null;
+            throw new IllegalStateException("The segment directory '" + this.directory + "' is in use by another instance");
+        }
+    }
+
+    private void openActiveSegment(long segmentId) throws IOException {
+        FileChannel channel = FileChannel.open(this.getSegmentPath(segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (this.activeChannel != null) {
+            this.activeChannel.close();
+        }
+        this.activeChannel = channel;
+        this.activeSegmentId = segmentId;
+    }
+
+    private MappedByteBuffer mapSegment(long segmentId) {
+        try (FileChannel channel = FileChannel.open(this.getSegmentPath(segmentId), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private Path getSegmentPath(long segmentId) {
+        return this.directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+}
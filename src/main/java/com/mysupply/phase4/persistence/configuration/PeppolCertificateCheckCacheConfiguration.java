@@ -0,0 +1,55 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for caching the validation verdicts of inbound signing certificates.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.certificate-check.cache")
+public class PeppolCertificateCheckCacheConfiguration {
+    /** When false, every inbound signing certificate is validated in full. */
+    private boolean enabled = true;
+
+    /** The maximum number of cached verdicts. */
+    private long maxEntries = 10000;
+
+    /** The longest time a verdict is used. It is shorter when a known CRL reaches its nextUpdate time earlier. */
+    private long maxTtlSeconds = 3600;
+
+    /** Check times within the same bucket of this length share a verdict. */
+    private long checkTimeBucketSeconds = 3600;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(long maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getMaxTtlSeconds() {
+        return maxTtlSeconds;
+    }
+
+    public void setMaxTtlSeconds(long maxTtlSeconds) {
+        this.maxTtlSeconds = maxTtlSeconds;
+    }
+
+    public long getCheckTimeBucketSeconds() {
+        return checkTimeBucketSeconds;
+    }
+
+    public void setCheckTimeBucketSeconds(long checkTimeBucketSeconds) {
+        this.checkTimeBucketSeconds = checkTimeBucketSeconds;
+    }
+}
@@ -0,0 +1,69 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for the persistent store of downloaded certificate revocation lists.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.crl")
+public class PeppolCrlConfiguration {
+    /** The directory the downloaded CRLs are kept in, so they survive a restart. */
+    private String directory = "generated/crl/";
+
+    /** A CRL is downloaded again this long before its nextUpdate time. */
+    private long refreshAheadSeconds = 3600;
+
+    /** A CRL without a nextUpdate time is downloaded again once it is this old. */
+    private long maxAgeSeconds = 86400;
+
+    /**
+     * How long a CRL whose refresh keeps failing is still used after its nextUpdate time (or after its maximum age).
+     * Afterwards every check tries to download it again and fails if that does not succeed.
+     */
+    private long maxStaleSeconds = 86400;
+
+    /** The pause between two checks for CRLs that are due. Only read at startup. */
+    private long refreshCheckIntervalMillis = 60000;
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getRefreshAheadSeconds() {
+        return refreshAheadSeconds;
+    }
+
+    public void setRefreshAheadSeconds(long refreshAheadSeconds) {
+        this.refreshAheadSeconds = refreshAheadSeconds;
+    }
+
+    public long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    public void setMaxAgeSeconds(long maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    public long getMaxStaleSeconds() {
+        return maxStaleSeconds;
+    }
+
+    public void setMaxStaleSeconds(long maxStaleSeconds) {
+        this.maxStaleSeconds = maxStaleSeconds;
+    }
+
+    public long getRefreshCheckIntervalMillis() {
+        return refreshCheckIntervalMillis;
+    }
+
+    public void setRefreshCheckIntervalMillis(long refreshCheckIntervalMillis) {
+        this.refreshCheckIntervalMillis = refreshCheckIntervalMillis;
+    }
+}
@@ -0,0 +1,29 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The host names this access point is reachable under. The domain of an inbound document is taken from the request's
+ * Host or X-Forwarded-Host header, which the sender controls, so only these names get their own metric tag.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.documents.domains")
+public class PeppolDocumentDomainsConfiguration {
+    /**
+     * The known host names, in addition to the host of phase4.endpoint.address and the hosts of the receiver routes.
+     * Documents to any other host are stored with that host, but counted under the metric tag "other".
+     */
+    private List<String> known = new ArrayList<>();
+
+    public List<String> getKnown() {
+        return known;
+    }
+
+    public void setKnown(List<String> known) {
+        this.known = known;
+    }
+}
@@ -0,0 +1,44 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for leasing pending documents to connectors.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.documents.lease")
+public class PeppolDocumentLeaseConfiguration {
+    /** The lease duration used when a claim does not ask for one. */
+    private long defaultLeaseMillis = 300000;
+
+    /** The upper bound of the lease duration a claim can ask for. */
+    private long maxLeaseMillis = 3600000;
+
+    /** The upper bound of the number of documents leased by one claim. */
+    private int maxDocumentsPerClaim = 1000;
+
+    public long getDefaultLeaseMillis() {
+        return defaultLeaseMillis;
+    }
+
+    public void setDefaultLeaseMillis(long defaultLeaseMillis) {
+        this.defaultLeaseMillis = defaultLeaseMillis;
+    }
+
+    public long getMaxLeaseMillis() {
+        return maxLeaseMillis;
+    }
+
+    public void setMaxLeaseMillis(long maxLeaseMillis) {
+        this.maxLeaseMillis = maxLeaseMillis;
+    }
+
+    public int getMaxDocumentsPerClaim() {
+        return maxDocumentsPerClaim;
+    }
+
+    public void setMaxDocumentsPerClaim(int maxDocumentsPerClaim) {
+        this.maxDocumentsPerClaim = maxDocumentsPerClaim;
+    }
+}
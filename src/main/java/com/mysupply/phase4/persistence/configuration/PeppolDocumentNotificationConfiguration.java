@@ -0,0 +1,55 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for notifying retriever clients about new documents through PostgreSQL LISTEN/NOTIFY.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.documents.notification")
+public class PeppolDocumentNotificationConfiguration {
+    /** When false, ingest sends no notifications and waiting clients are only woken by their timeout. Only read at startup. */
+    private boolean enabled = true;
+
+    /** The upper bound of the time a long-poll request waits for a matching document. */
+    private long longPollMaxWaitMillis = 60000;
+
+    /** The time after which an event stream is closed, clients are expected to reconnect. */
+    private long sseTimeoutMillis = 1800000;
+
+    /** The pause before the listener connects again after its database connection failed. */
+    private long reconnectDelayMillis = 5000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getLongPollMaxWaitMillis() {
+        return longPollMaxWaitMillis;
+    }
+
+    public void setLongPollMaxWaitMillis(long longPollMaxWaitMillis) {
+        this.longPollMaxWaitMillis = longPollMaxWaitMillis;
+    }
+
+    public long getSseTimeoutMillis() {
+        return sseTimeoutMillis;
+    }
+
+    public void setSseTimeoutMillis(long sseTimeoutMillis) {
+        this.sseTimeoutMillis = sseTimeoutMillis;
+    }
+
+    public long getReconnectDelayMillis() {
+        return reconnectDelayMillis;
+    }
+
+    public void setReconnectDelayMillis(long reconnectDelayMillis) {
+        this.reconnectDelayMillis = reconnectDelayMillis;
+    }
+}
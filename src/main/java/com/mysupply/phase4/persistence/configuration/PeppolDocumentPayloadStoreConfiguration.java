@@ -0,0 +1,83 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for where shared document payloads are kept.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.documents.payload-store")
+public class PeppolDocumentPayloadStoreConfiguration {
+    /**
+     * "database" keeps payloads in the document_payload table. "segment-file" keeps them in local append-only
+     * segment files and only records their location in the database. Requires payload deduplication.
+     */
+    private String type = "database";
+
+    /** The directory of the segment files. */
+    private String directory = "generated/document-payloads/";
+
+    /** A new segment file is started once the current one reaches this size. At most 2 GiB. */
+    private long maxSegmentBytes = 1073741824;
+
+    /** Segments with a smaller share of live payloads are rewritten by the compaction job. */
+    private double compactionMinLiveRatio = 0.5;
+
+    /**
+     * How long a segment without live payloads is kept before it is deleted, so reads that started before a
+     * compaction can still finish.
+     */
+    private long compactionGraceMillis = 600000;
+
+    /** The pause between two compaction runs. Only read at startup. */
+    private long compactionIntervalMillis = 3600000;
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxSegmentBytes() {
+        return maxSegmentBytes;
+    }
+
+    public void setMaxSegmentBytes(long maxSegmentBytes) {
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    public double getCompactionMinLiveRatio() {
+        return compactionMinLiveRatio;
+    }
+
+    public void setCompactionMinLiveRatio(double compactionMinLiveRatio) {
+        this.compactionMinLiveRatio = compactionMinLiveRatio;
+    }
+
+    public long getCompactionGraceMillis() {
+        return compactionGraceMillis;
+    }
+
+    public void setCompactionGraceMillis(long compactionGraceMillis) {
+        this.compactionGraceMillis = compactionGraceMillis;
+    }
+
+    public long getCompactionIntervalMillis() {
+        return compactionIntervalMillis;
+    }
+
+    public void setCompactionIntervalMillis(long compactionIntervalMillis) {
+        this.compactionIntervalMillis = compactionIntervalMillis;
+    }
+}
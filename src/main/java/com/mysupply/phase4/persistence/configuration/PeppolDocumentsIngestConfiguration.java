@@ -0,0 +1,149 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for how inbound documents are written to the documents database.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.documents.ingest")
+public class PeppolDocumentsIngestConfiguration {
+    /**
+     * When true, concurrent inbound documents are collected and committed together in one transaction.
+     * When false, each document is committed on its own by the calling thread.
+     */
+    private boolean groupCommitEnabled = true;
+
+    /** The maximum number of documents written in one multi-row insert and commit. */
+    private int batchSize = 64;
+
+    /** How long the writer waits for more documents before committing a batch that is not full. */
+    private long lingerMillis = 5;
+
+    /** The maximum number of documents waiting to be written. Inbound requests are rejected when it is full. */
+    private int queueCapacity = 1024;
+
+    /** The number of writer threads draining the queue. */
+    private int writerThreads = 2;
+
+    /** How long an inbound request waits for its document to become durable before giving up. */
+    private long commitTimeoutMillis = 30000;
+
+    /**
+     * Documents whose stored (possibly compressed) payload has at least this size are streamed to the database in their own transaction instead of joining a
+     * multi-row batch. Zero or less disables streaming.
+     */
+    private long streamingThresholdBytes = 1048576;
+
+    /** When true, byte-identical payloads are stored once in the shared payload table, keyed by their SHA-256 hash. */
+    private boolean deduplicatePayloads = true;
+
+    /** The number of recently stored (domain, message ID) pairs kept in memory to reject redeliveries early. */
+    private long recentlySeenMaxEntries = 100000;
+
+    /** How long a stored (domain, message ID) pair stays in the recently-seen filter. */
+    private long recentlySeenTtlSeconds = 3600;
+
+    /** The codec payloads are compressed with before they are stored: none, gzip or zstd. */
+    private String codec = "gzip";
+
+    /** Payloads smaller than this are stored uncompressed, as compressing them gains little. */
+    private int compressionMinBytes = 512;
+
+    public boolean isGroupCommitEnabled() {
+        return groupCommitEnabled;
+    }
+
+    public void setGroupCommitEnabled(boolean groupCommitEnabled) {
+        this.groupCommitEnabled = groupCommitEnabled;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public void setLingerMillis(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+
+    public long getCommitTimeoutMillis() {
+        return commitTimeoutMillis;
+    }
+
+    public void setCommitTimeoutMillis(long commitTimeoutMillis) {
+        this.commitTimeoutMillis = commitTimeoutMillis;
+    }
+
+    public long getStreamingThresholdBytes() {
+        return streamingThresholdBytes;
+    }
+
+    public void setStreamingThresholdBytes(long streamingThresholdBytes) {
+        this.streamingThresholdBytes = streamingThresholdBytes;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public int getCompressionMinBytes() {
+        return compressionMinBytes;
+    }
+
+    public void setCompressionMinBytes(int compressionMinBytes) {
+        this.compressionMinBytes = compressionMinBytes;
+    }
+
+    public boolean isDeduplicatePayloads() {
+        return deduplicatePayloads;
+    }
+
+    public void setDeduplicatePayloads(boolean deduplicatePayloads) {
+        this.deduplicatePayloads = deduplicatePayloads;
+    }
+
+    public long getRecentlySeenMaxEntries() {
+        return recentlySeenMaxEntries;
+    }
+
+    public void setRecentlySeenMaxEntries(long recentlySeenMaxEntries) {
+        this.recentlySeenMaxEntries = recentlySeenMaxEntries;
+    }
+
+    public long getRecentlySeenTtlSeconds() {
+        return recentlySeenTtlSeconds;
+    }
+
+    public void setRecentlySeenTtlSeconds(long recentlySeenTtlSeconds) {
+        this.recentlySeenTtlSeconds = recentlySeenTtlSeconds;
+    }
+}
@@ -0,0 +1,110 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for dumping inbound and outbound AS4 messages into compressed segment files.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.dump")
+public class PeppolDumpConfiguration {
+    /** When false, the file-per-message dumpers of phase4 are used instead. */
+    private boolean segmentsEnabled = true;
+
+    /** The directory of the segment files. */
+    private String directory = "generated/phase4-dumps/";
+
+    /** The maximum number of dumps waiting to be written. Further dumps are dropped. */
+    private int queueCapacity = 1000;
+
+    /** The maximum total size of the dumps waiting to be written. Further dumps are dropped. */
+    private long maxQueuedBytes = 67108864;
+
+    /** Dumps larger than this are dropped instead of being buffered. */
+    private long maxDumpBytes = 16777216;
+
+    /** A new segment file is started once the current one has received this many uncompressed bytes. */
+    private long maxSegmentBytes = 268435456;
+
+    /** A new segment file is started once the current one is this old. */
+    private long maxSegmentAgeSeconds = 3600;
+
+    /** Segment files older than this are deleted. */
+    private int retentionDays = 30;
+
+    /** The pause between two retention cleanups. Only read at startup. */
+    private long cleanupIntervalMillis = 3600000;
+
+    public boolean isSegmentsEnabled() {
+        return segmentsEnabled;
+    }
+
+    public void setSegmentsEnabled(boolean segmentsEnabled) {
+        this.segmentsEnabled = segmentsEnabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    public long getMaxDumpBytes() {
+        return maxDumpBytes;
+    }
+
+    public void setMaxDumpBytes(long maxDumpBytes) {
+        this.maxDumpBytes = maxDumpBytes;
+    }
+
+    public long getMaxSegmentBytes() {
+        return maxSegmentBytes;
+    }
+
+    public void setMaxSegmentBytes(long maxSegmentBytes) {
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    public long getMaxSegmentAgeSeconds() {
+        return maxSegmentAgeSeconds;
+    }
+
+    public void setMaxSegmentAgeSeconds(long maxSegmentAgeSeconds) {
+        this.maxSegmentAgeSeconds = maxSegmentAgeSeconds;
+    }
+
+    public int getRetentionDays() {
+        return retentionDays;
+    }
+
+    public void setRetentionDays(int retentionDays) {
+        this.retentionDays = retentionDays;
+    }
+
+    public long getCleanupIntervalMillis() {
+        return cleanupIntervalMillis;
+    }
+
+    public void setCleanupIntervalMillis(long cleanupIntervalMillis) {
+        this.cleanupIntervalMillis = cleanupIntervalMillis;
+    }
+}
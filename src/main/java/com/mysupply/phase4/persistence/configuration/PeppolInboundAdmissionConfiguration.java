@@ -0,0 +1,69 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for limiting the inbound AS4 messages that are handled at the same time.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.inbound.admission")
+public class PeppolInboundAdmissionConfiguration {
+    /** When false, every inbound request is admitted. */
+    private boolean enabled = true;
+
+    /** The maximum number of inbound messages handled at the same time. */
+    private int maxConcurrentMessages = 64;
+
+    /**
+     * The maximum sum of the request sizes of all inbound messages handled at the same time. A single message is
+     * always admitted when no other message is in flight, so larger messages are not rejected forever.
+     */
+    private long maxInFlightBytes = 268435456;
+
+    /** The size assumed for requests without a Content-Length header. */
+    private long unknownContentLengthBytes = 1048576;
+
+    /** The value of the Retry-After header sent with a rejection. */
+    private int retryAfterSeconds = 30;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxConcurrentMessages() {
+        return maxConcurrentMessages;
+    }
+
+    public void setMaxConcurrentMessages(int maxConcurrentMessages) {
+        this.maxConcurrentMessages = maxConcurrentMessages;
+    }
+
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    public long getUnknownContentLengthBytes() {
+        return unknownContentLengthBytes;
+    }
+
+    public void setUnknownContentLengthBytes(long unknownContentLengthBytes) {
+        this.unknownContentLengthBytes = unknownContentLengthBytes;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
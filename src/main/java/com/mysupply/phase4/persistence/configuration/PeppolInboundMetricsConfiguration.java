@@ -0,0 +1,37 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limits the document type tags of the inbound message metrics. Every tag value adds a percentile histogram, and the
+ * document type is chosen by the sender.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.metrics.inbound")
+public class PeppolInboundMetricsConfiguration {
+    /** The document type identifiers reported as their own tag. When empty, the first ones seen are used instead. */
+    private List<String> docTypes = new ArrayList<>();
+
+    /** How many distinct document types are reported as their own tag when no list is configured. */
+    private int maxDocTypes = 50;
+
+    public List<String> getDocTypes() {
+        return docTypes;
+    }
+
+    public void setDocTypes(List<String> docTypes) {
+        this.docTypes = docTypes;
+    }
+
+    public int getMaxDocTypes() {
+        return maxDocTypes;
+    }
+
+    public void setMaxDocTypes(int maxDocTypes) {
+        this.maxDocTypes = maxDocTypes;
+    }
+}
@@ -0,0 +1,93 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receiver configurations for additional AP endpoints hosted on this node, selected per inbound request by host name
+ * or URL prefix. Requests that match no route use the default receiver configuration.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.receiver.routing")
+public class PeppolReceiverRoutingConfiguration {
+    private List<Route> routes = new ArrayList<>();
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(List<Route> routes) {
+        this.routes = routes;
+    }
+
+    public static class Route {
+        /** The host name the route applies to, e.g. "ap-prod.example.org". Either this or the URL prefix is set. */
+        private String host;
+
+        /** The URL prefix the route applies to, e.g. "https://ap-prod.example.org/as4". The longest match wins. */
+        private String urlPrefix;
+
+        /** Whether inbound receivers are checked against the SMP. */
+        private boolean receiverCheckEnabled = true;
+
+        /** The SMP the receivers of this endpoint are registered in. */
+        private String smpUrl;
+
+        /** The public AS4 endpoint URL of this endpoint, as registered in the SMP. */
+        private String as4EndpointUrl;
+
+        /** The PEM encoded AP certificate of this endpoint, as registered in the SMP. */
+        private String apCertificate;
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        public String getUrlPrefix() {
+            return urlPrefix;
+        }
+
+        public void setUrlPrefix(String urlPrefix) {
+            this.urlPrefix = urlPrefix;
+        }
+
+        public boolean isReceiverCheckEnabled() {
+            return receiverCheckEnabled;
+        }
+
+        public void setReceiverCheckEnabled(boolean receiverCheckEnabled) {
+            this.receiverCheckEnabled = receiverCheckEnabled;
+        }
+
+        public String getSmpUrl() {
+            return smpUrl;
+        }
+
+        public void setSmpUrl(String smpUrl) {
+            this.smpUrl = smpUrl;
+        }
+
+        public String getAs4EndpointUrl() {
+            return as4EndpointUrl;
+        }
+
+        public void setAs4EndpointUrl(String as4EndpointUrl) {
+            this.as4EndpointUrl = as4EndpointUrl;
+        }
+
+        public String getApCertificate() {
+            return apCertificate;
+        }
+
+        public void setApCertificate(String apCertificate) {
+            this.apCertificate = apCertificate;
+        }
+    }
+}
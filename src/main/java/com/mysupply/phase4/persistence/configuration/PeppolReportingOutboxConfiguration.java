@@ -0,0 +1,88 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for moving Peppol reporting items from the outbox table to the reporting backend.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.reporting.outbox")
+public class PeppolReportingOutboxConfiguration {
+    /** When false, items stay in the outbox until the drainer is enabled again. */
+    private boolean drainerEnabled = true;
+
+    /** The maximum number of items stored in the reporting backend per pass. */
+    private int batchSize = 200;
+
+    /** The pause between two drainer passes. Only read at startup. */
+    private long pollIntervalMillis = 1000;
+
+    /** The delay before the first retry of a failed batch. It doubles with every further failure. */
+    private long initialBackoffMillis = 10000;
+
+    /** The upper bound of the retry delay. */
+    private long maxBackoffMillis = 3600000;
+
+    /** The number of failed attempts after which an item is dead-lettered and no longer retried. */
+    private int maxAttempts = 20;
+
+    /** How long claimed items are hidden from other drainers while they are stored. Must exceed the time of a batch. */
+    private long leaseMillis = 300000;
+
+    public boolean isDrainerEnabled() {
+        return drainerEnabled;
+    }
+
+    public void setDrainerEnabled(boolean drainerEnabled) {
+        this.drainerEnabled = drainerEnabled;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+}
@@ -0,0 +1,69 @@
+package com.mysupply.phase4.persistence.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for caching the SMP lookups of the inbound receiver check.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "peppol.smp.cache")
+public class PeppolSmpCacheConfiguration {
+    /** When false, every inbound message queries the SMP. */
+    private boolean enabled = true;
+
+    /** The maximum number of cached lookups. */
+    private long maxEntries = 10000;
+
+    /** How long a found service metadata entry is used. */
+    private long ttlSeconds = 3600;
+
+    /** How long a lookup that found no service metadata is used. */
+    private long negativeTtlSeconds = 300;
+
+    /**
+     * An entry used after this age is reloaded in the background while the cached value is still returned. Should be
+     * lower than both TTLs, so entries in use never expire.
+     */
+    private long refreshAfterSeconds = 240;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(long maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public long getNegativeTtlSeconds() {
+        return negativeTtlSeconds;
+    }
+
+    public void setNegativeTtlSeconds(long negativeTtlSeconds) {
+        this.negativeTtlSeconds = negativeTtlSeconds;
+    }
+
+    public long getRefreshAfterSeconds() {
+        return refreshAfterSeconds;
+    }
+
+    public void setRefreshAfterSeconds(long refreshAfterSeconds) {
+        this.refreshAfterSeconds = refreshAfterSeconds;
+    }
+}
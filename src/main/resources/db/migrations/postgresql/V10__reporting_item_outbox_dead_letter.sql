@@ -0,0 +1,6 @@
+-- Reporting items that failed too often are kept as dead letters instead of being retried forever.
+ALTER TABLE reporting_item_outbox ADD COLUMN dead_lettered TIMESTAMPTZ NULL;   -- The time the item was given up, NULL while it is retried
+
+-- The drainer only looks at items that are still retried
+DROP INDEX idx_reporting_item_outbox_next_attempt;
+CREATE INDEX idx_reporting_item_outbox_next_attempt ON reporting_item_outbox (next_attempt, id) WHERE dead_lettered IS NULL;
@@ -0,0 +1,8 @@
+-- The SHA-256 hash of the decoded inline payload of documents without a shared payload, so their ETag is not
+-- computed from the payload on every download. New documents get it when they are stored.
+ALTER TABLE document ADD COLUMN data_hash VARCHAR(64) NULL;   -- Hex encoded SHA-256 hash of the decoded inline payload
+
+-- Documents stored before compression was added all use 'none', so this covers them. SQL cannot decode the few
+-- compressed inline payloads stored before the hash was set at ingest; their downloads hash them without storing it
+UPDATE document SET data_hash = encode(sha256(data), 'hex')
+WHERE payload_hash IS NULL AND data IS NOT NULL AND data_codec = 'none';
@@ -0,0 +1,26 @@
+-- Peppol reporting items waiting to be stored in the reporting backend.
+-- Inbound rows are written in the same transaction as their document, so no item is lost on a crash.
+CREATE TABLE reporting_item_outbox
+(
+    id                  BIGSERIAL NOT NULL,
+    created             TIMESTAMPTZ NOT NULL,   -- The time the item was added to the outbox
+    exchange_dt         TIMESTAMPTZ NOT NULL,   -- The exchange date and time of the message (UTC)
+    direction           VARCHAR NOT NULL,       -- The reporting direction ID (sending or receiving)
+    c2_id               VARCHAR NOT NULL,       -- The Seat ID of C2
+    c3_id               VARCHAR NOT NULL,       -- The Seat ID of C3
+    doctype_scheme      VARCHAR NOT NULL,       -- The document type identifier scheme
+    doctype_value       VARCHAR NOT NULL,       -- The document type identifier value
+    process_scheme      VARCHAR NOT NULL,       -- The process identifier scheme
+    process_value       VARCHAR NOT NULL,       -- The process identifier value
+    transport_protocol  VARCHAR NOT NULL,       -- The transport protocol used
+    c1_country_code     VARCHAR NOT NULL,       -- The country code of C1
+    c4_country_code     VARCHAR NULL,           -- The country code of C4 (only for received messages)
+    end_user_id         VARCHAR NOT NULL,       -- The end user ID
+    attempts            INT NOT NULL DEFAULT 0, -- The number of failed attempts to store the item
+    next_attempt        TIMESTAMPTZ NOT NULL,   -- The earliest time the next attempt may happen
+    last_error          VARCHAR NULL,           -- The error message of the last failed attempt
+    CONSTRAINT pk_reporting_item_outbox PRIMARY KEY (id)
+);
+
+-- Index for the drainer, which picks the oldest items that are due
+CREATE INDEX idx_reporting_item_outbox_next_attempt ON reporting_item_outbox (next_attempt, id);
@@ -0,0 +1,3 @@
+-- The codec the stored payload is encoded with. Existing rows hold the raw payload.
+-- data_size keeps reporting the size of the decoded payload.
+ALTER TABLE document ADD COLUMN data_codec VARCHAR NOT NULL DEFAULT 'none';
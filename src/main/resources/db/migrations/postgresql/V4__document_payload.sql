@@ -0,0 +1,37 @@
+-- Payloads shared by all documents with byte-identical content, keyed by the SHA-256 hash of the decoded payload.
+-- Documents written before this migration keep their payload inline in document.data.
+CREATE TABLE document_payload
+(
+    hash        VARCHAR(64) NOT NULL,   -- Hex encoded SHA-256 hash of the decoded payload
+    data        BYTEA NOT NULL,         -- The payload, encoded with data_codec
+    data_codec  VARCHAR NOT NULL,       -- The codec of data, see document.data_codec
+    data_size   BIGINT NOT NULL,        -- The size of the decoded payload
+    ref_count   BIGINT NOT NULL,        -- The number of documents pointing to this payload
+    created     TIMESTAMPTZ NOT NULL,   -- The time the payload was first stored
+    CONSTRAINT pk_document_payload PRIMARY KEY (hash)
+);
+
+ALTER TABLE document ALTER COLUMN data DROP NOT NULL;
+ALTER TABLE document ADD COLUMN payload_hash VARCHAR(64) NULL;
+-- Deferred, so a document and its payload can be written in either order within one transaction
+ALTER TABLE document ADD CONSTRAINT fk_document_payload FOREIGN KEY (payload_hash)
+    REFERENCES document_payload (hash) DEFERRABLE INITIALLY DEFERRED;
+CREATE INDEX idx_document_payload_hash ON document (payload_hash) WHERE payload_hash IS NOT NULL;
+
+-- Releases the payload reference of a deleted document and removes payloads that are no longer referenced
+CREATE FUNCTION document_payload_release() RETURNS trigger
+    LANGUAGE plpgsql
+    SET search_path FROM CURRENT
+AS $$
+BEGIN
+    IF OLD.payload_hash IS NOT NULL THEN
+        UPDATE document_payload SET ref_count = ref_count - 1 WHERE hash = OLD.payload_hash;
+        DELETE FROM document_payload WHERE hash = OLD.payload_hash AND ref_count <= 0;
+    END IF;
+    RETURN OLD;
+END;
+$$;
+
+CREATE TRIGGER trg_document_payload_release
+    AFTER DELETE ON document
+    FOR EACH ROW EXECUTE FUNCTION document_payload_release();
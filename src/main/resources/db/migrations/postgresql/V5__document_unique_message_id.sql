@@ -0,0 +1,13 @@
+-- Redelivered AS4 messages created a second document. Keep one row per (domain, message_id):
+-- a retrieved row if there is one, otherwise the oldest. The payload trigger releases the references of removed rows.
+DELETE FROM document
+WHERE id IN (SELECT id
+             FROM (SELECT id,
+                          ROW_NUMBER() OVER (PARTITION BY domain, message_id
+                                             ORDER BY retrieved IS NULL, created, id) AS position
+                   FROM document
+                   WHERE message_id IS NOT NULL) ranked
+             WHERE position > 1);
+
+-- Inbound inserts use ON CONFLICT DO NOTHING on this index, so a redelivered message is stored only once
+CREATE UNIQUE INDEX uq_document_domain_message_id ON document (domain, message_id);
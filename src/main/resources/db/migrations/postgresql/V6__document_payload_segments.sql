@@ -0,0 +1,11 @@
+-- Payloads can be kept outside the database in append-only segment files.
+-- Such rows have no data, only the location of the encoded payload in the segment file.
+ALTER TABLE document_payload ALTER COLUMN data DROP NOT NULL;
+ALTER TABLE document_payload ADD COLUMN segment_id BIGINT NULL;      -- The segment file holding the payload
+ALTER TABLE document_payload ADD COLUMN segment_offset BIGINT NULL;  -- The byte offset of the payload in the segment
+ALTER TABLE document_payload ADD COLUMN segment_length INT NULL;     -- The length of the encoded payload
+ALTER TABLE document_payload ADD CONSTRAINT chk_document_payload_location
+    CHECK ((data IS NOT NULL) <> (segment_id IS NOT NULL));
+
+-- Index for the compaction job, which looks up the live payloads per segment
+CREATE INDEX idx_document_payload_segment ON document_payload (segment_id, segment_offset) WHERE segment_id IS NOT NULL;
@@ -0,0 +1,58 @@
+-- Long metadata values (domains, document types, processes, protocols, certificate DNs) repeat across many rows.
+-- They are stored once in this dictionary and referenced from document by a small integer key.
+CREATE TABLE metadata_dictionary
+(
+    id      INT GENERATED BY DEFAULT AS IDENTITY,
+    value   TEXT NOT NULL,
+    CONSTRAINT pk_metadata_dictionary PRIMARY KEY (id),
+    CONSTRAINT uq_metadata_dictionary_value UNIQUE (value)
+);
+
+INSERT INTO metadata_dictionary (value)
+SELECT value
+FROM (SELECT domain AS value FROM document
+      UNION SELECT doc_type FROM document
+      UNION SELECT process FROM document
+      UNION SELECT protocol FROM document
+      UNION SELECT sender_certificate FROM document
+      UNION SELECT receiver_certificate FROM document) v
+WHERE value IS NOT NULL;
+
+ALTER TABLE document ADD COLUMN domain_id INT NULL;                 -- The domain that received the document
+ALTER TABLE document ADD COLUMN doc_type_id INT NULL;               -- The document type from SBDH
+ALTER TABLE document ADD COLUMN process_id INT NULL;                -- The process identifier from SBDH
+ALTER TABLE document ADD COLUMN protocol_id INT NULL;               -- The protocol used
+ALTER TABLE document ADD COLUMN sender_certificate_id INT NULL;     -- The sender's certificate DN
+ALTER TABLE document ADD COLUMN receiver_certificate_id INT NULL;   -- The receiver's certificate DN
+
+UPDATE document d
+SET domain_id               = (SELECT m.id FROM metadata_dictionary m WHERE m.value = d.domain),
+    doc_type_id             = (SELECT m.id FROM metadata_dictionary m WHERE m.value = d.doc_type),
+    process_id              = (SELECT m.id FROM metadata_dictionary m WHERE m.value = d.process),
+    protocol_id             = (SELECT m.id FROM metadata_dictionary m WHERE m.value = d.protocol),
+    sender_certificate_id   = (SELECT m.id FROM metadata_dictionary m WHERE m.value = d.sender_certificate),
+    receiver_certificate_id = (SELECT m.id FROM metadata_dictionary m WHERE m.value = d.receiver_certificate);
+
+ALTER TABLE document ALTER COLUMN domain_id SET NOT NULL;
+ALTER TABLE document ALTER COLUMN doc_type_id SET NOT NULL;
+ALTER TABLE document ALTER COLUMN process_id SET NOT NULL;
+
+ALTER TABLE document ADD CONSTRAINT fk_document_domain FOREIGN KEY (domain_id) REFERENCES metadata_dictionary (id);
+ALTER TABLE document ADD CONSTRAINT fk_document_doc_type FOREIGN KEY (doc_type_id) REFERENCES metadata_dictionary (id);
+ALTER TABLE document ADD CONSTRAINT fk_document_process FOREIGN KEY (process_id) REFERENCES metadata_dictionary (id);
+ALTER TABLE document ADD CONSTRAINT fk_document_protocol FOREIGN KEY (protocol_id) REFERENCES metadata_dictionary (id);
+ALTER TABLE document ADD CONSTRAINT fk_document_sender_certificate FOREIGN KEY (sender_certificate_id) REFERENCES metadata_dictionary (id);
+ALTER TABLE document ADD CONSTRAINT fk_document_receiver_certificate FOREIGN KEY (receiver_certificate_id) REFERENCES metadata_dictionary (id);
+
+-- Dropping the text columns also drops the indexes built on them, they are recreated on the keys
+ALTER TABLE document DROP COLUMN domain;
+ALTER TABLE document DROP COLUMN doc_type;
+ALTER TABLE document DROP COLUMN process;
+ALTER TABLE document DROP COLUMN protocol;
+ALTER TABLE document DROP COLUMN sender_certificate;
+ALTER TABLE document DROP COLUMN receiver_certificate;
+
+CREATE INDEX idx_document_domain ON document (domain_id);
+CREATE UNIQUE INDEX uq_document_domain_message_id ON document (domain_id, message_id);
+CREATE INDEX idx_document_not_retrieved_search ON document (retrieved, sender_identifier, receiver_identifier, domain_id, created)
+    WHERE retrieved IS NULL;
@@ -0,0 +1,7 @@
+-- Not retrieved document IDs are paged by (created, id). The partial index is rebuilt with these columns first, so a
+-- page is read in index order from the cursor position and stops after the page size, without sorting all matches.
+-- The search columns are included, so the filters are evaluated on the index entries.
+DROP INDEX idx_document_not_retrieved_search;
+CREATE INDEX idx_document_not_retrieved_search ON document (created, id)
+    INCLUDE (sender_identifier, receiver_identifier, domain_id)
+    WHERE retrieved IS NULL;
@@ -0,0 +1,4 @@
+-- A connector can lease pending documents, so concurrent connectors do not download the same documents.
+-- A lease that is not followed by a confirmation expires, and the document can be claimed again.
+ALTER TABLE document ADD COLUMN leased_until TIMESTAMPTZ NULL;            -- The time the current lease expires
+ALTER TABLE document ADD COLUMN leased_by_connector_id UUID NULL;         -- The id of the connector holding the lease
@@ -0,0 +1,93 @@
+package com.mysupply.phase4.peppolstandalone.controller;
+
+import com.mysupply.phase4.peppolstandalone.dto.DocumentCursor;
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveSearchSetting;
+import com.mysupply.phase4.persistence.DocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeppolRetrieverControllerTest {
+
+    @Test
+    void testNegotiateMediaType_missingOrWildcardAccept_shouldReturnDefault() {
+        assertSame(MediaType.APPLICATION_JSON,
+                PeppolRetrieverController.negotiateMediaType(null, MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM));
+        assertSame(MediaType.APPLICATION_JSON,
+                PeppolRetrieverController.negotiateMediaType("*/*", MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM));
+        assertSame(MediaType.APPLICATION_JSON,
+                PeppolRetrieverController.negotiateMediaType("not a media type", MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM));
+    }
+
+    @Test
+    void testNegotiateMediaType_explicitAlternative_shouldReturnAlternative() {
+        assertSame(MediaType.APPLICATION_OCTET_STREAM,
+                PeppolRetrieverController.negotiateMediaType("application/octet-stream", MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM));
+        assertSame(MediaType.MULTIPART_MIXED,
+                PeppolRetrieverController.negotiateMediaType("multipart/mixed, */*;q=0.5", MediaType.APPLICATION_NDJSON, MediaType.MULTIPART_MIXED));
+    }
+
+    @Test
+    void testNegotiateMediaType_defaultPreferred_shouldReturnDefault() {
+        assertSame(MediaType.APPLICATION_JSON,
+                PeppolRetrieverController.negotiateMediaType("application/octet-stream;q=0.5, application/json", MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM));
+    }
+
+    @Test
+    void testToETag_shouldNameTheContentCoding() {
+        assertEquals("\"abc\"", PeppolRetrieverController.toETag("abc", DocumentCodec.NONE));
+        assertEquals("\"abc-gzip\"", PeppolRetrieverController.toETag("abc", DocumentCodec.GZIP));
+    }
+
+    @Test
+    void testMatchesIfNoneMatch_shouldUseWeakComparison() {
+        assertTrue(PeppolRetrieverController.matchesIfNoneMatch("\"abc\"", "\"abc\""));
+        assertTrue(PeppolRetrieverController.matchesIfNoneMatch("\"other\", W/\"abc\"", "\"abc\""));
+        assertTrue(PeppolRetrieverController.matchesIfNoneMatch("*", "\"abc\""));
+        assertFalse(PeppolRetrieverController.matchesIfNoneMatch("\"abc-gzip\"", "\"abc\""));
+        assertFalse(PeppolRetrieverController.matchesIfNoneMatch(null, "\"abc\""));
+    }
+
+    @Test
+    void testDecodeCursor_missingCursor_shouldReturnNull() {
+        // Arrange
+        RetrieveSearchSetting searchSetting = new RetrieveSearchSetting();
+
+        // Act & Assert
+        assertNull(PeppolRetrieverController.decodeCursor(searchSetting));
+        searchSetting.setCursor("");
+        assertNull(PeppolRetrieverController.decodeCursor(searchSetting));
+    }
+
+    @Test
+    void testDecodeCursor_encodedCursor_shouldReturnPosition() {
+        // Arrange
+        DocumentCursor cursor = new DocumentCursor(UUID.randomUUID(), OffsetDateTime.of(2026, 1, 2, 3, 4, 5, 0, ZoneOffset.UTC));
+        RetrieveSearchSetting searchSetting = new RetrieveSearchSetting();
+        searchSetting.setCursor(cursor.encode());
+
+        // Act
+        DocumentCursor decoded = PeppolRetrieverController.decodeCursor(searchSetting);
+
+        // Assert
+        assertEquals(cursor.getId(), decoded.getId());
+        assertEquals(cursor.getCreated().toInstant(), decoded.getCreated().toInstant());
+    }
+
+    @Test
+    void testDecodeCursor_invalidCursor_shouldThrowBadRequest() {
+        // Arrange
+        RetrieveSearchSetting searchSetting = new RetrieveSearchSetting();
+        searchSetting.setCursor("not a cursor");
+
+        // Act & Assert
+        HttpBadRequestException ex = assertThrows(HttpBadRequestException.class,
+                () -> PeppolRetrieverController.decodeCursor(searchSetting));
+        assertEquals("Invalid cursor in RetrieveSearchSetting", ex.getMessage());
+    }
+}
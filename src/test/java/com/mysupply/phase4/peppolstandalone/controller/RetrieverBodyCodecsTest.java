@@ -0,0 +1,123 @@
+package com.mysupply.phase4.peppolstandalone.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mysupply.phase4.peppolstandalone.controller.RetrieverBodyCodecs.Encoding;
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveData;
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveSearchResult;
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveSearchSetting;
+import com.mysupply.phase4.persistence.AppConfig;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetrieverBodyCodecsTest {
+    private final ObjectMapper jsonMapper = new AppConfig().objectMapper();
+    private final RetrieverBodyCodecs codecs = new RetrieverBodyCodecs(this.jsonMapper);
+    private final Map<Encoding, ObjectMapper> mappers = Map.of(
+            Encoding.JSON, this.jsonMapper,
+            Encoding.CBOR, CBORMapper.builder().addModule(new JavaTimeModule()).disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build(),
+            Encoding.SMILE, SmileMapper.builder().addModule(new JavaTimeModule()).disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build());
+
+    @Test
+    void testFromContentType_shouldIgnoreParametersAndUnknownTypes() {
+        assertEquals(Encoding.CBOR, Encoding.fromContentType("application/cbor"));
+        assertEquals(Encoding.SMILE, Encoding.fromContentType("application/x-jackson-smile; charset=UTF-8"));
+        assertEquals(Encoding.JSON, Encoding.fromContentType("application/json"));
+        assertNull(Encoding.fromContentType("text/plain"));
+        assertNull(Encoding.fromContentType(null));
+    }
+
+    @Test
+    void testNegotiate_missingOrWildcardAccept_shouldReturnRequestEncoding() {
+        assertEquals(Encoding.CBOR, Encoding.negotiate(null, Encoding.CBOR));
+        assertEquals(Encoding.CBOR, Encoding.negotiate("*/*", Encoding.CBOR));
+        assertEquals(Encoding.SMILE, Encoding.negotiate("not a media type", Encoding.SMILE));
+    }
+
+    @Test
+    void testNegotiate_explicitEncoding_shouldReturnHighestQuality() {
+        assertEquals(Encoding.JSON, Encoding.negotiate("application/json", Encoding.CBOR));
+        assertEquals(Encoding.SMILE, Encoding.negotiate("application/cbor;q=0.5, application/x-jackson-smile", Encoding.CBOR));
+        assertEquals(Encoding.CBOR, Encoding.negotiate("application/json;q=0.5, */*", Encoding.CBOR));
+    }
+
+    @Test
+    void testRead_shouldDecodeSearchSettingInEveryEncoding() throws IOException {
+        // Arrange
+        RetrieveSearchSetting searchSetting = new RetrieveSearchSetting();
+        searchSetting.setSenderIdentifiers(List.of("0088:5790000435975"));
+        searchSetting.setRetrieveFromAllReceivers(true);
+        searchSetting.setPageSize(250);
+        searchSetting.setCursor("abc");
+
+        for (Encoding encoding : Encoding.values()) {
+            byte[] body = this.mappers.get(encoding).writeValueAsBytes(searchSetting);
+
+            // Act
+            RetrieveSearchSetting read = this.codecs.read(encoding, RetrieveSearchSetting.class, new ByteArrayInputStream(body));
+
+            // Assert
+            assertEquals(List.of("0088:5790000435975"), read.getSenderIdentifiers(), encoding.name());
+            assertTrue(read.isRetrieveFromAllReceivers(), encoding.name());
+            assertEquals(250, read.getPageSize(), encoding.name());
+            assertEquals("abc", read.getCursor(), encoding.name());
+        }
+    }
+
+    /// Stands in for a benchmark: the binary encodings must round trip and be clearly smaller than JSON for an ID page
+    /// and for a document payload, which is where the parsing and allocation savings come from.
+    @Test
+    void testWrite_binaryEncodings_shouldRoundTripAndBeSmallerThanJson() throws IOException {
+        // Arrange
+        RetrieveSearchResult searchResult = new RetrieveSearchResult();
+        for (int i = 0; i < 1000; i++) {
+            searchResult.addDocumentId(UUID.randomUUID());
+        }
+        byte[] payload = new byte[64 * 1024];
+        new Random(42).nextBytes(payload);
+        RetrieveData retrieveData = new RetrieveData();
+        retrieveData.setId(UUID.randomUUID());
+        retrieveData.setData(payload);
+        retrieveData.setCreated(OffsetDateTime.of(2026, 1, 2, 3, 4, 5, 0, ZoneOffset.UTC));
+        retrieveData.setDomain("peppol");
+
+        // Act
+        byte[] jsonResult = this.write(Encoding.JSON, searchResult);
+        byte[] jsonData = this.write(Encoding.JSON, retrieveData);
+
+        // Assert
+        for (Encoding encoding : List.of(Encoding.CBOR, Encoding.SMILE)) {
+            byte[] encodedResult = this.write(encoding, searchResult);
+            byte[] encodedData = this.write(encoding, retrieveData);
+            assertTrue(encodedResult.length < jsonResult.length, encoding.name());
+            assertTrue(encodedData.length < jsonData.length, encoding.name());
+
+            RetrieveSearchResult readResult = this.mappers.get(encoding).readValue(encodedResult, RetrieveSearchResult.class);
+            assertEquals(searchResult.getDocumentIds(), readResult.getDocumentIds(), encoding.name());
+            RetrieveData readData = this.mappers.get(encoding).readValue(encodedData, RetrieveData.class);
+            assertEquals(retrieveData.getId(), readData.getId(), encoding.name());
+            assertArrayEquals(payload, readData.getData(), encoding.name());
+            assertTrue(retrieveData.getCreated().isEqual(readData.getCreated()), encoding.name());
+        }
+    }
+
+    private byte[] write(Encoding encoding, Object value) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        this.codecs.write(encoding, value, outputStream);
+        return outputStream.toByteArray();
+    }
+}
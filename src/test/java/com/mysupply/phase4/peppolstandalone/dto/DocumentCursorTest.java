@@ -0,0 +1,44 @@
+package com.mysupply.phase4.peppolstandalone.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentCursorTest {
+
+    @Test
+    void testEncodeDecode_shouldKeepIdAndMicrosecondTimestamp() {
+        // Arrange
+        UUID id = UUID.fromString("11111111-1111-1111-1111-111111111111");
+        OffsetDateTime created = OffsetDateTime.of(2026, 3, 14, 15, 9, 26, 535897000, ZoneOffset.UTC);
+
+        // Act
+        DocumentCursor decoded = DocumentCursor.decode(new DocumentCursor(id, created).encode());
+
+        // Assert
+        assertEquals(id, decoded.getId());
+        assertEquals(created, decoded.getCreated());
+    }
+
+    @Test
+    void testEncode_shouldBeUrlSafe() {
+        // Arrange
+        DocumentCursor cursor = new DocumentCursor(UUID.randomUUID(), OffsetDateTime.now(ZoneOffset.UTC));
+
+        // Act
+        String encoded = cursor.encode();
+
+        // Assert
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    void testDecode_invalidValue_shouldThrowIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> DocumentCursor.decode("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> DocumentCursor.decode("bm8tc2VwYXJhdG9y"));
+    }
+}
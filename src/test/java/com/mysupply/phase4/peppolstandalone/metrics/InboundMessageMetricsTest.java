@@ -0,0 +1,73 @@
+package com.mysupply.phase4.peppolstandalone.metrics;
+
+import com.mysupply.phase4.peppolstandalone.spi.KnownDomains;
+import com.mysupply.phase4.persistence.configuration.PeppolInboundMetricsConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboundMessageMetricsTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testRecordOutcome_unknownDomain_shouldBeTaggedOther() {
+        // Arrange
+        InboundMessageMetrics metrics = this.createMetrics(new PeppolInboundMetricsConfiguration());
+
+        // Act
+        metrics.recordOutcome(InboundMessageMetrics.OUTCOME_STORED, "ap.example.org", "invoice");
+        metrics.recordOutcome(InboundMessageMetrics.OUTCOME_STORED, "random-1.example.org", "invoice");
+        metrics.recordOutcome(InboundMessageMetrics.OUTCOME_STORED, "random-2.example.org", "invoice");
+
+        // Assert
+        assertEquals(1, this.countMessages("ap.example.org", "invoice"));
+        assertEquals(2, this.countMessages("other", "invoice"));
+    }
+
+    @Test
+    void testRecordOutcome_docTypesBeyondLimit_shouldBeTaggedOther() {
+        // Arrange
+        PeppolInboundMetricsConfiguration configuration = new PeppolInboundMetricsConfiguration();
+        configuration.setMaxDocTypes(2);
+        InboundMessageMetrics metrics = this.createMetrics(configuration);
+
+        // Act
+        for (String docType : List.of("a", "b", "c", "d", "a")) {
+            metrics.recordOutcome(InboundMessageMetrics.OUTCOME_STORED, "ap.example.org", docType);
+        }
+
+        // Assert
+        assertEquals(2, this.countMessages("ap.example.org", "a"));
+        assertEquals(1, this.countMessages("ap.example.org", "b"));
+        assertEquals(2, this.countMessages("ap.example.org", "other"));
+    }
+
+    @Test
+    void testRecordOutcome_configuredDocTypes_shouldOnlyTagThose() {
+        // Arrange
+        PeppolInboundMetricsConfiguration configuration = new PeppolInboundMetricsConfiguration();
+        configuration.setDocTypes(List.of("invoice"));
+        InboundMessageMetrics metrics = this.createMetrics(configuration);
+
+        // Act
+        metrics.recordOutcome(InboundMessageMetrics.OUTCOME_STORED, "ap.example.org", "invoice");
+        metrics.recordOutcome(InboundMessageMetrics.OUTCOME_STORED, "ap.example.org", "order");
+
+        // Assert
+        assertEquals(1, this.countMessages("ap.example.org", "invoice"));
+        assertEquals(1, this.countMessages("ap.example.org", "other"));
+    }
+
+    private InboundMessageMetrics createMetrics(PeppolInboundMetricsConfiguration configuration) {
+        return new InboundMessageMetrics(this.meterRegistry, new KnownDomains(List.of("ap.example.org")), configuration);
+    }
+
+    private double countMessages(String domain, String docType) {
+        Counter counter = this.meterRegistry.find("phase4.inbound.messages").tags("domain", domain, "doc_type", docType).counter();
+        return counter != null ? counter.count() : 0;
+    }
+}
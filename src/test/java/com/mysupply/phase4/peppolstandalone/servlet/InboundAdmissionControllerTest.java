@@ -0,0 +1,111 @@
+package com.mysupply.phase4.peppolstandalone.servlet;
+
+import com.mysupply.phase4.persistence.configuration.PeppolInboundAdmissionConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboundAdmissionControllerTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testTryAdmit_concurrencyLimitReached_shouldRejectUntilReleased() {
+        // Arrange
+        InboundAdmissionController controller = this.createController(2, 1000);
+        assertNull(controller.tryAdmit(10));
+        assertNull(controller.tryAdmit(10));
+
+        // Act
+        InboundAdmissionController.Rejection rejection = controller.tryAdmit(10);
+        controller.release(10);
+        InboundAdmissionController.Rejection afterRelease = controller.tryAdmit(10);
+
+        // Assert
+        assertEquals(InboundAdmissionController.Rejection.CONCURRENCY, rejection);
+        assertNull(afterRelease);
+        assertEquals(1.0, this.meterRegistry.get("phase4.inbound.admission.rejected").tag("reason", "concurrency").counter().count());
+        assertEquals(2.0, this.meterRegistry.get("phase4.inbound.admission.in_flight").gauge().value());
+    }
+
+    @Test
+    void testTryAdmit_byteLimitReached_shouldRejectAndKeepBytes() {
+        // Arrange
+        InboundAdmissionController controller = this.createController(10, 100);
+        assertNull(controller.tryAdmit(60));
+
+        // Act
+        InboundAdmissionController.Rejection rejection = controller.tryAdmit(50);
+        InboundAdmissionController.Rejection fitting = controller.tryAdmit(40);
+
+        // Assert
+        assertEquals(InboundAdmissionController.Rejection.BYTES, rejection);
+        assertNull(fitting);
+        assertEquals(100.0, this.meterRegistry.get("phase4.inbound.admission.in_flight_bytes").gauge().value());
+        assertEquals(2.0, this.meterRegistry.get("phase4.inbound.admission.in_flight").gauge().value());
+        assertEquals(1.0, this.meterRegistry.get("phase4.inbound.admission.rejected").tag("reason", "bytes").counter().count());
+    }
+
+    @Test
+    void testTryAdmit_singleOversizedMessage_shouldBeAdmitted() {
+        // Arrange
+        InboundAdmissionController controller = this.createController(10, 100);
+
+        // Act
+        InboundAdmissionController.Rejection oversized = controller.tryAdmit(500);
+        InboundAdmissionController.Rejection next = controller.tryAdmit(1);
+        controller.release(500);
+        InboundAdmissionController.Rejection afterRelease = controller.tryAdmit(1);
+
+        // Assert
+        assertNull(oversized);
+        assertEquals(InboundAdmissionController.Rejection.BYTES, next);
+        assertNull(afterRelease);
+    }
+
+    @Test
+    void testTryAdmit_concurrentRequests_shouldNeverExceedLimit() throws Exception {
+        // Arrange
+        int maxConcurrentMessages = 8;
+        int threads = 64;
+        InboundAdmissionController controller = this.createController(maxConcurrentMessages, Long.MAX_VALUE);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        // Act
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return controller.tryAdmit(1) == null;
+                }));
+            }
+            start.countDown();
+        }
+
+        // Assert
+        int admitted = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get()) {
+                admitted++;
+            }
+        }
+        assertEquals(maxConcurrentMessages, admitted);
+        assertEquals((double) maxConcurrentMessages, this.meterRegistry.get("phase4.inbound.admission.in_flight").gauge().value());
+        assertEquals((double) maxConcurrentMessages, this.meterRegistry.get("phase4.inbound.admission.in_flight_bytes").gauge().value());
+    }
+
+    private InboundAdmissionController createController(int maxConcurrentMessages, long maxInFlightBytes) {
+        PeppolInboundAdmissionConfiguration configuration = new PeppolInboundAdmissionConfiguration();
+        configuration.setMaxConcurrentMessages(maxConcurrentMessages);
+        configuration.setMaxInFlightBytes(maxInFlightBytes);
+        return new InboundAdmissionController(configuration, this.meterRegistry);
+    }
+}
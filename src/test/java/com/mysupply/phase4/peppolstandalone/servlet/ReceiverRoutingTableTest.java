@@ -0,0 +1,84 @@
+package com.mysupply.phase4.peppolstandalone.servlet;
+
+import com.mysupply.phase4.persistence.configuration.PeppolReceiverRoutingConfiguration;
+import com.mysupply.phase4.persistence.configuration.PeppolSmpCacheConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReceiverRoutingTableTest {
+    private final ReceiverRoutingTable routingTable = ReceiverRoutingTable.build(configuration(
+                    route("ap-prod.example.org", null, "https://ap-prod.example.org/as4"),
+                    route(null, "https://ap.example.org/", "https://ap.example.org/as4"),
+                    route(null, "https://ap.example.org/test/", "https://ap.example.org/test/as4")),
+            new PeppolSmpCacheConfiguration(),
+            new SimpleMeterRegistry(),
+            Runnable::run);
+
+    @Test
+    void testResolve_nestedPrefixes_shouldReturnLongestPrefix() {
+        // Act
+        ReceiverRoutingTable.ReceiverRoute shortRoute = this.routingTable.resolve(null, "https://ap.example.org/as4");
+        ReceiverRoutingTable.ReceiverRoute longRoute = this.routingTable.resolve(null, "https://ap.example.org/test/as4");
+
+        // Assert
+        assertEquals("https://ap.example.org/", shortRoute.getUrlPrefix());
+        assertEquals("https://ap.example.org/test/", longRoute.getUrlPrefix());
+    }
+
+    @Test
+    void testResolve_hostAndPrefixMatch_shouldPreferHost() {
+        // Act
+        ReceiverRoutingTable.ReceiverRoute route = this.routingTable.resolve("ap-prod.example.org", "https://ap.example.org/test/as4");
+
+        // Assert
+        assertEquals("ap-prod.example.org", route.getHost());
+        assertEquals("https://ap-prod.example.org/as4", route.getAs4EndpointUrl());
+    }
+
+    @Test
+    void testResolve_hostInOtherCase_shouldMatchHost() {
+        // Act
+        ReceiverRoutingTable.ReceiverRoute route = this.routingTable.resolve("AP-Prod.Example.ORG", null);
+
+        // Assert
+        assertNotNull(route);
+        assertEquals("ap-prod.example.org", route.getHost());
+    }
+
+    @Test
+    void testResolve_noMatch_shouldReturnNullForDefault() {
+        // Act & Assert
+        assertNull(this.routingTable.resolve("other.example.org", "https://other.example.org/as4"));
+        assertNull(this.routingTable.resolve("other.example.org", "https://ap.example.or"));
+        assertNull(this.routingTable.resolve(null, null));
+        assertNull(ReceiverRoutingTable.empty().resolve("ap-prod.example.org", "https://ap.example.org/as4"));
+    }
+
+    @Test
+    void testBuild_routeWithoutHostOrPrefix_shouldThrow() {
+        // Arrange
+        PeppolReceiverRoutingConfiguration configuration = configuration(route(" ", null, "https://ap.example.org/as4"));
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> ReceiverRoutingTable.build(configuration,
+                new PeppolSmpCacheConfiguration(), new SimpleMeterRegistry(), Runnable::run));
+    }
+
+    private static PeppolReceiverRoutingConfiguration configuration(PeppolReceiverRoutingConfiguration.Route... routes) {
+        PeppolReceiverRoutingConfiguration configuration = new PeppolReceiverRoutingConfiguration();
+        configuration.setRoutes(List.of(routes));
+        return configuration;
+    }
+
+    private static PeppolReceiverRoutingConfiguration.Route route(String host, String urlPrefix, String as4EndpointUrl) {
+        PeppolReceiverRoutingConfiguration.Route route = new PeppolReceiverRoutingConfiguration.Route();
+        route.setHost(host);
+        route.setUrlPrefix(urlPrefix);
+        route.setAs4EndpointUrl(as4EndpointUrl);
+        return route;
+    }
+}
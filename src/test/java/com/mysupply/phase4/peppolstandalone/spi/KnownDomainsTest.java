@@ -0,0 +1,52 @@
+package com.mysupply.phase4.peppolstandalone.spi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KnownDomainsTest {
+
+    @Test
+    void testResolve_knownHost_shouldReturnConfiguredSpellingRegardlessOfCase() {
+        // Arrange
+        KnownDomains knownDomains = new KnownDomains(List.of("ap.example.org", " AP-Test.example.org "));
+
+        // Act & Assert
+        assertEquals("ap.example.org", knownDomains.resolve("AP.Example.org"));
+        assertEquals("AP-Test.example.org", knownDomains.resolve("ap-test.example.org"));
+    }
+
+    @Test
+    void testResolve_unknownOrMissingHost_shouldReturnOther() {
+        // Arrange
+        KnownDomains knownDomains = new KnownDomains(Arrays.asList("ap.example.org", null, ""));
+
+        // Act & Assert
+        assertEquals(KnownDomains.OTHER, knownDomains.resolve("attacker-" + System.nanoTime() + ".example.org"));
+        assertEquals(KnownDomains.OTHER, knownDomains.resolve("?"));
+        assertEquals(KnownDomains.OTHER, knownDomains.resolve(null));
+    }
+
+    @Test
+    void testNormalizeHost_proxyHeaderForms_shouldReturnFirstHostWithoutPort() {
+        // Act & Assert
+        assertEquals("ap.example.org", KnownDomains.normalizeHost("ap.example.org"));
+        assertEquals("ap.example.org", KnownDomains.normalizeHost("ap.example.org:443"));
+        assertEquals("ap.example.org", KnownDomains.normalizeHost(" ap.example.org:443 , proxy.example.org"));
+        assertEquals("[2001:db8::1]", KnownDomains.normalizeHost("[2001:db8::1]:8443"));
+        assertNull(KnownDomains.normalizeHost(" "));
+        assertNull(KnownDomains.normalizeHost(null));
+    }
+
+    @Test
+    void testResolve_normalizedForwardedHost_shouldMatchKnownHost() {
+        // Arrange
+        KnownDomains knownDomains = new KnownDomains(List.of("ap.example.org"));
+
+        // Act & Assert
+        assertEquals("ap.example.org", knownDomains.resolve(KnownDomains.normalizeHost("AP.example.org:443, internal")));
+    }
+}
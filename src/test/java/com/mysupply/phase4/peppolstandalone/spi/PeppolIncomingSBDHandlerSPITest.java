@@ -0,0 +1,47 @@
+package com.mysupply.phase4.peppolstandalone.spi;
+
+import com.helger.http.header.HttpHeaderMap;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeppolIncomingSBDHandlerSPITest {
+
+    @Test
+    void testGetDomain_forwardedHostForms_shouldReturnFirstHostWithoutPort() {
+        // Act & Assert
+        assertEquals("ap.example.org", PeppolIncomingSBDHandlerSPI.GetDomain(headers("ap.example.org:443", "internal:8080")));
+        assertEquals("ap.example.org", PeppolIncomingSBDHandlerSPI.GetDomain(headers("ap.example.org, proxy.example.org", "internal")));
+        assertEquals("internal", PeppolIncomingSBDHandlerSPI.GetDomain(headers(null, "internal:8080")));
+        assertEquals("?", PeppolIncomingSBDHandlerSPI.GetDomain(headers(" ", null)));
+    }
+
+    @Test
+    void testGetDomain_unlistedHosts_shouldKeepTheirOwnDomain() {
+        // Arrange
+        // The duplicate check is unique per domain and message ID, so the same message ID sent to two hosts that are
+        // not configured must not end up in one shared domain
+        HttpHeaderMap first = headers("ap-one.example.org:443", null);
+        HttpHeaderMap second = headers("ap-two.example.org", null);
+
+        // Act
+        String firstDomain = PeppolIncomingSBDHandlerSPI.GetDomain(first);
+        String secondDomain = PeppolIncomingSBDHandlerSPI.GetDomain(second);
+
+        // Assert
+        assertEquals("ap-one.example.org", firstDomain);
+        assertEquals("ap-two.example.org", secondDomain);
+        assertNotEquals(firstDomain, secondDomain);
+    }
+
+    private static HttpHeaderMap headers(String forwardedHost, String host) {
+        HttpHeaderMap headers = new HttpHeaderMap();
+        if (forwardedHost != null) {
+            headers.addHeader("X-Forwarded-Host", forwardedHost);
+        }
+        if (host != null) {
+            headers.addHeader("host", host);
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,115 @@
+package com.mysupply.phase4.persistence;
+
+import com.mysupply.phase4.peppolstandalone.dto.RetrieveSearchSetting;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DocumentClaimerTest {
+    private static final OffsetDateTime CREATED = OffsetDateTime.of(2026, 1, 2, 3, 4, 5, 0, ZoneOffset.UTC);
+
+    private final DataSource dataSource = mock(DataSource.class);
+    private final Connection connection = mock(Connection.class);
+    private final PreparedStatement statement = mock(PreparedStatement.class);
+    private final ResultSet resultSet = mock(ResultSet.class);
+    private final MetadataDictionary metadataDictionary = mock(MetadataDictionary.class);
+    private final Array senderArray = mock(Array.class);
+    private final Array receiverArray = mock(Array.class);
+    private final Array domainArray = mock(Array.class);
+    private final DocumentClaimer claimer = new DocumentClaimer(this.dataSource, this.metadataDictionary);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(this.dataSource.getConnection()).thenReturn(this.connection);
+        when(this.connection.prepareStatement(anyString())).thenReturn(this.statement);
+        when(this.statement.executeQuery()).thenReturn(this.resultSet);
+        when(this.connection.createArrayOf(eq("varchar"), any())).thenAnswer(invocation -> {
+            Object[] elements = invocation.getArgument(1);
+            return elements.length > 0 && "0088:sender".equals(elements[0]) ? this.senderArray : this.receiverArray;
+        });
+        when(this.connection.createArrayOf(eq("integer"), any())).thenReturn(this.domainArray);
+    }
+
+    @Test
+    void testClaim_unorderedRows_shouldReturnOldestFirstThenById() throws Exception {
+        // Arrange
+        UUID newest = UUID.fromString("00000000-0000-0000-0000-000000000001");
+        UUID oldestHighId = UUID.fromString("00000000-0000-0000-0000-000000000003");
+        UUID oldestLowId = UUID.fromString("00000000-0000-0000-0000-000000000002");
+        when(this.resultSet.next()).thenReturn(true, true, true, false);
+        when(this.resultSet.getObject(1, UUID.class)).thenReturn(newest, oldestHighId, oldestLowId);
+        when(this.resultSet.getObject(2, OffsetDateTime.class)).thenReturn(CREATED.plusMinutes(1), CREATED, CREATED);
+
+        // Act
+        List<UUID> claimed = this.claimer.claim(new RetrieveSearchSetting(), UUID.randomUUID(), 10, CREATED.plusMinutes(5));
+
+        // Assert
+        assertEquals(List.of(oldestLowId, oldestHighId, newest), claimed);
+    }
+
+    @Test
+    void testClaim_sameReceptionTime_shouldOrderIdsUnsignedLikePostgres() throws Exception {
+        // Arrange
+        UUID highBit = UUID.fromString("80000000-0000-0000-0000-000000000000");
+        UUID low = UUID.fromString("00000000-0000-0000-0000-000000000001");
+        when(this.resultSet.next()).thenReturn(true, true, false);
+        when(this.resultSet.getObject(1, UUID.class)).thenReturn(highBit, low);
+        when(this.resultSet.getObject(2, OffsetDateTime.class)).thenReturn(CREATED, CREATED);
+
+        // Act
+        List<UUID> claimed = this.claimer.claim(new RetrieveSearchSetting(), UUID.randomUUID(), 10, CREATED.plusMinutes(5));
+
+        // Assert
+        assertEquals(List.of(low, highBit), claimed);
+    }
+
+    @Test
+    void testClaim_criteria_shouldBindFlagsArraysAndLease() throws Exception {
+        // Arrange
+        RetrieveSearchSetting search = new RetrieveSearchSetting();
+        search.setSenderIdentifiers(List.of("0088:sender"));
+        search.setRetrieveFromAllSenders(false);
+        search.setReceiverIdentifiers(List.of());
+        search.setRetrieveFromAllReceivers(true);
+        search.setDomains(List.of("peppol", "unknown"));
+        search.setRetrieveFromAllDomains(false);
+        when(this.metadataDictionary.findIdOrUnknown("peppol")).thenReturn(7);
+        when(this.metadataDictionary.findIdOrUnknown("unknown")).thenReturn(MetadataDictionary.UNKNOWN_ID);
+        UUID connectorId = UUID.randomUUID();
+        OffsetDateTime leasedUntil = CREATED.plusMinutes(5);
+        when(this.resultSet.next()).thenReturn(false);
+
+        // Act
+        List<UUID> claimed = this.claimer.claim(search, connectorId, 25, leasedUntil);
+
+        // Assert
+        assertTrue(claimed.isEmpty());
+        verify(this.statement).setBoolean(2, false);
+        verify(this.statement).setArray(3, this.senderArray);
+        verify(this.statement).setBoolean(4, true);
+        verify(this.statement).setArray(5, this.receiverArray);
+        verify(this.statement).setBoolean(6, false);
+        verify(this.statement).setArray(7, this.domainArray);
+        verify(this.connection).createArrayOf("integer", new Integer[] { 7, MetadataDictionary.UNKNOWN_ID });
+        verify(this.statement).setInt(8, 25);
+        verify(this.statement).setObject(9, leasedUntil);
+        verify(this.statement).setObject(10, connectorId);
+    }
+}
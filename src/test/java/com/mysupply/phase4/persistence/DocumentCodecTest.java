@@ -0,0 +1,42 @@
+package com.mysupply.phase4.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentCodecTest {
+
+    private static final byte[] PAYLOAD = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Invoice>"
+            + "<cbc:Note>Repeated content compresses well</cbc:Note>".repeat(100)
+            + "</Invoice>").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testRoundtrip_allCodecs_shouldReturnOriginalPayload() {
+        for (DocumentCodec codec : DocumentCodec.values()) {
+            // Act
+            byte[] decoded = codec.decode(codec.encode(PAYLOAD));
+
+            // Assert
+            assertArrayEquals(PAYLOAD, decoded, "Roundtrip failed for " + codec);
+        }
+    }
+
+    @Test
+    void testEncode_gzip_shouldBeSmallerThanPayload() {
+        // Act
+        byte[] encoded = DocumentCodec.GZIP.encode(PAYLOAD);
+
+        // Assert
+        assertTrue(encoded.length < PAYLOAD.length / 5);
+    }
+
+    @Test
+    void testFromId_shouldResolveKnownIdsAndNull() {
+        assertEquals(DocumentCodec.NONE, DocumentCodec.fromId(null));
+        assertEquals(DocumentCodec.GZIP, DocumentCodec.fromId("gzip"));
+        assertEquals(DocumentCodec.ZSTD, DocumentCodec.fromId("ZSTD"));
+        assertThrows(IllegalArgumentException.class, () -> DocumentCodec.fromId("brotli"));
+    }
+}
@@ -0,0 +1,272 @@
+package com.mysupply.phase4.persistence;
+
+import com.mysupply.phase4.domain.Document;
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentsIngestConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DocumentGroupCommitterTest {
+    private final DocumentJdbcWriter documentJdbcWriter = mock(DocumentJdbcWriter.class);
+    private final List<Integer> insertedBatchSizes = new ArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // Every caller blocks until its document is committed, so each needs its own thread
+    private final ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+    private DocumentGroupCommitter committer;
+
+    @AfterEach
+    void tearDown() {
+        this.callers.shutdownNow();
+        if (this.committer != null) {
+            this.committer.stop();
+        }
+    }
+
+    @Test
+    void testStore_concurrentDocuments_shouldBeCommittedInOneBatch() throws Exception {
+        // Arrange
+        this.startCommitter(1000, 30000);
+        this.answerInsert(null);
+
+        // Act
+        List<Boolean> results = this.storeConcurrently(documents(5));
+
+        // Assert
+        assertEquals(List.of(true, true, true, true, true), results);
+        assertEquals(List.of(5), this.insertedBatchSizes);
+    }
+
+    @Test
+    void testStore_batchWithBadDocument_shouldOnlyFailTheBadDocument() throws Exception {
+        // Arrange
+        this.startCommitter(1000, 30000);
+        List<Document> documents = documents(4);
+        Document bad = documents.get(2);
+        this.answerInsert(bad);
+
+        // Act
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (Document document : documents) {
+            futures.add(CompletableFuture.supplyAsync(() -> this.committer.store(document, null), this.callers));
+        }
+
+        // Assert
+        for (int i = 0; i < futures.size(); i++) {
+            if (documents.get(i) == bad) {
+                CompletableFuture<Boolean> future = futures.get(i);
+                Exception ex = assertThrows(Exception.class, () -> future.get(10, TimeUnit.SECONDS));
+                assertInstanceOf(IllegalStateException.class, ex.getCause());
+            } else {
+                assertTrue(futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test
+    void testStore_slowCommit_shouldTimeOut() throws Exception {
+        // Arrange
+        this.startCommitter(0, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        when(this.documentJdbcWriter.insert(anyList(), anyList())).thenAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            return Set.of();
+        });
+
+        // Act & Assert
+        try {
+            IllegalStateException ex = assertThrows(IllegalStateException.class, () -> this.committer.store(documents(1).get(0), null));
+            assertTrue(ex.getMessage().contains("Timed out"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testStore_connectionFailure_shouldFailWholeBatchWithoutRetrying() throws Exception {
+        // Arrange
+        this.startCommitter(1000, 30000);
+        AtomicInteger attempts = new AtomicInteger();
+        when(this.documentJdbcWriter.insert(anyList(), anyList())).thenAnswer(invocation -> {
+            attempts.incrementAndGet();
+            throw new SQLException("connection lost", "08006");
+        });
+        List<Document> documents = documents(4);
+
+        // Act
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (Document document : documents) {
+            futures.add(CompletableFuture.supplyAsync(() -> this.committer.store(document, null), this.callers));
+        }
+
+        // Assert
+        for (CompletableFuture<Boolean> future : futures) {
+            Exception ex = assertThrows(Exception.class, () -> future.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, ex.getCause());
+        }
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void testStore_callerTimedOut_shouldNotWriteDocument() throws Exception {
+        // Arrange
+        this.startCommitter(0, 100);
+        List<Document> documents = documents(2);
+        Document blocking = documents.get(0);
+        Document abandoned = documents.get(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Document> written = Collections.synchronizedList(new ArrayList<>());
+        when(this.documentJdbcWriter.insert(anyList(), anyList())).thenAnswer(invocation -> {
+            List<Document> batch = invocation.getArgument(0);
+            if (batch.contains(blocking)) {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            written.addAll(batch);
+            return Set.of();
+        });
+
+        // Act
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> this.committer.store(blocking, null), this.callers);
+        // The single writer is busy with the first document, so the second one waits in the queue until it times out
+        Thread.sleep(50);
+        assertThrows(IllegalStateException.class, () -> this.committer.store(abandoned, null));
+        release.countDown();
+        assertThrows(Exception.class, () -> first.get(10, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (this.meterRegistry.get("phase4.documents.groupcommit.abandoned").counter().count() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Assert
+        assertEquals(1.0, this.meterRegistry.get("phase4.documents.groupcommit.abandoned").counter().count());
+        assertTrue(written.contains(blocking));
+        assertFalse(written.contains(abandoned));
+    }
+
+    @Test
+    void testStore_payloadsNotDeduplicated_shouldStoreDataHash() throws Exception {
+        // Arrange
+        this.startCommitter(0, 30000, false);
+        this.answerInsert(null);
+        Document document = documents(1).get(0);
+        String expectedHash = DocumentGroupCommitter.sha256Hex(document.getData());
+
+        // Act
+        boolean inserted = this.committer.store(document, null);
+
+        // Assert
+        assertTrue(inserted);
+        assertNull(document.getPayloadHash());
+        assertEquals(expectedHash, document.getDataHash());
+    }
+
+    @Test
+    void testStore_payloadsDeduplicated_shouldOnlyStorePayloadHash() throws Exception {
+        // Arrange
+        this.startCommitter(0, 30000);
+        this.answerInsert(null);
+        Document document = documents(1).get(0);
+        String expectedHash = DocumentGroupCommitter.sha256Hex(document.getData());
+
+        // Act
+        this.committer.store(document, null);
+
+        // Assert
+        assertEquals(expectedHash, document.getPayloadHash());
+        assertNull(document.getDataHash());
+    }
+
+    @Test
+    void testIsDataError_shouldOnlyAcceptDataAndConstraintStates() {
+        // Act & Assert
+        assertTrue(DocumentGroupCommitter.isDataError(new SQLException("value too long", "22001")));
+        assertTrue(DocumentGroupCommitter.isDataError(new IllegalStateException(new SQLException("duplicate key", "23505"))));
+        assertTrue(DocumentGroupCommitter.isDataError(new SQLIntegrityConstraintViolationException("constraint")));
+        assertFalse(DocumentGroupCommitter.isDataError(new SQLException("connection lost", "08006")));
+        assertFalse(DocumentGroupCommitter.isDataError(new SQLException("pool timeout")));
+        assertFalse(DocumentGroupCommitter.isDataError(new IllegalStateException("unexpected")));
+    }
+
+    private void startCommitter(long lingerMillis, long commitTimeoutMillis) {
+        this.startCommitter(lingerMillis, commitTimeoutMillis, true);
+    }
+
+    private void startCommitter(long lingerMillis, long commitTimeoutMillis, boolean deduplicatePayloads) {
+        PeppolDocumentsIngestConfiguration configuration = new PeppolDocumentsIngestConfiguration();
+        configuration.setDeduplicatePayloads(deduplicatePayloads);
+        configuration.setBatchSize(10);
+        configuration.setLingerMillis(lingerMillis);
+        configuration.setWriterThreads(1);
+        configuration.setCommitTimeoutMillis(commitTimeoutMillis);
+        this.committer = new DocumentGroupCommitter(this.documentJdbcWriter, configuration, this.meterRegistry, new StandardEnvironment());
+        this.committer.start();
+    }
+
+    /// Inserts every batch that does not contain the bad document and fails the others, like a constraint violation.
+    private void answerInsert(Document bad) throws SQLException {
+        when(this.documentJdbcWriter.insert(anyList(), anyList())).thenAnswer(invocation -> {
+            List<Document> documents = invocation.getArgument(0);
+            if (documents.contains(bad)) {
+                throw new SQLException("value too long", "22001");
+            }
+            synchronized (this.insertedBatchSizes) {
+                this.insertedBatchSizes.add(documents.size());
+            }
+            Set<UUID> ids = new HashSet<>();
+            for (Document document : documents) {
+                if (document.getId() == null) {
+                    document.setId(UUID.randomUUID());
+                }
+                ids.add(document.getId());
+            }
+            return ids;
+        });
+    }
+
+    private List<Boolean> storeConcurrently(List<Document> documents) throws Exception {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (Document document : documents) {
+            futures.add(CompletableFuture.supplyAsync(() -> this.committer.store(document, null), this.callers));
+        }
+        List<Boolean> results = new ArrayList<>();
+        for (CompletableFuture<Boolean> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+
+    private static List<Document> documents(int count) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] data = ("<Invoice>" + i + "</Invoice>").getBytes(StandardCharsets.UTF_8);
+            documents.add(Document.builder()
+                    .data(data)
+                    .dataSize(data.length)
+                    .domain("test")
+                    .messageId(UUID.randomUUID().toString())
+                    .build());
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,111 @@
+package com.mysupply.phase4.persistence;
+
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentPayloadStoreConfiguration;
+import com.mysupply.phase4.persistence.configuration.PeppolDocumentsIngestConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentFileDocumentPayloadStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private SegmentFileDocumentPayloadStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        PeppolDocumentPayloadStoreConfiguration configuration = new PeppolDocumentPayloadStoreConfiguration();
+        configuration.setDirectory(this.directory.toString());
+        configuration.setMaxSegmentBytes(64);
+        this.store = new SegmentFileDocumentPayloadStore(configuration, new PeppolDocumentsIngestConfiguration());
+        this.store.open();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.store.close();
+    }
+
+    @Test
+    void testWriteAndRead_shouldReturnSamePayload() throws IOException {
+        // Arrange
+        byte[] first = "first payload".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "second payload".getBytes(StandardCharsets.UTF_8);
+
+        // Act
+        DocumentPayloadPointer firstPointer = this.store.write(first);
+        DocumentPayloadPointer secondPointer = this.store.write(second);
+
+        // Assert
+        assertEquals(firstPointer.getSegmentId(), secondPointer.getSegmentId());
+        assertEquals(first.length, secondPointer.getOffset());
+        assertArrayEquals(first, this.store.read(firstPointer));
+        assertArrayEquals(second, this.store.read(secondPointer));
+    }
+
+    @Test
+    void testWriteAll_batchAcrossSegments_shouldReturnPointersInOrder() throws IOException {
+        // Arrange
+        byte[] first = new byte[30];
+        byte[] second = new byte[30];
+        byte[] third = new byte[30];
+        first[0] = 1;
+        second[0] = 2;
+        third[0] = 3;
+
+        // Act
+        List<DocumentPayloadPointer> pointers = this.store.writeAll(List.of(first, second, third));
+
+        // Assert
+        assertEquals(3, pointers.size());
+        assertEquals(pointers.get(0).getSegmentId(), pointers.get(1).getSegmentId());
+        assertEquals(pointers.get(0).getSegmentId() + 1, pointers.get(2).getSegmentId());
+        assertArrayEquals(first, this.store.read(pointers.get(0)));
+        assertArrayEquals(second, this.store.read(pointers.get(1)));
+        assertArrayEquals(third, this.store.read(pointers.get(2)));
+    }
+
+    @Test
+    void testWrite_fullSegment_shouldRollAndKeepSealedSegmentReadable() throws IOException {
+        // Arrange
+        byte[] payload = new byte[40];
+        payload[0] = 1;
+        payload[39] = 2;
+
+        // Act
+        DocumentPayloadPointer sealed = this.store.write(payload);
+        DocumentPayloadPointer active = this.store.write(payload);
+
+        // Assert
+        assertEquals(sealed.getSegmentId() + 1, active.getSegmentId());
+        assertEquals(0, active.getOffset());
+        assertArrayEquals(payload, this.store.read(sealed));
+        assertArrayEquals(payload, this.store.read(active));
+        assertEquals(2, this.store.getSegmentSizes().size());
+    }
+
+    @Test
+    void testOpen_directoryInUse_shouldBeRejected() {
+        // Arrange
+        PeppolDocumentPayloadStoreConfiguration configuration = new PeppolDocumentPayloadStoreConfiguration();
+        configuration.setDirectory(this.directory.toString());
+        SegmentFileDocumentPayloadStore second = new SegmentFileDocumentPayloadStore(configuration, new PeppolDocumentsIngestConfiguration());
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, second::open);
+    }
+
+    @Test
+    void testDeleteSegment_activeSegment_shouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> this.store.deleteSegment(this.store.getActiveSegmentId()));
+    }
+}